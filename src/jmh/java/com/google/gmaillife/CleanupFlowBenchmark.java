@@ -0,0 +1,194 @@
+package com.google.gmaillife;
+
+import com.google.adk.agents.BaseAgent;
+import com.google.adk.agents.LlmAgent;
+import com.google.adk.agents.SequentialAgent;
+import com.google.adk.models.BaseLlm;
+import com.google.adk.models.BaseLlmConnection;
+import com.google.adk.models.LlmRequest;
+import com.google.adk.models.LlmResponse;
+import com.google.adk.runner.InMemoryRunner;
+import com.google.adk.tools.Annotations.Schema;
+import com.google.adk.tools.FunctionTool;
+import com.google.genai.types.Content;
+import com.google.genai.types.FunctionCall;
+import com.google.genai.types.FunctionResponse;
+import com.google.genai.types.GenerateContentConfig;
+import com.google.genai.types.Part;
+import io.reactivex.rxjava3.core.Flowable;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// analyzer -> decider of cleanupFlow, with the analyzer as an LlmAgent (before) and as a
+// ToolStage (after). Models are stubs that answer after a simulated round trip, so the numbers
+// are framework time plus round trips saved. main() prints model calls, prompt characters
+// and wall time per run for both.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class CleanupFlowBenchmark {
+
+    // simulated model round trip; 0 measures the agent framework alone
+    @Param({"0", "300"})
+    public int roundTripMs;
+
+    private Flow llmAnalyzer;
+    private Flow toolStage;
+
+    @Setup
+    public void setup() {
+        llmAnalyzer = new Flow(false, roundTripMs);
+        toolStage = new Flow(true, roundTripMs);
+    }
+
+    @Benchmark
+    public int llmAnalyzer() {
+        return llmAnalyzer.run();
+    }
+
+    @Benchmark
+    public int toolStage() {
+        return toolStage.run();
+    }
+
+    public static void main(String[] args) {
+        int runs = 20;
+        System.out.printf("%-12s %8s %12s %10s%n", "analyzer", "calls", "promptChars", "ms");
+        for (boolean direct : new boolean[]{false, true}) {
+            Flow flow = new Flow(direct, 300);
+            flow.run(); // warm up
+            flow.model.calls.set(0);
+            flow.model.promptChars.set(0);
+            long start = System.nanoTime();
+            for (int i = 0; i < runs; i++) {
+                flow.run();
+            }
+            double ms = (System.nanoTime() - start) / 1e6 / runs;
+            System.out.printf("%-12s %8.1f %12d %10.1f%n", direct ? "ToolStage" : "LlmAgent",
+                    (double) flow.model.calls.get() / runs,
+                    flow.model.promptChars.get() / runs, ms);
+        }
+    }
+
+    // One cleanupFlow prefix with its own stub model and runner
+    static final class Flow {
+        final StubModel model;
+        final InMemoryRunner runner;
+
+        Flow(boolean direct, int roundTripMs) {
+            model = new StubModel(roundTripMs);
+            StubTools tools = new StubTools();
+            BaseAgent analyzer = direct
+                    ? new ToolStage("analyzer", "Lists unread promotional emails for the decider",
+                            "analysis", tools::analyzeEmailBatch)
+                    : LlmAgent.builder()
+                            .name("analyzer")
+                            .model(model)
+                            .instruction("""
+                                    You are the ANALYZER. Call analyzeEmailBatch exactly once and return
+                                    its JSON output exactly as-is, with no other text. Then STOP.
+                                    """)
+                            .tools(List.of(FunctionTool.create(tools, "analyzeEmailBatch")))
+                            .build();
+            LlmAgent decider = LlmAgent.builder()
+                    .name("decider")
+                    .model(model)
+                    .instruction("""
+                            You are the DECIDER. Do NOT call any tools. Input is the analyzer's reply.
+                            Ask the user which action to take for the listed message IDs.
+                            """)
+                    .build();
+            runner = new InMemoryRunner(SequentialAgent.builder()
+                    .name("cleanupFlow")
+                    .subAgents(List.of(analyzer, decider))
+                    .build());
+        }
+
+        int run() {
+            String sessionId = runner.sessionService().createSession(runner.appName(), "bench").blockingGet().id();
+            Content message = Content.builder().role("user").parts(List.of(Part.fromText("clean my inbox"))).build();
+            return runner.runAsync("bench", sessionId, message).toList().blockingGet().size();
+        }
+    }
+
+    // Calls analyzeEmailBatch until it sees the tool's response, then echoes it; answers with a
+    // follow-up question otherwise (the decider)
+    static final class StubModel extends BaseLlm {
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong promptChars = new AtomicLong();
+        private final int roundTripMs;
+
+        StubModel(int roundTripMs) {
+            super("stub");
+            this.roundTripMs = roundTripMs;
+        }
+
+        @Override
+        public Flowable<LlmResponse> generateContent(LlmRequest request, boolean stream) {
+            calls.incrementAndGet();
+            promptChars.addAndGet(chars(request));
+            Content last = request.contents().isEmpty() ? null : request.contents().get(request.contents().size() - 1);
+            String system = request.config().flatMap(GenerateContentConfig::systemInstruction)
+                    .map(CleanupFlowBenchmark::text).orElse("");
+
+            Optional<FunctionResponse> toolResult = last == null ? Optional.empty()
+                    : last.parts().orElse(List.of()).stream().flatMap(p -> p.functionResponse().stream()).findFirst();
+
+            Part answer;
+            if (!system.contains("ANALYZER")) {
+                answer = Part.fromText("{\"requires_followup\": true, \"question\": \"What action should I take?\"}");
+            } else if (toolResult.isPresent()) {
+                answer = Part.fromText(String.valueOf(toolResult.get().response().orElse(Map.of())));
+            } else {
+                answer = Part.builder().functionCall(FunctionCall.builder().name("analyzeEmailBatch").args(Map.of()).build()).build();
+            }
+            LlmResponse response = LlmResponse.builder()
+                    .content(Content.builder().role("model").parts(List.of(answer)).build())
+                    .build();
+            return Flowable.just(response).delay(roundTripMs, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public BaseLlmConnection connect(LlmRequest request) {
+            throw new UnsupportedOperationException("live mode is not benchmarked");
+        }
+
+        private static long chars(LlmRequest request) {
+            long n = request.config().flatMap(GenerateContentConfig::systemInstruction)
+                    .map(c -> (long) text(c).length()).orElse(0L);
+            for (Content c : request.contents()) {
+                for (Part p : c.parts().orElse(List.of())) {
+                    n += p.text().map(String::length).orElse(0);
+                    n += p.functionResponse().map(r -> String.valueOf(r.response().orElse(Map.of())).length()).orElse(0);
+                }
+            }
+            return n;
+        }
+    }
+
+    // analyzeEmailBatch shaped result, without Gmail
+    public static final class StubTools {
+        private final Map<String, Object> batch = Map.of("items", CompactResultBenchmark.rows(50, 2));
+
+        @Schema(name = "analyzeEmailBatch", description = "Analyze unread promotional emails")
+        public Map<String, Object> analyzeEmailBatch() {
+            return batch;
+        }
+    }
+
+    private static String text(Content content) {
+        StringBuilder sb = new StringBuilder();
+        for (Part p : content.parts().orElse(List.of())) {
+            p.text().ifPresent(sb::append);
+        }
+        return sb.toString();
+    }
+}
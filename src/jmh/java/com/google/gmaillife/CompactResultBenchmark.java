@@ -0,0 +1,101 @@
+package com.google.gmaillife;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+// Size of tool responses as the model sees them (Jackson JSON), row maps vs the compact
+// columnar form, for synthetic searchEmails / analyzeEmailBatch / searchLocal pages. main()
+// prints bytes and estimated tokens per tool; the benchmarks measure what encoding costs.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompactResultBenchmark {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final String[] SENDERS = {
+            "\"Amazon.com\" <store-news@amazon.com>",
+            "\"LinkedIn Job Alerts\" <jobalerts-noreply@linkedin.com>",
+            "Medium Daily Digest <noreply@medium.com>",
+            "\"Uber Eats\" <uber@uber.com>",
+            "newsletter@substack.com",
+            "\"Delta Air Lines\" <DeltaAirLines@t.delta.com>",
+            "\"Jane Doe\" <jane.doe@gmail.com>",
+            "\"Target\" <Target@em.target.com>",
+    };
+
+    private static final String[] SUBJECTS = {
+            "Your order has shipped", "Top picks for you this week", "New jobs matching \"Java developer\"",
+            "Your Daily Digest", "Last chance: 40% off everything", "Trip confirmation - ATL to SFO",
+            "Re: dinner on Friday?", "Weekly roundup: what you missed",
+    };
+
+    private static final String SNIPPET = "Hi there, we picked a few things we think you will love based on your "
+            + "recent activity. Shop the collection before it is gone, free shipping on orders over $35. "
+            + "Questions? Visit our help center or reply to this email.";
+
+    private List<Map<String, Object>> search;
+
+    @Setup
+    public void setup() {
+        search = rows(25, 1);
+    }
+
+    @Benchmark
+    public Object rowMaps() throws Exception {
+        return MAPPER.writeValueAsString(Map.of("items", search));
+    }
+
+    @Benchmark
+    public Object compact() throws Exception {
+        return MAPPER.writeValueAsString(Map.of("items", CompactResult.encode(search, UnsubscriberBot.SEARCH_TOKEN_BUDGET)));
+    }
+
+    // searchEmails / analyzeEmailBatch shaped rows
+    static List<Map<String, Object>> rows(int count, long seed) {
+        Random random = new Random(seed);
+        List<Map<String, Object>> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("id", Long.toHexString(0x18c0000000000000L + random.nextInt(1 << 30)));
+            row.put("subject", SUBJECTS[random.nextInt(SUBJECTS.length)]);
+            row.put("from", SENDERS[random.nextInt(SENDERS.length)]);
+            row.put("date", "Tue, " + (1 + random.nextInt(28)) + " Nov 2023 10:" + (10 + random.nextInt(50)) + ":33 +0000 (UTC)");
+            row.put("snippet", SNIPPET.substring(0, 120 + random.nextInt(SNIPPET.length() - 120)));
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    // searchLocal shaped hits
+    static List<Map<String, Object>> hits(int count, long seed) {
+        List<Map<String, Object>> hits = rows(count, seed);
+        for (int i = 0; i < hits.size(); i++) {
+            hits.get(i).put("date", "2023-11-" + (10 + i % 18));
+            hits.get(i).put("score", Math.round((9.5 - i * 0.3) * 100) / 100.0);
+        }
+        return hits;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.printf("%-20s %10s %10s %10s %10s %8s%n", "tool", "bytes", "tokens", "c.bytes", "c.tokens", "saved");
+        report("searchEmails", rows(25, 1), UnsubscriberBot.SEARCH_TOKEN_BUDGET);
+        report("analyzeEmailBatch", rows(50, 2), UnsubscriberBot.ANALYZE_TOKEN_BUDGET);
+        report("searchLocal", hits(20, 3), UnsubscriberBot.LOCAL_TOKEN_BUDGET);
+    }
+
+    private static void report(String tool, List<Map<String, Object>> rows, int budget) throws Exception {
+        String before = MAPPER.writeValueAsString(Map.of("items", rows));
+        String after = MAPPER.writeValueAsString(Map.of("items", CompactResult.encode(rows, budget)));
+        int t0 = CompactResult.estimateTokens(before);
+        int t1 = CompactResult.estimateTokens(after);
+        System.out.printf("%-20s %10d %10d %10d %10d %7d%%%n", tool, before.length(), t0, after.length(), t1,
+                100 - 100 * t1 / t0);
+    }
+}
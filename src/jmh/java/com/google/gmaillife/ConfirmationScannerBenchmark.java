@@ -0,0 +1,86 @@
+package com.google.gmaillife;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// Confirmation check over ESP-style landing pages: streaming scanner vs the old
+// readAllBytes + toLowerCase + contains approach
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ConfirmationScannerBenchmark {
+
+    @Param({"65536", "2097152"})
+    public int pageBytes;
+
+    // where the confirmation phrase sits: near the top, after the page body, or nowhere
+    @Param({"early", "late", "none"})
+    public String placement;
+
+    private byte[] page;
+
+    @Setup
+    public void setup() {
+        page = Pages.landingPage(pageBytes, placement).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public boolean streamingScanner() {
+        return HttpUnsubscriber.isConfirmedUnsub(200, "text/html; charset=utf-8", new ByteArrayInputStream(page));
+    }
+
+    @Benchmark
+    public boolean readAllAndLowercase() throws IOException {
+        return legacyIsConfirmed(new ByteArrayInputStream(page));
+    }
+
+    // The pre-scanner HTML branch, kept here as the baseline
+    static boolean legacyIsConfirmed(InputStream is) throws IOException {
+        String body = new String(is.readAllBytes(), StandardCharsets.UTF_8).toLowerCase();
+        return body.contains("you have been unsubscribed") ||
+                body.contains("successfully unsubscribed") ||
+                body.contains("unsubscribed successfully") ||
+                body.contains("subscription cancelled");
+    }
+
+    // Synthetic pages shaped like real ESP preference centers: inline CSS, nested layout tables,
+    // tracking pixels, footers full of near-miss words ("unsubscribe", "subscription")
+    static final class Pages {
+        private static final String HEAD = """
+                <!DOCTYPE html><html><head><meta charset="utf-8"><title>Email Preferences</title>
+                <style>body{font-family:Helvetica,Arial,sans-serif;margin:0}.btn{padding:12px 24px;border-radius:4px}
+                td.content{padding:0 24px;color:#333}@media (max-width:600px){.col{display:block!important}}</style>
+                </head><body>
+                """;
+        private static final String CONFIRMATION =
+                "<div class=\"notice\"><h1>You have been unsubscribed</h1><p>You will no longer receive these emails.</p></div>\n";
+        private static final String FILLER = """
+                <table role="presentation" width="100%" cellpadding="0" cellspacing="0"><tr>
+                <td class="content col"><p>Manage your Subscription settings. Choose which updates you want to receive,
+                or unsubscribe from all marketing email. Preferences are saved per list.</p>
+                <img src="https://click.example-esp.com/open.gif?u=8f3a2c&amp;m=72611" width="1" height="1" alt="">
+                <a class="btn" href="https://click.example-esp.com/ls/click?upn=Xq29aB7-2FpLm0&amp;t=preferences">Update</a></td>
+                </tr></table>
+                """;
+        private static final String TAIL = "<footer>&copy; Example Corp. 1 Market St.</footer></body></html>\n";
+
+        static String landingPage(int bytes, String placement) {
+            StringBuilder sb = new StringBuilder(bytes + 512);
+            sb.append(HEAD);
+            if ("early".equals(placement)) sb.append(CONFIRMATION);
+            while (sb.length() < bytes) {
+                sb.append(FILLER);
+            }
+            if ("late".equals(placement)) sb.append(CONFIRMATION);
+            sb.append(TAIL);
+            return sb.toString();
+        }
+    }
+}
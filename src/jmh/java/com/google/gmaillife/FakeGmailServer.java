@@ -0,0 +1,515 @@
+package com.google.gmaillife;
+
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.services.gmail.Gmail;
+import com.google.api.services.gmail.model.BatchModifyMessagesRequest;
+import com.google.api.services.gmail.model.Label;
+import com.google.api.services.gmail.model.ListHistoryResponse;
+import com.google.api.services.gmail.model.ListLabelsResponse;
+import com.google.api.services.gmail.model.Message;
+import com.google.api.services.gmail.model.ModifyMessageRequest;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+// In-process stand-in for the Gmail REST endpoints the tools call, over a SyntheticMailbox:
+// messages list/get/modify/batchModify/trash/send, threads.get, labels list/get, history.list,
+// getProfile and the batch endpoint, plus a List-Unsubscribe target that always confirms.
+// Each Gmail request, and each sub-request of a batch, is delayed by a latency sample and fails
+// with a 429 or 5xx at the configured rates, in Gmail's error format, so retries, backoff and
+// hedging all run as they would against the real service. fields= masks are not applied.
+final class FakeGmailServer implements AutoCloseable {
+
+    private static final String USERS_PATH = "/gmail/v1/users/";
+    private static final String BATCH_PATH = "/batch/gmail/v1";
+    private static final String UNSUBSCRIBE_PATH = "/unsubscribe/";
+
+    private static final JsonFactory JSON = GsonFactory.getDefaultInstance();
+    private static final byte[] UNSUBSCRIBED_PAGE =
+            "<html><body><h1>You have been unsubscribed</h1></body></html>".getBytes(StandardCharsets.UTF_8);
+
+    // Injected per Gmail request: a latency sample, then a 429 with probability throttleRate or
+    // a 500/503 with probability serverErrorRate
+    record Faults(Latency latency, double throttleRate, double serverErrorRate) {}
+
+    // Simulated service time: none, fixed:<ms>, uniform:<minMs>:<maxMs> or lognormal:<medianMs>:<sigma>
+    // (a long right tail, like measured Gmail round trips)
+    @FunctionalInterface
+    interface Latency {
+        long sampleNanos();
+
+        static Latency parse(String spec) {
+            String[] p = spec.split(":");
+            try {
+                switch (p[0]) {
+                    case "none":
+                        return () -> 0;
+                    case "fixed": {
+                        long nanos = millis(p[1]);
+                        return () -> nanos;
+                    }
+                    case "uniform": {
+                        long min = millis(p[1]);
+                        long max = millis(p[2]);
+                        return () -> min + ThreadLocalRandom.current().nextLong(max - min + 1);
+                    }
+                    case "lognormal": {
+                        double median = millis(p[1]);
+                        double sigma = Double.parseDouble(p[2]);
+                        return () -> (long) (median * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+                    }
+                    default:
+                        break;
+                }
+            } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                // reported below
+            }
+            throw new IllegalArgumentException("Bad latency " + spec
+                    + "; use none, fixed:<ms>, uniform:<minMs>:<maxMs> or lognormal:<medianMs>:<sigma>");
+        }
+
+        private static long millis(String ms) {
+            return (long) (Double.parseDouble(ms) * 1_000_000);
+        }
+    }
+
+    private record Response(int code, byte[] body) {}
+
+    // One application/http part of a batch request
+    private record SubRequest(String contentId, String method, String path, String query, byte[] body) {}
+
+    private final HttpServer server;
+    private final SyntheticMailbox mailbox;
+    private final Faults faults;
+    private final Map<String, LongAdder> calls = new ConcurrentHashMap<>();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder serverErrors = new LongAdder();
+
+    private FakeGmailServer(HttpServer server, SyntheticMailbox mailbox, Faults faults) {
+        this.server = server;
+        this.mailbox = mailbox;
+        this.faults = faults;
+    }
+
+    // Binds an ephemeral localhost port and seeds a mailbox of `messages` messages
+    static FakeGmailServer start(int messages, long seed, Faults faults) throws IOException {
+        HttpServer http = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+        String url = "http://localhost:" + http.getAddress().getPort();
+        SyntheticMailbox mailbox = new SyntheticMailbox(messages, seed, url + UNSUBSCRIBE_PATH);
+
+        FakeGmailServer fake = new FakeGmailServer(http, mailbox, faults);
+        http.createContext("/", fake::handle);
+        // requests mostly sleep out their latency; a virtual thread each keeps that cheap
+        http.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        http.start();
+        return fake;
+    }
+
+    // Root URL for Gmail.Builder.setRootUrl; REST and batch paths hang off it
+    String url() {
+        return "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    // A Gmail client for this server, with the metered JSON factory GmailSupportApp uses
+    Gmail client() {
+        return new Gmail.Builder(new NetHttpTransport(), PayloadMeter.wrap(GsonFactory.getDefaultInstance()), null)
+                .setRootUrl(url())
+                .setApplicationName("Gmail Life Support load test")
+                .build();
+    }
+
+    SyntheticMailbox mailbox() {
+        return mailbox;
+    }
+
+    // Requests per endpoint (batch sub-requests counted individually) and faults injected
+    Map<String, Object> stats() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (var entry : calls.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().sum());
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("calls", counts);
+        result.put("throttled", throttled.sum());
+        result.put("serverErrors", serverErrors.sum());
+        return result;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            URI uri = exchange.getRequestURI();
+            String path = uri.getRawPath();
+            byte[] body = readBody(exchange);
+
+            if (path.startsWith(UNSUBSCRIBE_PATH)) {
+                count("unsubscribe");
+                pause(faults.latency().sampleNanos());
+                exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+                exchange.sendResponseHeaders(200, UNSUBSCRIBED_PAGE.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(UNSUBSCRIBED_PAGE);
+                }
+            } else if (path.equals(BATCH_PATH)) {
+                batch(exchange, body);
+            } else {
+                pause(faults.latency().sampleNanos());
+                send(exchange, call(exchange.getRequestMethod(), path, uri.getRawQuery(), body));
+            }
+        } catch (RuntimeException e) {
+            System.out.println("Fake Gmail failed on " + exchange.getRequestURI() + ": " + e);
+            send(exchange, error(500, "backendError", String.valueOf(e.getMessage())));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // Parts are answered in request order, which is how the client matches them to callbacks.
+    // Sub-requests are served in parallel, so the envelope waits for the slowest latency sample.
+    private void batch(HttpExchange exchange, byte[] body) throws IOException {
+        count("batch");
+        String boundary = boundary(exchange.getRequestHeaders().getFirst("Content-Type"));
+        if (boundary == null) {
+            send(exchange, error(400, "invalidArgument", "Batch request without a multipart boundary"));
+            return;
+        }
+        List<SubRequest> parts = parseBatch(body, boundary);
+        if (parts.size() > GmailExecutor.MAX_BATCH_SIZE) {
+            send(exchange, error(400, "invalidArgument", "Too many requests in batch: " + parts.size()));
+            return;
+        }
+
+        long wait = 0;
+        for (int i = 0; i < parts.size(); i++) {
+            wait = Math.max(wait, faults.latency().sampleNanos());
+        }
+        pause(wait);
+
+        String responseBoundary = "batch_" + UUID.randomUUID().toString().replace("-", "");
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 * 1024);
+        for (SubRequest part : parts) {
+            Response r = call(part.method(), part.path(), part.query(), part.body());
+            byte[] content = r.body() == null ? new byte[0] : r.body();
+            StringBuilder head = new StringBuilder(256)
+                    .append("--").append(responseBoundary).append("\r\n")
+                    .append("Content-Type: application/http\r\n")
+                    .append("Content-ID: <response-").append(part.contentId()).append(">\r\n\r\n")
+                    .append("HTTP/1.1 ").append(r.code()).append(' ').append(reason(r.code())).append("\r\n");
+            if (content.length > 0) head.append("Content-Type: application/json; charset=UTF-8\r\n");
+            head.append("Content-Length: ").append(content.length).append("\r\n\r\n");
+            out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+            out.write(content);
+            out.write("\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        }
+        out.write(("--" + responseBoundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1));
+
+        byte[] response = out.toByteArray();
+        exchange.getResponseHeaders().set("Content-Type", "multipart/mixed; boundary=" + responseBoundary);
+        exchange.sendResponseHeaders(200, response.length);
+        try (OutputStream stream = exchange.getResponseBody()) {
+            stream.write(response);
+        }
+    }
+
+    // One Gmail REST call, after fault injection (its latency has already been waited out)
+    private Response call(String method, String rawPath, String rawQuery, byte[] body) {
+        if (!rawPath.startsWith(USERS_PATH)) return error(404, "notFound", "Unknown path " + rawPath);
+        String[] p = rawPath.substring(USERS_PATH.length()).split("/");
+        for (int i = 0; i < p.length; i++) {
+            p[i] = URLDecoder.decode(p[i], StandardCharsets.UTF_8);
+        }
+        String endpoint = endpoint(method, p);
+        if (endpoint == null) return error(404, "notFound", method + " " + rawPath + " is not a Gmail method here");
+        count(endpoint);
+
+        double r = ThreadLocalRandom.current().nextDouble();
+        if (r < faults.throttleRate()) {
+            throttled.increment();
+            return error(429, "rateLimitExceeded", "Too many concurrent requests for user.");
+        }
+        if (r < faults.throttleRate() + faults.serverErrorRate()) {
+            serverErrors.increment();
+            return r < faults.throttleRate() + faults.serverErrorRate() / 2
+                    ? error(500, "backendError", "Internal error encountered.")
+                    : error(503, "backendError", "The service is currently unavailable.");
+        }
+
+        try {
+            return dispatch(endpoint, p, params(rawQuery), body);
+        } catch (IllegalArgumentException e) {
+            return error(400, "invalidArgument", e.getMessage());
+        } catch (IOException e) {
+            return error(400, "parseError", "Invalid JSON payload received. " + e.getMessage());
+        }
+    }
+
+    // p is the path under /gmail/v1/users/: {userId}/{resource}[/{id}[/{action}]]
+    private static String endpoint(String method, String[] p) {
+        if (p.length < 2) return null;
+        boolean get = method.equals("GET");
+        boolean post = method.equals("POST");
+        return switch (p[1]) {
+            case "messages" -> {
+                if (p.length == 2) yield get ? "messages.list" : null;
+                if (p.length == 3 && p[2].equals("send")) yield post ? "messages.send" : null;
+                if (p.length == 3 && p[2].equals("batchModify")) yield post ? "messages.batchModify" : null;
+                if (p.length == 3) yield get ? "messages.get" : null;
+                if (p.length == 4 && p[3].equals("modify")) yield post ? "messages.modify" : null;
+                if (p.length == 4 && p[3].equals("trash")) yield post ? "messages.trash" : null;
+                yield null;
+            }
+            case "threads" -> p.length == 3 && get ? "threads.get" : null;
+            case "labels" -> !get ? null : p.length == 2 ? "labels.list" : p.length == 3 ? "labels.get" : null;
+            case "history" -> p.length == 2 && get ? "history.list" : null;
+            case "profile" -> p.length == 2 && get ? "getProfile" : null;
+            default -> null;
+        };
+    }
+
+    private Response dispatch(String endpoint, String[] p, Map<String, List<String>> params, byte[] body) throws IOException {
+        switch (endpoint) {
+            case "messages.list": {
+                int max = Math.min(500, intParam(params, "maxResults", 100));
+                return json(mailbox.list(first(params, "q"), params.get("labelIds"),
+                        Boolean.parseBoolean(first(params, "includeSpamTrash")), max, first(params, "pageToken")));
+            }
+            case "messages.get": {
+                int i = mailbox.index(p[2]);
+                if (i < 0) return notFound();
+                String format = Objects.requireNonNullElse(first(params, "format"), "full");
+                return json(mailbox.message(i, format, params.get("metadataHeaders")));
+            }
+            case "messages.modify": {
+                ModifyMessageRequest req = JSON.fromString(new String(body, StandardCharsets.UTF_8), ModifyMessageRequest.class);
+                return labelsChanged(p[2], mailbox.modify(mailbox.index(p[2]), req.getAddLabelIds(), req.getRemoveLabelIds()));
+            }
+            case "messages.trash":
+                return labelsChanged(p[2], mailbox.modify(mailbox.index(p[2]), List.of("TRASH"), List.of()));
+            case "messages.batchModify": {
+                BatchModifyMessagesRequest req = JSON.fromString(new String(body, StandardCharsets.UTF_8), BatchModifyMessagesRequest.class);
+                List<String> ids = req.getIds() == null ? List.of() : req.getIds();
+                if (ids.size() > UnsubscriberBot.BATCH_MODIFY_SIZE) {
+                    throw new IllegalArgumentException("Too many IDs: " + ids.size());
+                }
+                // unknown IDs are skipped rather than failing the call
+                for (String id : ids) {
+                    mailbox.modify(mailbox.index(id), req.getAddLabelIds(), req.getRemoveLabelIds());
+                }
+                return new Response(204, null);
+            }
+            case "messages.send": {
+                Message message = JSON.fromString(new String(body, StandardCharsets.UTF_8), Message.class);
+                return json(mailbox.send(message.getRaw()));
+            }
+            case "threads.get": {
+                List<Message> messages = mailbox.thread(p[2],
+                        Objects.requireNonNullElse(first(params, "format"), "full"), params.get("metadataHeaders"));
+                if (messages == null) return notFound();
+                return json(new com.google.api.services.gmail.model.Thread()
+                        .setId(p[2])
+                        .setHistoryId(BigInteger.valueOf(mailbox.latestHistoryId()))
+                        .setMessages(messages));
+            }
+            case "labels.list":
+                return json(new ListLabelsResponse().setLabels(mailbox.labels()));
+            case "labels.get": {
+                Label label = mailbox.label(p[2]);
+                return label == null ? notFound() : json(label);
+            }
+            case "history.list": {
+                String start = first(params, "startHistoryId");
+                if (start == null) throw new IllegalArgumentException("startHistoryId is required");
+                int max = Math.min(500, intParam(params, "maxResults", 100));
+                ListHistoryResponse history = mailbox.history(Long.parseLong(start), max, first(params, "pageToken"));
+                return history == null ? notFound() : json(history);
+            }
+            case "getProfile":
+                return json(mailbox.profile());
+            default:
+                return notFound();
+        }
+    }
+
+    private static Response labelsChanged(String id, List<String> labels) throws IOException {
+        if (labels == null) return notFound();
+        return json(new Message().setId(id).setLabelIds(labels));
+    }
+
+    private static Response json(Object value) throws IOException {
+        return new Response(200, JSON.toByteArray(value));
+    }
+
+    private static Response notFound() {
+        return error(404, "notFound", "Requested entity was not found.");
+    }
+
+    // Gmail's error body, which GoogleJsonResponseException and JsonBatchCallback parse
+    private static Response error(int code, String reason, String message) {
+        Map<String, Object> detail = new LinkedHashMap<>();
+        detail.put("message", message);
+        detail.put("domain", code == 429 ? "usageLimits" : "global");
+        detail.put("reason", reason);
+        Map<String, Object> error = new LinkedHashMap<>();
+        error.put("code", code);
+        error.put("message", message);
+        error.put("errors", List.of(detail));
+        error.put("status", switch (code) {
+            case 400 -> "INVALID_ARGUMENT";
+            case 404 -> "NOT_FOUND";
+            case 429 -> "RESOURCE_EXHAUSTED";
+            case 503 -> "UNAVAILABLE";
+            default -> "INTERNAL";
+        });
+        try {
+            return new Response(code, JSON.toByteArray(Map.of("error", error)));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String reason(int code) {
+        return switch (code) {
+            case 200 -> "OK";
+            case 204 -> "No Content";
+            case 400 -> "Bad Request";
+            case 404 -> "Not Found";
+            case 429 -> "Too Many Requests";
+            case 503 -> "Service Unavailable";
+            default -> "Internal Server Error";
+        };
+    }
+
+    private static void send(HttpExchange exchange, Response r) throws IOException {
+        if (r.body() == null) {
+            exchange.sendResponseHeaders(r.code(), -1);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(r.code(), r.body().length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(r.body());
+        }
+    }
+
+    // The client may gzip request bodies
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        byte[] raw = in.readAllBytes();
+        if (raw.length > 0 && "gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            try (InputStream gz = new GZIPInputStream(new ByteArrayInputStream(raw))) {
+                return gz.readAllBytes();
+            }
+        }
+        return raw;
+    }
+
+    private static String boundary(String contentType) {
+        if (contentType == null) return null;
+        for (String param : contentType.split(";")) {
+            String p = param.trim();
+            if (p.regionMatches(true, 0, "boundary=", 0, 9)) {
+                String b = p.substring(9);
+                return b.startsWith("\"") && b.endsWith("\"") && b.length() > 1 ? b.substring(1, b.length() - 1) : b;
+            }
+        }
+        return null;
+    }
+
+    // multipart/mixed body of application/http parts, each an HTTP request line, headers and body.
+    // ISO-8859-1 maps bytes one to one, so JSON bodies come back out as the bytes that went in.
+    private static List<SubRequest> parseBatch(byte[] body, String boundary) {
+        String s = new String(body, StandardCharsets.ISO_8859_1);
+        List<SubRequest> parts = new ArrayList<>();
+        for (String part : s.split(Pattern.quote("--" + boundary))) {
+            if (part.startsWith("--")) break;
+            if (part.startsWith("\r\n")) part = part.substring(2);
+            int headersEnd = part.indexOf("\r\n\r\n");
+            if (headersEnd < 0) continue;
+
+            String contentId = String.valueOf(parts.size() + 1);
+            for (String line : part.substring(0, headersEnd).split("\r\n")) {
+                if (line.regionMatches(true, 0, "Content-ID:", 0, 11)) {
+                    contentId = line.substring(11).trim().replace("<", "").replace(">", "");
+                }
+            }
+
+            String http = part.substring(headersEnd + 4);
+            int lineEnd = http.indexOf("\r\n");
+            String[] requestLine = (lineEnd < 0 ? http : http.substring(0, lineEnd)).split(" ");
+            if (requestLine.length < 2) continue;
+            int innerEnd = http.indexOf("\r\n\r\n");
+            String content = innerEnd < 0 ? "" : http.substring(innerEnd + 4);
+            if (content.endsWith("\r\n")) content = content.substring(0, content.length() - 2);
+
+            // the client writes absolute URLs; a bare path is accepted too
+            URI target = URI.create(requestLine[1]);
+            parts.add(new SubRequest(contentId, requestLine[0], target.getRawPath(), target.getRawQuery(),
+                    content.getBytes(StandardCharsets.ISO_8859_1)));
+        }
+        return parts;
+    }
+
+    private static Map<String, List<String>> params(String rawQuery) {
+        Map<String, List<String>> params = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) return params;
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            params.computeIfAbsent(key, k -> new ArrayList<>()).add(value);
+        }
+        return params;
+    }
+
+    private static String first(Map<String, List<String>> params, String key) {
+        List<String> values = params.get(key);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    private static int intParam(Map<String, List<String>> params, String key, int fallback) {
+        String v = first(params, key);
+        if (v == null) return fallback;
+        try {
+            return Integer.parseInt(v);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + key + ": " + v);
+        }
+    }
+
+    private void count(String endpoint) {
+        calls.computeIfAbsent(endpoint, k -> new LongAdder()).increment();
+    }
+
+    private static void pause(long nanos) {
+        if (nanos <= 0) return;
+        try {
+            Thread.sleep(Duration.ofNanos(nanos));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
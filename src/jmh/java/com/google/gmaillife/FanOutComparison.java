@@ -0,0 +1,127 @@
+package com.google.gmaillife;
+
+import com.google.api.services.gmail.model.ListMessagesResponse;
+import com.google.api.services.gmail.model.Message;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.Callable;
+
+// Wall clock and HTTP round trips of a tool's Gmail fan-out done one request at a time vs the
+// way the tools do it now, against a FakeGmailServer with per-request latency and no faults:
+//   analyze  the 50 messages analyzeEmailBatch lists, as sequential messages.get calls vs one
+//            MessageFetcher batch
+//   scan     MailArchaeologist's category counts, one bucket after another vs on virtual threads
+//   mvn -Pjmh test-compile exec:exec -Djmh.main=com.google.gmaillife.FanOutComparison \
+//       -Djmh.args="latency=lognormal:40:0.6 rounds=20"
+public final class FanOutComparison {
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("messages", "10000");
+        DEFAULTS.put("latency", "lognormal:30:0.5");
+        DEFAULTS.put("rounds", "10");
+        DEFAULTS.put("seed", "42");
+    }
+
+    private FanOutComparison() {}
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = new LinkedHashMap<>(DEFAULTS);
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0 || !DEFAULTS.containsKey(arg.substring(0, eq))) {
+                System.err.println("Unknown argument " + arg + "; options (key=value) and defaults: " + DEFAULTS);
+                System.exit(2);
+            }
+            opts.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        int rounds = Integer.parseInt(opts.get("rounds"));
+        FakeGmailServer.Faults faults = new FakeGmailServer.Faults(FakeGmailServer.Latency.parse(opts.get("latency")), 0, 0);
+
+        PrintStream console = System.out;
+        try (FakeGmailServer server = FakeGmailServer.start(Integer.parseInt(opts.get("messages")),
+                Long.parseLong(opts.get("seed")), faults)) {
+            console.println("Fake Gmail at " + server.url() + "; " + opts);
+            GmailExecutor executor = new GmailExecutor(server.client(), new QuotaLimiter(QuotaLimiter.PER_USER_UNITS_PER_SECOND));
+            MessageFetcher fetcher = new MessageFetcher(executor, null);
+
+            console.printf("%-32s %12s %10s %10s %10s%n", "fan-out", "round trips", "p50 ms", "max ms", "speedup");
+            // the executor and tools log every call
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            try {
+                ListMessagesResponse listed = fetcher.list("category:promotions is:unread", 50L, null);
+                List<String> ids = new ArrayList<>();
+                for (Message m : listed.getMessages()) ids.add(m.getId());
+
+                compare(console, "analyze (" + ids.size() + " msgs)", "batched", rounds,
+                        () -> {
+                            for (String id : ids) {
+                                executor.execute(GmailMethod.MESSAGES_GET, () -> fetcher.get(id, UnsubscriberBot.ANALYZE));
+                            }
+                            return ids.size();
+                        },
+                        () -> fetcher.fetch(ids, UnsubscriberBot.ANALYZE).roundTrips());
+
+                // scan() rather than scanMailbox(), which would answer from its cached result
+                MailArchaeologist archaeologist = new MailArchaeologist(fetcher);
+                compare(console, "scan", "concurrent", rounds,
+                        () -> requests(server, () -> archaeologist.scan(false)),
+                        () -> requests(server, () -> archaeologist.scan(true)));
+            } finally {
+                System.setOut(console);
+            }
+            console.println("Server: " + server.stats());
+        }
+    }
+
+    // One way of doing the fan-out; returns the HTTP round trips it made
+    @FunctionalInterface
+    private interface FanOut {
+        int run() throws Exception;
+    }
+
+    // HTTP requests the server saw while the call ran; none of them are batched
+    private static int requests(FakeGmailServer server, Callable<?> call) throws Exception {
+        long before = calls(server);
+        call.call();
+        return (int) (calls(server) - before);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static long calls(FakeGmailServer server) {
+        long total = 0;
+        for (long n : ((Map<String, Long>) server.stats().get("calls")).values()) total += n;
+        return total;
+    }
+
+    // One warm call each, then `rounds` alternating timed calls so drift hits both sides alike
+    private static void compare(PrintStream out, String name, String currentName, int rounds,
+                                FanOut sequential, FanOut current) throws Exception {
+        sequential.run();
+        current.run();
+        long[][] nanos = new long[2][rounds];
+        int[] trips = new int[2];
+        for (int r = 0; r < rounds; r++) {
+            long start = System.nanoTime();
+            trips[0] = sequential.run();
+            long middle = System.nanoTime();
+            trips[1] = current.run();
+            nanos[0][r] = middle - start;
+            nanos[1][r] = System.nanoTime() - middle;
+        }
+        Arrays.sort(nanos[0]);
+        Arrays.sort(nanos[1]);
+        long p50Sequential = nanos[0][rounds / 2];
+        long p50Current = nanos[1][rounds / 2];
+        row(out, name + " sequential", trips[0], p50Sequential, nanos[0][rounds - 1], "");
+        row(out, name + " " + currentName, trips[1], p50Current, nanos[1][rounds - 1],
+                String.format("%.1fx", (double) p50Sequential / Math.max(1, p50Current)));
+    }
+
+    private static void row(PrintStream out, String name, int trips, long p50, long max, String speedup) {
+        out.printf("%-32s %12d %10.1f %10.1f %10s%n", name, trips, p50 / 1e6, max / 1e6, speedup);
+    }
+}
@@ -0,0 +1,235 @@
+package com.google.gmaillife;
+
+import com.google.api.services.gmail.Gmail;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// End-to-end load test: the real tools (UnsubscriberBot, ManageInbox, MailArchaeologist) over the
+// real GmailExecutor, QuotaLimiter and MessageFetcher, against a FakeGmailServer on localhost with
+// injected latency and 429/5xx faults. Concurrent workers issue a weighted mix of tool calls;
+// after a warmup, throughput and latency percentiles are reported per tool call.
+//   mvn -Pjmh test-compile exec:exec -Djmh.main=com.google.gmaillife.GmailLoadTest \
+//       -Djmh.args="messages=1000000 threads=32 seconds=60 latency=lognormal:40:0.6 rate429=0.02"
+public final class GmailLoadTest {
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("messages", "100000");
+        DEFAULTS.put("threads", "16");
+        DEFAULTS.put("warmup", "10");
+        DEFAULTS.put("seconds", "30");
+        DEFAULTS.put("latency", "lognormal:30:0.5");
+        DEFAULTS.put("rate429", "0.01");
+        DEFAULTS.put("rate5xx", "0.005");
+        DEFAULTS.put("quota", String.valueOf(QuotaLimiter.PER_USER_UNITS_PER_SECOND));
+        DEFAULTS.put("seed", "42");
+        DEFAULTS.put("verbose", "false");
+    }
+
+    private static final String[] QUERIES = {
+            "is:unread", "category:promotions", "category:social newer_than:30d", "in:inbox is:unread",
+            "is:starred", "older_than:1y", "from:amazon.com", "subject:order",
+    };
+
+    private static final int BULK_SIZE = 10;
+    // Highest trackable latency: one minute, in microseconds
+    private static final long MAX_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    // One tool call in the mix, drawn with probability weight / sum of weights
+    private record Op(String name, int weight, Callable<Map<String, Object>> call) {}
+
+    private static final class Recorder {
+        final Histogram micros = new ConcurrentHistogram(MAX_MICROS, 3);
+        final LongAdder errors = new LongAdder();
+    }
+
+    private GmailLoadTest() {}
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = new LinkedHashMap<>(DEFAULTS);
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0 || !DEFAULTS.containsKey(arg.substring(0, eq))) {
+                System.err.println("Unknown argument " + arg + "; options (key=value) and defaults: " + DEFAULTS);
+                System.exit(2);
+            }
+            opts.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        int messages = Integer.parseInt(opts.get("messages"));
+        int threads = Integer.parseInt(opts.get("threads"));
+        long warmup = Long.parseLong(opts.get("warmup"));
+        long seconds = Long.parseLong(opts.get("seconds"));
+        if (messages < 1 || messages > SyntheticMailbox.MAX_MESSAGES) {
+            throw new IllegalArgumentException("messages must be 1.." + SyntheticMailbox.MAX_MESSAGES);
+        }
+
+        // HttpURLConnection keeps only 5 idle connections per host by default; every worker
+        // plus a hedge or two needs its own
+        System.setProperty("http.maxConnections", String.valueOf(threads * 4));
+
+        PrintStream console = System.out;
+        FakeGmailServer.Faults faults = new FakeGmailServer.Faults(FakeGmailServer.Latency.parse(opts.get("latency")),
+                Double.parseDouble(opts.get("rate429")), Double.parseDouble(opts.get("rate5xx")));
+
+        long setup = System.nanoTime();
+        try (FakeGmailServer server = FakeGmailServer.start(messages, Long.parseLong(opts.get("seed")), faults)) {
+            console.println("Fake Gmail at " + server.url() + " with " + messages + " messages (built in "
+                    + (System.nanoTime() - setup) / 1_000_000 + " ms); " + opts);
+
+            Gmail gmail = server.client();
+            GmailExecutor executor = new GmailExecutor(gmail, new QuotaLimiter(Double.parseDouble(opts.get("quota"))));
+            MessageFetcher fetcher = new MessageFetcher(executor, null);
+            List<Op> ops = ops(server.mailbox(), new UnsubscriberBot(gmail, fetcher), new ManageInbox(gmail, fetcher),
+                    new MailArchaeologist(fetcher));
+
+            // the tools log every call; at load that is all noise
+            if (!Boolean.parseBoolean(opts.get("verbose"))) System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            try {
+                if (warmup > 0) {
+                    console.println("Warming up for " + warmup + " s");
+                    run(ops, threads, warmup);
+                }
+                console.println("Measuring for " + seconds + " s with " + threads + " workers");
+                long start = System.nanoTime();
+                Map<String, Recorder> results = run(ops, threads, seconds);
+                report(console, results, (System.nanoTime() - start) / 1e9);
+            } finally {
+                System.setOut(console);
+            }
+
+            console.println("Server: " + server.stats());
+            console.println("Executor: " + executor.latencySnapshot());
+            console.println("Quota: " + executor.limiter().snapshot());
+            console.println("Payload bytes parsed: " + PayloadMeter.totalBytes());
+        }
+    }
+
+    // Reads dominate, as they do for an assistant session; archaeology calls are rare but heavy
+    private static List<Op> ops(SyntheticMailbox mailbox, UnsubscriberBot unsubscriber, ManageInbox inbox,
+                                MailArchaeologist archaeologist) {
+        return List.of(
+                new Op("unsubscriber.searchEmails", 20, () -> unsubscriber.searchEmails(query(), "")),
+                new Op("unsubscriber.analyzeEmailBatch", 3, unsubscriber::analyzeEmailBatch),
+                new Op("unsubscriber.getEmail", 15, () -> unsubscriber.getEmail(anyId(mailbox))),
+                new Op("unsubscriber.getThread", 8, () -> unsubscriber.getThread(mailbox.threadId(anyIndex(mailbox)))),
+                new Op("unsubscriber.archiveEmails", 4, () -> unsubscriber.archiveEmails(ids(mailbox))),
+                new Op("unsubscriber.markAsReadBulk", 4, () -> unsubscriber.markAsReadBulk(ids(mailbox))),
+                new Op("unsubscriber.unsubscribeEmail", 3, () -> unsubscriber.unsubscribeEmail(promoId(mailbox))),
+                new Op("inbox.searchEmails", 12, () -> inbox.searchEmails(query(), "")),
+                new Op("inbox.getEmail", 12, () -> inbox.getEmail(anyId(mailbox))),
+                new Op("inbox.markAsRead", 6, () -> inbox.markAsRead(anyId(mailbox))),
+                new Op("inbox.archiveEmail", 4, () -> inbox.archiveEmail(anyId(mailbox))),
+                new Op("inbox.trashEmail", 1, () -> inbox.trashEmail(anyId(mailbox))),
+                new Op("archaeologist.topSenders", 1,
+                        () -> archaeologist.topSenders("newer_than:" + (1 + ThreadLocalRandom.current().nextInt(90)) + "d", "sender", 10)),
+                new Op("archaeologist.scanMailbox", 1, archaeologist::scanMailbox));
+    }
+
+    // Each worker draws ops until the deadline; a call counts as an error if it throws or its
+    // result says status=error
+    private static Map<String, Recorder> run(List<Op> ops, int threads, long seconds) throws InterruptedException {
+        Map<String, Recorder> results = new LinkedHashMap<>();
+        for (Op op : ops) results.put(op.name(), new Recorder());
+        int[] cumulative = new int[ops.size()];
+        int sum = 0;
+        for (int i = 0; i < ops.size(); i++) {
+            sum += ops.get(i).weight();
+            cumulative[i] = sum;
+        }
+        int totalWeight = sum;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int t = 0; t < threads; t++) {
+                workers.submit(() -> {
+                    while (System.nanoTime() < deadline) {
+                        int draw = ThreadLocalRandom.current().nextInt(totalWeight);
+                        int i = 0;
+                        while (cumulative[i] <= draw) i++;
+                        Op op = ops.get(i);
+                        Recorder recorder = results.get(op.name());
+
+                        long start = System.nanoTime();
+                        boolean failed;
+                        try {
+                            Map<String, Object> result = op.call().call();
+                            failed = result != null && "error".equals(result.get("status"));
+                        } catch (Exception e) {
+                            failed = true;
+                        }
+                        recorder.micros.recordValue(Math.min(MAX_MICROS, (System.nanoTime() - start) / 1_000));
+                        if (failed) recorder.errors.increment();
+                    }
+                });
+            }
+            workers.shutdown();
+            // calls in flight at the deadline finish, so allow them their own worst case
+            workers.awaitTermination(seconds + 120, TimeUnit.SECONDS);
+        }
+        return results;
+    }
+
+    private static void report(PrintStream out, Map<String, Recorder> results, double elapsedSeconds) {
+        String format = "%-34s %8s %7s %9s %9s %9s %9s %9s %9s%n";
+        out.printf(format, "op", "calls", "errors", "ops/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        Histogram total = new Histogram(MAX_MICROS, 3);
+        long totalErrors = 0;
+        for (var entry : results.entrySet()) {
+            Recorder r = entry.getValue();
+            if (r.micros.getTotalCount() == 0) continue;
+            total.add(r.micros);
+            totalErrors += r.errors.sum();
+            row(out, format, entry.getKey(), r.micros, r.errors.sum(), elapsedSeconds);
+        }
+        row(out, format, "total", total, totalErrors, elapsedSeconds);
+    }
+
+    private static void row(PrintStream out, String format, String name, Histogram h, long errors, double elapsedSeconds) {
+        out.printf(format, name, h.getTotalCount(), errors,
+                String.format("%.1f", h.getTotalCount() / elapsedSeconds),
+                ms(h.getValueAtPercentile(50)), ms(h.getValueAtPercentile(90)), ms(h.getValueAtPercentile(99)),
+                ms(h.getValueAtPercentile(99.9)), ms(h.getMaxValue()));
+    }
+
+    private static String ms(long micros) {
+        return String.format("%.1f", micros / 1000.0);
+    }
+
+    private static String query() {
+        return QUERIES[ThreadLocalRandom.current().nextInt(QUERIES.length)];
+    }
+
+    private static int anyIndex(SyntheticMailbox mailbox) {
+        return ThreadLocalRandom.current().nextInt(mailbox.size());
+    }
+
+    private static String anyId(SyntheticMailbox mailbox) {
+        return mailbox.id(anyIndex(mailbox));
+    }
+
+    private static List<String> ids(SyntheticMailbox mailbox) {
+        List<String> ids = new ArrayList<>(BULK_SIZE);
+        for (int i = 0; i < BULK_SIZE; i++) ids.add(anyId(mailbox));
+        return ids;
+    }
+
+    // A message that was seeded as a promotion, so it carries List-Unsubscribe
+    private static String promoId(SyntheticMailbox mailbox) {
+        for (int attempt = 0; attempt < 64; attempt++) {
+            int i = anyIndex(mailbox);
+            if (mailbox.category(i) == SyntheticMailbox.PROMOTIONS) return mailbox.id(i);
+        }
+        return anyId(mailbox);
+    }
+}
@@ -0,0 +1,177 @@
+package com.google.gmaillife;
+
+import com.google.api.services.gmail.model.Message;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Unsubscribe discovery + body text per message: the streaming HtmlScanner vs the Jsoup DOM
+// path it replaced. Scores are messages/second. Setup refuses to run if the two disagree on
+// any message of the corpus. corpus=recorded uses the HTML bodies of saved messages.get
+// responses, with their real-world entities and markup:
+//   -Djmh.args="HtmlScannerBenchmark -p corpus=recorded -jvmArgsAppend -Dgmail.fixtures=<dir>"
+// main() runs the same parity check, over the recorded corpus too when -Dgmail.fixtures is set.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HtmlScannerBenchmark {
+
+    static final int CORPUS_SIZE = 500;
+
+    @Param({"synthetic"})
+    public String corpus;
+
+    private List<String> pages;
+
+    @Setup
+    public void setup() throws Exception {
+        List<String> unique = corpus(corpus);
+        List<String> mismatches = compare(unique);
+        if (!mismatches.isEmpty()) {
+            throw new IllegalStateException(mismatches.size() + " messages differ from the Jsoup reference, first: "
+                    + mismatches.get(0));
+        }
+        // a recorded corpus of any size is cycled to CORPUS_SIZE, so scores stay messages/second
+        pages = new ArrayList<>(CORPUS_SIZE);
+        for (int k = 0; k < CORPUS_SIZE; k++) {
+            pages.add(unique.get(k % unique.size()));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS_SIZE)
+    public void streamingScanner(Blackhole bh) {
+        for (String html : pages) {
+            HtmlScanner.Result r = HtmlScanner.scan(html);
+            bh.consume(r.unsubscribeLink());
+            bh.consume(r.mailto());
+            bh.consume(r.text());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS_SIZE)
+    public void jsoupReference(Blackhole bh) {
+        for (String html : pages) {
+            bh.consume(Legacy.findUnsubscribeLinkInHtml(html));
+            bh.consume(Legacy.findMailtoInHtml(html));
+            bh.consume(Jsoup.parse(html).text());
+        }
+    }
+
+    // synthetic: PromoCorpus newsletters; recorded: the HTML part of each -Dgmail.fixtures message
+    static List<String> corpus(String name) throws IOException {
+        if (!"recorded".equals(name)) return PromoCorpus.generate(CORPUS_SIZE, 42);
+        List<String> pages = new ArrayList<>();
+        for (Message m : MessageFixtures.recorded()) {
+            String html = MimeView.of(m, UnsubscriberBot.MAX_BODY_BYTES).html();
+            if (html != null && !html.isBlank()) pages.add(html);
+        }
+        if (pages.isEmpty()) throw new IllegalStateException("No recorded message has an HTML body");
+        return pages;
+    }
+
+    // Every message where link, mailto or text differ, described for the failure message
+    static List<String> compare(List<String> corpus) {
+        List<String> mismatches = new ArrayList<>();
+        for (int i = 0; i < corpus.size(); i++) {
+            String html = corpus.get(i);
+            HtmlScanner.Result r = HtmlScanner.scan(html);
+            check(mismatches, i, "link", Legacy.findUnsubscribeLinkInHtml(html), r.unsubscribeLink());
+            check(mismatches, i, "mailto", Legacy.findMailtoInHtml(html), r.mailto());
+            check(mismatches, i, "text", Jsoup.parse(html).text(), r.text());
+        }
+        return mismatches;
+    }
+
+    private static void check(List<String> mismatches, int i, String what, String expected, String actual) {
+        if (!Objects.equals(expected, actual)) {
+            mismatches.add("#" + i + " " + what + ": expected [" + expected + "] got [" + actual + "]");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> names = System.getProperty("gmail.fixtures") == null
+                ? List.of("synthetic") : List.of("synthetic", "recorded");
+        for (String name : names) {
+            List<String> pages = corpus(name);
+            List<String> mismatches = compare(pages);
+            mismatches.forEach(System.out::println);
+            System.out.println(name + ": " + (mismatches.isEmpty()
+                    ? "all " + pages.size() + " messages match" : mismatches.size() + " mismatches"));
+        }
+    }
+
+    // The Jsoup + per-call regex lookups from UnsubscriberBot before the streaming scanner
+    static final class Legacy {
+
+        static String findUnsubscribeLinkInHtml(String html) {
+            if (html == null) return null;
+            try {
+                Document doc = Jsoup.parse(html);
+                Elements anchors = doc.select("a[href]");
+                for (Element a : anchors) {
+                    String href = a.attr("href");
+                    String text = a.text();
+                    String hrefLower = href == null ? "" : href.toLowerCase();
+                    String textLower = text == null ? "" : text.toLowerCase();
+
+                    boolean candidate = false;
+
+                    if (textLower.contains("unsubscribe") || textLower.contains("opt out") || textLower.contains("manage preferences")) {
+                        candidate = true;
+                    }
+                    if (hrefLower.contains("unsubscribe") || hrefLower.contains("optout") || hrefLower.contains("opt-out")) {
+                        candidate = true;
+                    }
+                    if (a.hasAttr("rel") && a.attr("rel").toLowerCase().contains("unsub")) {
+                        candidate = true;
+                    }
+
+                    if (candidate) {
+                        if (hrefLower.startsWith("http://") || hrefLower.startsWith("https://")) {
+                            return href;
+                        }
+                        if (hrefLower.startsWith("mailto:")) return href;
+                        String base = doc.baseUri();
+                        if (base != null && !base.isBlank() && href.startsWith("/")) {
+                            return base + href;
+                        }
+                    }
+                }
+
+                Pattern p = Pattern.compile("(https?://[^\\s\"'>]*unsubscribe[^\\s\"'>]*)", Pattern.CASE_INSENSITIVE);
+                Matcher m = p.matcher(html);
+                if (m.find()) return m.group(1);
+
+            } catch (Exception e) {
+                System.out.println("Jsoup parse error: " + e);
+            }
+            return null;
+        }
+
+        static String findMailtoInHtml(String html) {
+            if (html == null) return null;
+            Pattern p = Pattern.compile("mailto:([\\w.%+-]+@[\\w.-]+\\.[A-Za-z]{2,})", Pattern.CASE_INSENSITIVE);
+            Matcher m = p.matcher(html);
+            if (m.find()) {
+                return "mailto:" + m.group(1);
+            }
+            return null;
+        }
+    }
+}
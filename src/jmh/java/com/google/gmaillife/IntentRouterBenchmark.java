@@ -0,0 +1,57 @@
+package com.google.gmaillife;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+// Cost of the keyword fast path over the regression corpus (what a routed message pays instead
+// of an LLM router round trip). main() checks every corpus case and prints the fast-path rate
+// per route; it exits non-zero on any mismatch.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntentRouterBenchmark {
+
+    @Benchmark
+    public int routeCorpus() {
+        int routed = 0;
+        for (String[] c : RouterCorpus.CASES) {
+            if (IntentRouter.route(c[0]) != null) routed++;
+        }
+        return routed;
+    }
+
+    public static void main(String[] args) {
+        Map<String, int[]> perRoute = new TreeMap<>();
+        int failures = 0;
+        for (String[] c : RouterCorpus.CASES) {
+            String actual = IntentRouter.route(c[0]);
+            String got = actual == null ? FastPathRouter.LLM_ROUTE : actual;
+            int[] counts = perRoute.computeIfAbsent(c[1], r -> new int[2]);
+            counts[0]++;
+            if (got.equals(c[1])) {
+                counts[1]++;
+            } else {
+                failures++;
+                System.out.printf("MISMATCH %-60s expected %-16s got %s%n", '"' + c[0] + '"', c[1], got);
+            }
+        }
+
+        System.out.printf("%-16s %6s %6s%n", "route", "cases", "pass");
+        for (var entry : perRoute.entrySet()) {
+            System.out.printf("%-16s %6d %6d%n", entry.getKey(), entry.getValue()[0], entry.getValue()[1]);
+        }
+        int llm = perRoute.getOrDefault(FastPathRouter.LLM_ROUTE, new int[2])[0];
+        System.out.printf("fast path: %d of %d cases skip the LLM router%n", RouterCorpus.CASES.length - llm,
+                RouterCorpus.CASES.length);
+        if (failures > 0) {
+            System.out.println(failures + " corpus case(s) failed");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.google.gmaillife;
+
+import com.google.api.services.gmail.model.Message;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Per-message hot paths of the tools over Message fixtures from a tiny plain-text note to a 2 MB
+// HTML newsletter: header lookups, the MIME walk, body decoding (text and HTML), unsubscribe
+// link/mailto discovery and the confirmation check. Run with the GC profiler (the jmh profile's
+// default) for allocation per operation:
+//   mvn -o -Pjmh test-compile exec:exec -Djmh.args="MessageBenchmark -prof gc"
+// Recorded messages: -Djmh.args="MessageBenchmark -p fixture=recorded -jvmArgsAppend -Dgmail.fixtures=<dir>"
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark {
+
+    // one of MessageFixtures.SYNTHETIC, or "recorded"
+    @Param({"tiny", "multipart", "newsletter", "huge"})
+    public String fixture;
+
+    private List<Message> messages;
+    private byte[][] htmlPages;
+
+    @Setup
+    public void setup() throws Exception {
+        messages = MessageFixtures.load(fixture);
+        htmlPages = new byte[messages.size()][];
+        for (int i = 0; i < messages.size(); i++) {
+            String html = MimeView.of(messages.get(i), UnsubscriberBot.MAX_BODY_BYTES).html();
+            htmlPages[i] = (html == null ? "" : html).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    // The headers a search row and an unsubscribe attempt read, in one HeaderIndex pass
+    @Benchmark
+    public void headers(Blackhole bh) {
+        for (Message m : messages) {
+            HeaderIndex h = HeaderIndex.of(m);
+            bh.consume(h.subject());
+            bh.consume(h.from());
+            bh.consume(h.date());
+            bh.consume(h.listUnsubscribe());
+            bh.consume(h.listUnsubscribePost());
+        }
+    }
+
+    // extractParts: the MIME tree walk alone, no decoding
+    @Benchmark
+    public void parts(Blackhole bh) {
+        for (Message m : messages) {
+            bh.consume(MimeView.of(m, UnsubscriberBot.MAX_BODY_BYTES).parts());
+        }
+    }
+
+    // extractBody: readable text, as getEmail/getThread return it
+    @Benchmark
+    public void bodyText(Blackhole bh) {
+        for (Message m : messages) {
+            bh.consume(MimeView.of(m, UnsubscriberBot.MAX_BODY_BYTES).text());
+        }
+    }
+
+    // getHtmlBodyFromMessage: the HTML part decoded
+    @Benchmark
+    public void htmlBody(Blackhole bh) {
+        for (Message m : messages) {
+            bh.consume(MimeView.of(m, UnsubscriberBot.MAX_BODY_BYTES).html());
+        }
+    }
+
+    // findUnsubscribeLinkInHtml + findMailtoInHtml: decode and one scan, as unsubscribeEmail does
+    @Benchmark
+    public void unsubscribeTargets(Blackhole bh) {
+        for (Message m : messages) {
+            HtmlScanner.Result r = MimeView.of(m, UnsubscriberBot.MAX_BODY_BYTES).scan();
+            bh.consume(r.unsubscribeLink());
+            bh.consume(r.mailto());
+        }
+    }
+
+    // isConfirmedUnsub over a page the size of the message's HTML
+    @Benchmark
+    public void confirmation(Blackhole bh) {
+        for (byte[] page : htmlPages) {
+            bh.consume(HttpUnsubscriber.isConfirmedUnsub(200, "text/html; charset=utf-8", new ByteArrayInputStream(page)));
+        }
+    }
+}
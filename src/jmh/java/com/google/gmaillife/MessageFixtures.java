@@ -0,0 +1,156 @@
+package com.google.gmaillife;
+
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.services.gmail.model.Message;
+import com.google.api.services.gmail.model.MessagePart;
+import com.google.api.services.gmail.model.MessagePartBody;
+import com.google.api.services.gmail.model.MessagePartHeader;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+// Gmail API Message fixtures, shaped like messages.get(format=full) responses: a realistic header
+// block (relays, DKIM, ARC, list headers) and base64url bodies. Synthetic ones are generated
+// offline; recorded ones are read from a directory of saved messages.get JSON responses.
+final class MessageFixtures {
+
+    // Synthetic shapes, smallest to largest
+    static final List<String> SYNTHETIC = List.of("tiny", "multipart", "newsletter", "huge");
+
+    private static final String[][] TRANSPORT_HEADERS = {
+            {"Delivered-To", "jane.doe@gmail.com"},
+            {"Received", "by 2002:a05:6a10:8e0d:b0:4f2:1d3a:77c2 with SMTP id l13csp1234567pxe; Tue, 14 Nov 2023 10:12:33 -0800 (PST)"},
+            {"X-Google-Smtp-Source", "AGHT+IGkJ3r0mQeZr9v1aXyPq4c7Kk2mHn8fP0tWbLxZ5sQe9YvR"},
+            {"X-Received", "by 2002:a17:90b:1e4d:b0:280:4af6:4b0a with SMTP id pi13mr9876543pjb.38.1699985553123; Tue, 14 Nov 2023 10:12:33 -0800 (PST)"},
+            {"ARC-Seal", "i=1; a=rsa-sha256; t=1699985553; cv=none; d=google.com; s=arc-20160816; b=Zk4c3p0...Qw=="},
+            {"ARC-Message-Signature", "i=1; a=rsa-sha256; c=relaxed/relaxed; d=google.com; s=arc-20160816; h=list-unsubscribe:mime-version:subject:to:from:date; bh=47DEQpj8HBSa+/TImW+5JCeuQeRkm5NMpJWZG3hSuFU=; b=Xy9..."},
+            {"ARC-Authentication-Results", "i=1; mx.google.com; dkim=pass header.i=@em.example.com; spf=pass (google.com: domain of bounce@em.example.com designates 192.0.2.10 as permitted sender); dmarc=pass (p=REJECT sp=REJECT dis=NONE) header.from=example.com"},
+            {"Return-Path", "<bounce-123456@em.example.com>"},
+            {"Received", "from mta-12.em.example.com (mta-12.em.example.com. [192.0.2.10]) by mx.google.com with ESMTPS id z4-20020a170902cc8400b001c9c8d2b7e5si12345678plx.456.2023.11.14.10.12.32 for <jane.doe@gmail.com>; Tue, 14 Nov 2023 10:12:33 -0800 (PST)"},
+            {"Received-SPF", "pass (google.com: domain of bounce-123456@em.example.com designates 192.0.2.10 as permitted sender) client-ip=192.0.2.10;"},
+            {"Authentication-Results", "mx.google.com; dkim=pass header.i=@em.example.com header.s=s1 header.b=AbCdEfGh; spf=pass smtp.mailfrom=bounce-123456@em.example.com; dmarc=pass header.from=example.com"},
+            {"DKIM-Signature", "v=1; a=rsa-sha256; c=relaxed/relaxed; d=em.example.com; h=content-type:from:mime-version:subject:list-unsubscribe:to; s=s1; bh=frcCV1k9oG9oKj3dpUqdJg1PxRT2RSN/XKdLCPjaYaY=; b=KfZ..."},
+            {"Message-ID", "<20231114181232.1.ABCDEF123456@em.example.com>"},
+            {"MIME-Version", "1.0"},
+            {"X-Mailer", "ExampleESP 4.2"},
+            {"X-Feedback-ID", "123456:campaign-7890:example"},
+    };
+
+    private MessageFixtures() {}
+
+    static List<Message> load(String fixture) throws IOException {
+        if ("recorded".equals(fixture)) return recorded();
+        return List.of(synthetic(fixture, 1));
+    }
+
+    // Saved messages.get(format=full) JSON responses, one per *.json file in -Dgmail.fixtures
+    static List<Message> recorded() throws IOException {
+        String dir = System.getProperty("gmail.fixtures");
+        if (dir == null) {
+            throw new IllegalStateException("Set -Dgmail.fixtures=<dir of messages.get JSON> for the recorded fixture");
+        }
+        List<Message> messages = new ArrayList<>();
+        try (Stream<Path> files = Files.list(Path.of(dir))) {
+            for (Path file : files.filter(f -> f.toString().endsWith(".json")).sorted().toList()) {
+                messages.add(GsonFactory.getDefaultInstance().fromString(Files.readString(file), Message.class));
+            }
+        }
+        if (messages.isEmpty()) throw new IllegalStateException("No *.json fixtures in " + dir);
+        return messages;
+    }
+
+    static Message synthetic(String shape, long seed) {
+        return switch (shape) {
+            // a short personal note, text/plain only
+            case "tiny" -> message(seed, "\"Jane Doe\" <jane.doe@gmail.com>", "Re: dinner on Friday?", false,
+                    leaf("text/plain", "Sounds good, see you at 7. I'll bring dessert.\r\n\r\n-- Jane\r\n"));
+            // transactional mail: alternative text/html plus a PDF receipt
+            case "multipart" -> message(seed, "\"Delta Air Lines\" <DeltaAirLines@t.delta.com>", "Your trip receipt", true,
+                    container("multipart/mixed",
+                            container("multipart/alternative",
+                                    leaf("text/plain", plainOf(PromoCorpus.newsletter(6 * 1024, seed))),
+                                    leaf("text/html", PromoCorpus.newsletter(16 * 1024, seed))),
+                            attachment("receipt.pdf", 48 * 1024)));
+            // a typical marketing newsletter
+            case "newsletter" -> message(seed, "\"Target\" <Target@em.target.com>", "Last chance: 40% off everything", true,
+                    container("multipart/alternative",
+                            leaf("text/plain", plainOf(PromoCorpus.newsletter(20 * 1024, seed))),
+                            leaf("text/html", PromoCorpus.newsletter(120 * 1024, seed))));
+            // a 2 MB HTML newsletter (inlined styles, long product grids), past MimeView's decode cap
+            case "huge" -> message(seed, "\"Amazon.com\" <store-news@amazon.com>", "Top picks for you this week", true,
+                    container("multipart/alternative",
+                            leaf("text/plain", plainOf(PromoCorpus.newsletter(64 * 1024, seed))),
+                            leaf("text/html", PromoCorpus.newsletter(2 * 1024 * 1024, seed))));
+            default -> throw new IllegalArgumentException("Unknown fixture " + shape);
+        };
+    }
+
+    private static Message message(long seed, String from, String subject, boolean list, MessagePart payload) {
+        List<MessagePartHeader> headers = new ArrayList<>();
+        for (String[] h : TRANSPORT_HEADERS) {
+            headers.add(header(h[0], h[1]));
+        }
+        headers.add(header("Date", "Tue, 14 Nov 2023 18:12:32 +0000"));
+        headers.add(header("From", from));
+        headers.add(header("To", "jane.doe@gmail.com"));
+        headers.add(header("Subject", subject));
+        if (list) {
+            headers.add(header("List-Id", "<weekly.em.example.com>"));
+            headers.add(header("List-Unsubscribe", "<mailto:unsub-" + seed + "@em.example.com?subject=unsubscribe>, <https://em.example.com/unsub/" + seed + ">"));
+            headers.add(header("List-Unsubscribe-Post", "List-Unsubscribe=One-Click"));
+            headers.add(header("Precedence", "bulk"));
+        }
+        headers.add(header("Content-Type", payload.getMimeType() + (payload.getParts() == null ? "; charset=UTF-8" : "; boundary=\"000000000000b1c2d3e4f5\"")));
+        payload.setHeaders(headers);
+
+        return new Message()
+                .setId(Long.toHexString(0x18bcf0000000000L + seed))
+                .setThreadId(Long.toHexString(0x18bcf0000000000L + seed))
+                .setLabelIds(list ? List.of("UNREAD", "CATEGORY_PROMOTIONS", "INBOX") : List.of("INBOX", "CATEGORY_PERSONAL"))
+                .setSnippet(subject)
+                .setInternalDate(1_699_985_552_000L)
+                .setSizeEstimate(2048)
+                .setPayload(payload);
+    }
+
+    private static MessagePart leaf(String type, String content) {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        return new MessagePart()
+                .setMimeType(type)
+                .setFilename("")
+                .setHeaders(List.of(header("Content-Type", type + "; charset=\"UTF-8\""),
+                        header("Content-Transfer-Encoding", "quoted-printable")))
+                .setBody(new MessagePartBody().setSize(bytes.length)
+                        .setData(Base64.getUrlEncoder().encodeToString(bytes)));
+    }
+
+    private static MessagePart attachment(String filename, int size) {
+        return new MessagePart()
+                .setMimeType("application/pdf")
+                .setFilename(filename)
+                .setHeaders(List.of(header("Content-Type", "application/pdf; name=\"" + filename + "\""),
+                        header("Content-Disposition", "attachment; filename=\"" + filename + "\"")))
+                .setBody(new MessagePartBody().setSize(size).setAttachmentId("ANGjdJ8" + filename.hashCode()));
+    }
+
+    private static MessagePart container(String type, MessagePart... parts) {
+        return new MessagePart()
+                .setMimeType(type)
+                .setFilename("")
+                .setHeaders(List.of(header("Content-Type", type + "; boundary=\"000000000000" + type.hashCode() + "\"")))
+                .setBody(new MessagePartBody().setSize(0))
+                .setParts(List.of(parts));
+    }
+
+    private static String plainOf(String html) {
+        return html.replaceAll("<[^>]*>", " ").replaceAll("\\s+", " ");
+    }
+
+    private static MessagePartHeader header(String name, String value) {
+        return new MessagePartHeader().setName(name).setValue(value);
+    }
+}
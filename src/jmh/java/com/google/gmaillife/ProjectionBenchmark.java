@@ -0,0 +1,152 @@
+package com.google.gmaillife;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.services.gmail.model.Message;
+import com.google.api.services.gmail.model.MessagePartHeader;
+import com.google.gmaillife.model.EmailSummary;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+// Tool rows over a 10k-message run: per-field header streams into LinkedHashMap rows (how the
+// tools built them before HeaderIndex) vs one HeaderIndex pass into EmailSummary projections,
+// each serialized with Jackson as tool output. Scores and -prof gc's gc.alloc.rate.norm are per
+// message. headers=all is a full header block (full fetches, cached metadata); headers=requested
+// is what a metadata get for Subject/From/Date returns.
+//   mvn -Pjmh test-compile exec:exec -Djmh.args="ProjectionBenchmark -prof gc"
+// main() prints allocated bytes per message for both paths without JMH:
+//   mvn -Pjmh test-compile exec:exec -Djmh.main=com.google.gmaillife.ProjectionBenchmark -Djmh.args=
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProjectionBenchmark {
+
+    static final int MESSAGES = 10_000;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final List<String> SUMMARY_HEADERS = List.of("Subject", "From", "Date");
+
+    @Param({"all", "requested"})
+    public String headers;
+
+    private List<Message> messages;
+
+    @Setup
+    public void setup() {
+        messages = messages(MESSAGES, headers);
+    }
+
+    static List<Message> messages(int count, String headers) {
+        SyntheticMailbox mailbox = new SyntheticMailbox(count, 7, "https://example.com/unsubscribe/");
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(mailbox.message(i, "metadata", "all".equals(headers) ? null : SUMMARY_HEADERS));
+        }
+        return messages;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public byte[] mapRows() throws Exception {
+        return MAPPER.writeValueAsBytes(Map.of("items", mapRows(messages)));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public byte[] summaryRows() throws Exception {
+        return MAPPER.writeValueAsBytes(Map.of("items", summaryRows(messages)));
+    }
+
+    // The list headers an unsubscribe attempt reads, looked up one by one
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void unsubscribeLookups(Blackhole bh) {
+        for (Message m : messages) {
+            bh.consume(headerIgnoreCase(m, "List-Id"));
+            bh.consume(header(m, "From"));
+            bh.consume(headerIgnoreCase(m, "List-Unsubscribe"));
+            bh.consume(headerIgnoreCase(m, "List-Unsubscribe-Post"));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void unsubscribeIndex(Blackhole bh) {
+        for (Message m : messages) {
+            HeaderIndex h = HeaderIndex.of(m);
+            bh.consume(h.listId());
+            bh.consume(h.from());
+            bh.consume(h.listUnsubscribe());
+            bh.consume(h.listUnsubscribePost());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        System.out.printf("%-10s %14s %14s %8s%n", "headers", "maps B/msg", "summary B/msg", "saved");
+        for (String headers : List.of("all", "requested")) {
+            List<Message> messages = messages(MESSAGES, headers);
+            long[] bytes = new long[2];
+            // a few warm rounds so JIT allocation elimination is in the numbers, then one measured
+            for (int round = 0; round < 6; round++) {
+                long start = threads.getCurrentThreadAllocatedBytes();
+                MAPPER.writeValueAsBytes(Map.of("items", mapRows(messages)));
+                long middle = threads.getCurrentThreadAllocatedBytes();
+                MAPPER.writeValueAsBytes(Map.of("items", summaryRows(messages)));
+                long end = threads.getCurrentThreadAllocatedBytes();
+                bytes[0] = middle - start;
+                bytes[1] = end - middle;
+            }
+            System.out.printf("%-10s %14d %14d %7d%%%n", headers, bytes[0] / MESSAGES, bytes[1] / MESSAGES,
+                    100 - 100 * bytes[1] / bytes[0]);
+        }
+    }
+
+    private static List<Map<String, Object>> mapRows(List<Message> messages) {
+        List<Map<String, Object>> rows = new ArrayList<>(messages.size());
+        for (Message m : messages) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("id", m.getId());
+            row.put("subject", header(m, "Subject"));
+            row.put("from", header(m, "From"));
+            row.put("date", header(m, "Date"));
+            row.put("snippet", m.getSnippet());
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static List<EmailSummary> summaryRows(List<Message> messages) {
+        List<EmailSummary> rows = new ArrayList<>(messages.size());
+        for (Message m : messages) {
+            rows.add(HeaderIndex.summary(m.getId(), m));
+        }
+        return rows;
+    }
+
+    // The former per-field lookups: a stream over every header for each name
+    private static String header(Message message, String name) {
+        if (message == null || message.getPayload() == null || message.getPayload().getHeaders() == null) return "";
+        return message.getPayload().getHeaders().stream()
+                .filter(h -> name.equalsIgnoreCase(h.getName()))
+                .map(MessagePartHeader::getValue)
+                .findFirst()
+                .orElse("");
+    }
+
+    private static String headerIgnoreCase(Message message, String name) {
+        if (message == null || message.getPayload() == null || message.getPayload().getHeaders() == null) return null;
+        for (MessagePartHeader h : message.getPayload().getHeaders()) {
+            if (h.getName() != null && h.getName().equalsIgnoreCase(name)) {
+                return h.getValue();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,101 @@
+package com.google.gmaillife;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Deterministic stand-in for a recorded set of promotional emails: ESP-style layouts with the
+// unsubscribe footers seen in practice (plain anchors, entity-encoded hrefs, rel=unsubscribe,
+// <base>-relative links, mailto links, URL only in text, split anchor text, nothing at all)
+final class PromoCorpus {
+
+    private static final String[] HEADS = {
+            """
+            <!DOCTYPE html><html><head><meta charset="utf-8"><title>Weekend deals &amp; more</title>
+            <style>.btn a{color:#fff}td{font-family:Arial}</style></head><body>
+            """,
+            """
+            <html><head><base href="https://news.example.org/"><title>The Weekly Digest</title>
+            <script>var t = "<a href='https://tracker.example/unsubscribe'>x</a>";</script></head><body bgcolor="#ffffff">
+            """,
+            """
+            <HTML><HEAD><TITLE>Your receipt</TITLE></HEAD><BODY><!-- <a href="https://old.example/unsubscribe">Unsubscribe</a> -->
+            """,
+    };
+
+    private static final String[] BLOCKS = {
+            """
+            <table role="presentation" width="100%"><tr><td class="hero"><h1>Up to 50% off</h1>
+            <p>Shop the season&rsquo;s best picks&nbsp;&mdash; ends Sunday.</p>
+            <a class="btn" href="https://shop.example.com/sale?utm_source=email&amp;utm_campaign=%d">Shop now</a></td></tr></table>
+            """,
+            """
+            <div style="padding:12px"><p>Hi there,<br>We thought you&#39;d like these:</p><ul>
+            <li><a href="https://shop.example.com/p/%d">Trail runner &#8212; $89</a></li>
+            <li><a href="https://shop.example.com/p/%d1">Rain shell &#x2014; $129</a></li></ul></div>
+            """,
+            """
+            <p style="font-size:14px">Questions? Reply to this email or write to help@example.com.
+            Read our <a href="https://example.com/privacy">privacy policy</a>.</p>
+            <img src="https://t.example-esp.net/o.gif?m=%d" width="1" height="1" alt="">
+            """,
+            """
+            <table><tr><td><b>Order #%d</b></td><td align="right">Total: &pound;42.00</td></tr>
+            <tr><td colspan=2><i>Thanks for shopping with us!</i></td></tr></table>
+            """,
+            """
+            <p>Caf&eacute; &rarr; 20&percnt; &times;2 &mdash; Gr&uuml;&szlig;e aus M&uuml;nchen, &frac12;&nbsp;prix</p>
+            <p>&copy 2025 &amp more, &notit; &AMP; &lt3 <a href="https://shop.example.com/fr?x=%d&copy=2&lang=fr&reg;">Boutique</a></p>
+            """,
+    };
+
+    private static final String[] FOOTERS = {
+            "<p>You received this because you signed up. <a href=\"https://esp.example.com/u?id=%d&amp;e=abc\">Unsubscribe</a></p>",
+            "<p><a href=\"https://example.com/preferences?u=%d\">Manage&nbsp;Preferences</a> | <a href=\"https://example.com\">Home</a></p>",
+            "<P><A HREF='https://x.example.com/optout?u=%d'>click here</A> to stop these emails.</P>",
+            "<div><a rel=\"unsubscribe\" href=https://lists.example.net/l/%d>Leave this list</a></div>",
+            "<p><a href=\"/unsubscribe?u=%d\">Unsubscribe</a></p>",
+            "<p><a href=\"mailto:leave-%d@lists.example.com?subject=unsubscribe\">unsubscribe</a></p>",
+            "<p>To stop receiving these, visit https://mail.example.com/unsubscribe/%d or reply STOP.</p>",
+            "<p>&copy; 2025 Example Corp, 1 Main St. Message %d.</p>",
+            "<p><a href=\"https://ex.example/p/%d\"><span>Un</span><span>subscribe</span></a></p>",
+            "<p><a href=\"https://ex.example/q/%d\">opt<br>out</a> &middot; <a href=\"https://ex.example/help\">help</a></p>",
+            "<p>Contact mailto:remove@example.co.uk or <a href=\"https://example.com/c/%d\">our site</a>.</p>",
+            "<p><a name=\"bottom\" rel=\"unsubscribe\">No href here</a> <a href=\"https://example.com/opt-out/%d\">Stop</a></p>",
+            "<p><a href=\"../relative/unsubscribe/%d\">Unsubscribe</a></p>",
+    };
+
+    private PromoCorpus() {}
+
+    static List<String> generate(int count, long seed) {
+        Random random = new Random(seed);
+        List<String> corpus = new ArrayList<>(count);
+        for (int n = 0; n < count; n++) {
+            StringBuilder sb = new StringBuilder(8192);
+            sb.append(HEADS[random.nextInt(HEADS.length)]);
+            int blocks = 2 + random.nextInt(8);
+            for (int b = 0; b < blocks; b++) {
+                sb.append(BLOCKS[random.nextInt(BLOCKS.length)].replace("%d", Integer.toString(random.nextInt(100_000))));
+            }
+            // every footer shape appears, in rotation, so each rule is exercised
+            sb.append(FOOTERS[n % FOOTERS.length].replace("%d", Integer.toString(n)));
+            if (random.nextInt(4) == 0) sb.append(FOOTERS[random.nextInt(FOOTERS.length)].replace("%d", "x" + n));
+            sb.append("</body></html>\n");
+            corpus.add(sb.toString());
+        }
+        return corpus;
+    }
+
+    // One newsletter of about `bytes` characters: a head, content blocks up to the size, a footer
+    static String newsletter(int bytes, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(bytes + 1024);
+        sb.append(HEADS[random.nextInt(HEADS.length)]);
+        while (sb.length() < bytes) {
+            sb.append(BLOCKS[random.nextInt(BLOCKS.length)].replace("%d", Integer.toString(random.nextInt(100_000))));
+        }
+        sb.append(FOOTERS[random.nextInt(FOOTERS.length)].replace("%d", Long.toString(seed)));
+        sb.append("</body></html>\n");
+        return sb.toString();
+    }
+}
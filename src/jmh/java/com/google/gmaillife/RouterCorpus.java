@@ -0,0 +1,86 @@
+package com.google.gmaillife;
+
+// Regression corpus for IntentRouter: user messages with the route they must take. "llm" marks
+// messages that are ambiguous and must be left to the LLM router; a fast-path answer for one of
+// those is as much a regression as a wrong route.
+final class RouterCorpus {
+
+    static final String[][] CASES = {
+            // unSubscribe
+            {"unsubscribe me from the Medium daily digest", "unSubscribe"},
+            {"Unsubscribe from all newsletters", "unSubscribe"},
+            {"please opt out of the LinkedIn job alerts", "unSubscribe"},
+            {"I want to stop getting emails from Uber Eats", "unSubscribe"},
+            {"get me unsubscribed from every promotion in the last month", "unSubscribe"},
+
+            // lifeStory
+            {"Tell me my life story from Gmail", "lifeStory"},
+            {"what's my lifestory based on my email?", "lifeStory"},
+            {"show me a timeline of the last five years", "lifeStory"},
+            {"What were my biggest moments in 2022?", "lifeStory"},
+            {"what do my emails say about me", "lifeStory"},
+            {"what my emails say about me", "lifeStory"},
+            {"walk me through my journey since college", "lifeStory"},
+            {"write my biography from my inbox", "lifeStory"},
+
+            // mailStats
+            {"who are my top senders this year", "mailStats"},
+            {"Who emails me the most?", "mailStats"},
+            {"what are my biggest mailing lists", "mailStats"},
+            {"which domains fill my inbox", "mailStats"},
+            {"how many emails do I have per category", "mailStats"},
+
+            // cleanupFlow
+            {"Clean my inbox", "cleanupFlow"},
+            {"clean up my inbox please", "cleanupFlow"},
+            {"can you declutter my email", "cleanupFlow"},
+            {"help me get to inbox zero", "cleanupFlow"},
+            {"tidy up the last two days", "cleanupFlow"},
+
+            // trashAgent
+            {"delete the email from Target about the sale", "trashAgent"},
+            {"trash the Amazon shipping notice", "trashAgent"},
+            {"Delete that LinkedIn message", "trashAgent"},
+
+            // archiveAgent
+            {"archive the Delta trip confirmation", "archiveAgent"},
+            {"Archive the email from Jane", "archiveAgent"},
+
+            // markAsReadAgent
+            {"mark the Substack newsletter as read", "markAsReadAgent"},
+            {"Mark as read the email from Uber", "markAsReadAgent"},
+            {"mark all of them read", "markAsReadAgent"},
+
+            // more than one intent
+            {"clean my inbox and trash all the promotions", "llm"},
+            {"archive the receipts and delete the rest", "llm"},
+            {"unsubscribe from Target and delete their emails", "llm"},
+            {"how many emails are in my trash", "llm"},
+            {"archive my memories from the wedding", "llm"},
+
+            // negated or reversed
+            {"don't delete anything, just archive the old ones", "llm"},
+            {"do not unsubscribe me from Medium", "llm"},
+            {"undo the archive", "llm"},
+            {"restore the email I trashed", "llm"},
+            {"archive it instead", "llm"},
+            {"Don\u2019t mark those as read", "llm"},
+
+            // questions about a destructive action, not orders to take it
+            {"what's in my trash?", "llm"},
+            {"did you delete the Target email?", "llm"},
+            {"were those archived?", "llm"},
+            {"can you archive the Delta emails", "llm"},
+
+            // nothing to match
+            {"hi", "llm"},
+            {"", "llm"},
+            {"what can you do?", "llm"},
+            {"find the email with my flight confirmation", "llm"},
+            {"who sent me the invoice last week", "llm"},
+            {"read me my latest email", "llm"},
+            {"is this message spam?", "llm"},
+    };
+
+    private RouterCorpus() {}
+}
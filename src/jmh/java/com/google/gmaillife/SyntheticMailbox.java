@@ -0,0 +1,690 @@
+package com.google.gmaillife;
+
+import com.google.api.services.gmail.model.History;
+import com.google.api.services.gmail.model.HistoryLabelAdded;
+import com.google.api.services.gmail.model.HistoryLabelRemoved;
+import com.google.api.services.gmail.model.HistoryMessageAdded;
+import com.google.api.services.gmail.model.Label;
+import com.google.api.services.gmail.model.ListHistoryResponse;
+import com.google.api.services.gmail.model.ListMessagesResponse;
+import com.google.api.services.gmail.model.Message;
+import com.google.api.services.gmail.model.MessagePart;
+import com.google.api.services.gmail.model.MessagePartBody;
+import com.google.api.services.gmail.model.MessagePartHeader;
+import com.google.api.services.gmail.model.Profile;
+import com.google.gmaillife.model.CachedMessage;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.function.Predicate;
+
+// Deterministic mailbox behind FakeGmailServer, up to a million messages. Message i is generated
+// from its index (category, sender, subject, date, body) whenever it is asked for; only what
+// writes change is stored: a byte of label flags and one of category per message, mail sent
+// through messages.send, and the change log history.list serves. Index order is date order, so
+// listing walks indexes downwards, newest first like messages.list.
+final class SyntheticMailbox {
+
+    static final int MAX_MESSAGES = 1_000_000;
+    static final String ADDRESS = "me@example.com";
+
+    static final int PERSONAL = 0;
+    static final int PROMOTIONS = 1;
+    static final int SOCIAL = 2;
+    static final int UPDATES = 3;
+    static final int FORUMS = 4;
+    private static final String[] CATEGORIES = {
+            "CATEGORY_PERSONAL", "CATEGORY_PROMOTIONS", "CATEGORY_SOCIAL", "CATEGORY_UPDATES", "CATEGORY_FORUMS"};
+    private static final byte NO_CATEGORY = -1;
+
+    // Label flags, bit i for FLAGS[i]
+    private static final String[] FLAGS = {"UNREAD", "INBOX", "STARRED", "IMPORTANT", "SPAM", "TRASH"};
+    private static final int UNREAD = 1;
+    private static final int INBOX = 1 << 1;
+    private static final int STARRED = 1 << 2;
+    private static final int IMPORTANT = 1 << 3;
+    private static final int SPAM = 1 << 4;
+    private static final int TRASH = 1 << 5;
+
+    // Chance a message of each category is still unread
+    private static final double[] UNREAD_RATE = {0.10, 0.70, 0.50, 0.35, 0.60};
+
+    private static final String[] BRANDS = {
+            "Target", "Delta", "Amazon", "Spotify", "LinkedIn", "GitHub", "Medium", "Etsy", "Uber", "Airbnb",
+            "Netflix", "Zillow", "Nike", "Walgreens", "Chase", "Duolingo", "Strava", "Reddit", "Substack", "Patagonia"};
+    private static final String[] PEOPLE = {
+            "Alex Kim", "Priya Patel", "Sam Rivera", "Jordan Lee", "Maria Garcia",
+            "Chen Wei", "Taylor Brooks", "Noah Cohen", "Aisha Bello", "Lena Fischer"};
+    // Distinct bulk senders and correspondents; skewed draws make a few of each dominate
+    private static final int SENDERS = 2000;
+    private static final int CORRESPONDENTS = 200;
+
+    private static final String[][] SUBJECTS = {
+            {"Re: dinner on Friday?", "Photos from the weekend", "Quick question about the trip",
+                    "Re: Re: apartment lease", "Happy birthday!"},
+            {"Last chance: %d%% off everything", "New arrivals picked for you", "Your weekend deals are here",
+                    "Flash sale ends tonight", "Members save an extra %d%%"},
+            {"You have %d new notifications", "%d people viewed your profile", "New comment on your post",
+                    "Someone mentioned you"},
+            {"Your order #%d has shipped", "Your statement is ready", "Receipt for your payment",
+                    "Security alert: new sign-in", "Your trip receipt #%d"},
+            {"[dev-list] Digest #%d", "[book-club] This month's pick", "[hoa] Meeting notes", "[running] Saturday route"},
+    };
+
+    // HTML part sizes of the body variants per category; personal mail is plain text only
+    private static final int VARIANTS = 4;
+    private static final int[][] HTML_SIZES = {
+            {},
+            {24 * 1024, 48 * 1024, 80 * 1024, 120 * 1024},
+            {8 * 1024, 12 * 1024, 16 * 1024, 24 * 1024},
+            {6 * 1024, 10 * 1024, 16 * 1024, 32 * 1024},
+            {4 * 1024, 8 * 1024, 12 * 1024, 20 * 1024},
+    };
+    private static final String PERSONAL_TEXT = "Hi,\r\n\r\nThanks for sending this over. I had a look last night and "
+            + "it all seems fine to me, though we should talk through the dates before Friday. Let me know when "
+            + "you are free for a quick call.\r\n\r\n";
+
+    // Header block size not covered by the generated headers (relays, signatures)
+    private static final int TRANSPORT_BYTES = 3000;
+    private static final long SPAN_MS = 10L * 365 * 24 * 3600 * 1000;
+    private static final long ID_BASE = 0x18b0_0000_0000_0000L;
+    private static final long FIRST_HISTORY_ID = 5_000_000L;
+    // Older history is dropped in halves; start IDs before the oldest record kept get a 404
+    private static final int MAX_HISTORY = 100_000;
+
+    private static final DateTimeFormatter DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+    private record Body(String plainData, int plainSize, String htmlData, int htmlSize, String snippet) {}
+
+    private final int size;
+    private final long seed;
+    private final long start;
+    private final String unsubscribeUrl;
+    private final byte[] flags;
+    private final byte[] categories;
+    private final Body[][] bodies = new Body[CATEGORIES.length][VARIANTS];
+
+    // guarded by this
+    private final List<CachedMessage> sent = new ArrayList<>();
+    private final List<String> sentBodies = new ArrayList<>();
+    private final List<History> history = new ArrayList<>();
+    private long firstHistoryId = FIRST_HISTORY_ID + 1;
+    // read without the lock by every get
+    private volatile long latestHistoryId = FIRST_HISTORY_ID;
+    private volatile int sentCount;
+
+    // List-Unsubscribe http links point at unsubscribeUrl + message ID
+    SyntheticMailbox(int size, long seed, String unsubscribeUrl) {
+        if (size < 1 || size > MAX_MESSAGES) {
+            throw new IllegalArgumentException("Mailbox size must be 1.." + MAX_MESSAGES + ", got " + size);
+        }
+        this.size = size;
+        this.seed = seed;
+        this.start = System.currentTimeMillis() - SPAN_MS;
+        this.unsubscribeUrl = unsubscribeUrl;
+        this.flags = new byte[size];
+        this.categories = new byte[size];
+
+        for (int i = 0; i < size; i++) {
+            long h = hash(i);
+            int cat = category(h);
+            categories[i] = (byte) cat;
+            int f = 0;
+            if (u(h, 32) < UNREAD_RATE[cat]) f |= UNREAD;
+            if (u(h, 48) < 0.85) f |= INBOX;
+            long h2 = mix(h);
+            if (u(h2, 0) < 0.005) f = (f & ~INBOX) | SPAM;
+            if (cat == PERSONAL && u(h2, 16) < 0.05) f |= STARRED;
+            if (cat == PERSONAL || (cat == UPDATES && u(h2, 16) < 0.3)) f |= IMPORTANT;
+            flags[i] = (byte) f;
+        }
+
+        for (int cat = 0; cat < CATEGORIES.length; cat++) {
+            for (int v = 0; v < VARIANTS; v++) {
+                bodies[cat][v] = body(cat, v, seed);
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    int total() {
+        return size + sentCount;
+    }
+
+    String id(int i) {
+        return Long.toHexString(ID_BASE + i);
+    }
+
+    // Index of a message ID, or -1 when there is no such message
+    int index(String id) {
+        if (id == null || id.isEmpty() || id.length() > 16) return -1;
+        try {
+            long i = Long.parseUnsignedLong(id, 16) - ID_BASE;
+            return i >= 0 && i < total() ? (int) i : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Category of a generated message as it was created (writes may recategorize it since)
+    int category(int i) {
+        return category(hash(i));
+    }
+
+    // Personal mail comes in conversations of up to three consecutive messages; anything else
+    // is a thread of its own
+    String threadId(int i) {
+        return i >= size ? id(i) : id(threadRoot(i));
+    }
+
+    // Metadata of message i, in the shape GmailQuery reads
+    CachedMessage view(int i) {
+        if (i >= size) {
+            synchronized (this) {
+                return sent.get(i - size);
+            }
+        }
+        long h = hash(i);
+        int cat = category(h);
+        Body body = bodies[cat][variant(h)];
+        CachedMessage m = new CachedMessage();
+        m.setId(id(i));
+        m.setThreadId(threadId(i));
+        m.setLabelIds(labels(flags[i], categories[i]));
+        m.setSnippet(body.snippet());
+        m.setInternalDate(date(i));
+        m.setSizeEstimate(TRANSPORT_BYTES + body.plainSize() + body.htmlSize());
+        Map<String, String> headers = m.getHeaders();
+        headers.put("From", from(h, cat));
+        headers.put("To", ADDRESS);
+        headers.put("Subject", subject(h, cat));
+        if (cat != PERSONAL) headers.put("List-Id", "<news." + domain(h, cat) + ">");
+        return m;
+    }
+
+    // messages.list: walks down from the page token (an index) until maxResults match
+    ListMessagesResponse list(String q, List<String> labelIds, boolean includeSpamTrash, int maxResults, String pageToken) {
+        Predicate<CachedMessage> filter = filter(q, includeSpamTrash);
+        if (labelIds != null) {
+            for (String label : labelIds) {
+                filter = filter.and(m -> m.getLabelIds().contains(label));
+            }
+        }
+
+        int pos = pageToken == null || pageToken.isBlank() ? total() - 1 : parseToken(pageToken);
+        List<Message> page = new ArrayList<>();
+        int scanned = 0;
+        for (; pos >= 0 && page.size() < maxResults; pos--, scanned++) {
+            CachedMessage m = view(pos);
+            if (filter.test(m)) page.add(new Message().setId(m.getId()).setThreadId(m.getThreadId()));
+        }
+
+        ListMessagesResponse response = new ListMessagesResponse();
+        if (!page.isEmpty()) response.setMessages(page);
+        // like Gmail's, the estimate extrapolates from what has been seen
+        long estimate = page.size() + (scanned == 0 ? 0 : (long) ((double) page.size() / scanned * (pos + 1)));
+        response.setResultSizeEstimate(estimate);
+        if (pos >= 0) response.setNextPageToken(String.valueOf(pos));
+        return response;
+    }
+
+    // messages.get in minimal, metadata or full (raw is answered as full)
+    Message message(int i, String format, List<String> metadataHeaders) {
+        CachedMessage v = view(i);
+        Message m = new Message()
+                .setId(v.getId())
+                .setThreadId(v.getThreadId())
+                .setLabelIds(v.getLabelIds())
+                .setSnippet(v.getSnippet())
+                .setInternalDate(v.getInternalDate())
+                .setSizeEstimate(v.getSizeEstimate())
+                .setHistoryId(BigInteger.valueOf(latestHistoryId()));
+        if ("minimal".equals(format)) return m;
+
+        List<MessagePartHeader> headers = headers(i, v);
+        if ("metadata".equals(format)) {
+            if (metadataHeaders != null && !metadataHeaders.isEmpty()) {
+                Set<String> wanted = new HashSet<>();
+                for (String name : metadataHeaders) {
+                    wanted.add(name.toLowerCase(Locale.ROOT));
+                }
+                headers.removeIf(h -> !wanted.contains(h.getName().toLowerCase(Locale.ROOT)));
+            }
+            return m.setPayload(new MessagePart().setPartId("").setMimeType(mimeType(i)).setFilename("").setHeaders(headers));
+        }
+        return m.setPayload(payload(i, headers));
+    }
+
+    // threads.get: null unless threadId is the ID of a thread's first message
+    List<Message> thread(String threadId, String format, List<String> metadataHeaders) {
+        int root = index(threadId);
+        if (root < 0) return null;
+        List<Message> messages = new ArrayList<>();
+        int end = root >= size ? root + 1 : Math.min(size, root - root % 3 + 3);
+        for (int i = root; i < end; i++) {
+            if (i >= size || threadRoot(i) == root) messages.add(message(i, format, metadataHeaders));
+        }
+        return messages.isEmpty() ? null : messages;
+    }
+
+    // messages.modify / trash / batchModify; returns the labels after, or null for an unknown message
+    synchronized List<String> modify(int i, List<String> add, List<String> remove) {
+        if (i < 0 || i >= total()) return null;
+        List<String> added = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        List<String> labels;
+
+        if (i >= size) {
+            CachedMessage m = sent.get(i - size);
+            List<String> after = new ArrayList<>(m.getLabelIds());
+            for (String l : nonNull(add)) {
+                requireLabel(l);
+                if (!after.contains(l)) {
+                    after.add(l);
+                    added.add(l);
+                }
+            }
+            for (String l : nonNull(remove)) {
+                requireLabel(l);
+                if (after.remove(l)) removed.add(l);
+            }
+            // readers scan without the lock, so the list is replaced rather than changed
+            m.setLabelIds(after);
+            labels = after;
+        } else {
+            int f = flags[i];
+            int cat = categories[i];
+            for (String l : nonNull(add)) {
+                int bit = flag(l);
+                int c = categoryOf(l);
+                if (bit == 0 && c < 0) throw new IllegalArgumentException("Invalid label: " + l);
+                if (bit != 0 && (f & bit) == 0) {
+                    f |= bit;
+                    added.add(l);
+                } else if (c >= 0 && c != cat) {
+                    cat = c;
+                    added.add(l);
+                }
+            }
+            for (String l : nonNull(remove)) {
+                int bit = flag(l);
+                int c = categoryOf(l);
+                if (bit == 0 && c < 0) throw new IllegalArgumentException("Invalid label: " + l);
+                if (bit != 0 && (f & bit) != 0) {
+                    f &= ~bit;
+                    removed.add(l);
+                } else if (c >= 0 && c == cat) {
+                    cat = NO_CATEGORY;
+                    removed.add(l);
+                }
+            }
+            flags[i] = (byte) f;
+            categories[i] = (byte) cat;
+            labels = labels(f, cat);
+        }
+
+        if (!added.isEmpty() || !removed.isEmpty()) {
+            Message ref = new Message().setId(id(i)).setThreadId(threadId(i)).setLabelIds(labels);
+            History h = new History().setMessages(List.of(ref));
+            if (!added.isEmpty()) h.setLabelsAdded(List.of(new HistoryLabelAdded().setMessage(ref).setLabelIds(added)));
+            if (!removed.isEmpty()) h.setLabelsRemoved(List.of(new HistoryLabelRemoved().setMessage(ref).setLabelIds(removed)));
+            record(h);
+        }
+        return labels;
+    }
+
+    // messages.send: the raw RFC 822 message becomes a new SENT message
+    synchronized Message send(String raw) {
+        if (raw == null || raw.isEmpty()) throw new IllegalArgumentException("Missing raw message");
+        String mime = new String(Base64.getUrlDecoder().decode(raw), StandardCharsets.UTF_8);
+        int split = mime.indexOf("\r\n\r\n");
+        String head = split < 0 ? mime : mime.substring(0, split);
+        String body = split < 0 ? "" : mime.substring(split + 4);
+
+        int i = size + sent.size();
+        CachedMessage m = new CachedMessage();
+        m.setId(id(i));
+        m.setThreadId(id(i));
+        m.setLabelIds(List.of("SENT"));
+        m.setSnippet(snippet(body));
+        m.setInternalDate(Math.max(System.currentTimeMillis(), start + SPAN_MS));
+        m.setSizeEstimate(mime.length());
+        m.getHeaders().put("From", ADDRESS);
+        for (String line : head.split("\r\n")) {
+            int colon = line.indexOf(':');
+            if (colon <= 0) continue;
+            String name = line.substring(0, colon).trim();
+            if (name.equalsIgnoreCase("To")) m.getHeaders().put("To", line.substring(colon + 1).trim());
+            if (name.equalsIgnoreCase("Subject")) m.getHeaders().put("Subject", line.substring(colon + 1).trim());
+        }
+        sent.add(m);
+        sentBodies.add(body);
+        sentCount = sent.size();
+
+        Message ref = new Message().setId(m.getId()).setThreadId(m.getThreadId()).setLabelIds(m.getLabelIds());
+        record(new History().setMessages(List.of(ref))
+                .setMessagesAdded(List.of(new HistoryMessageAdded().setMessage(ref))));
+        return ref;
+    }
+
+    // history.list; null when startHistoryId is older than the history kept (Gmail answers 404)
+    synchronized ListHistoryResponse history(long startHistoryId, int maxResults, String pageToken) {
+        long from = pageToken != null && !pageToken.isBlank() ? Long.parseLong(pageToken) : startHistoryId + 1;
+        if (from < firstHistoryId) return null;
+        int offset = (int) Math.min(Integer.MAX_VALUE, from - firstHistoryId);
+        int end = (int) Math.min(history.size(), (long) offset + maxResults);
+
+        ListHistoryResponse response = new ListHistoryResponse().setHistoryId(BigInteger.valueOf(latestHistoryId));
+        if (offset < end) response.setHistory(new ArrayList<>(history.subList(offset, end)));
+        if (offset < end && end < history.size()) response.setNextPageToken(String.valueOf(firstHistoryId + end));
+        return response;
+    }
+
+    long latestHistoryId() {
+        return latestHistoryId;
+    }
+
+    Profile profile() {
+        return new Profile()
+                .setEmailAddress(ADDRESS)
+                .setMessagesTotal(total())
+                .setThreadsTotal(total())
+                .setHistoryId(BigInteger.valueOf(latestHistoryId()));
+    }
+
+    List<Label> labels() {
+        List<Label> labels = new ArrayList<>();
+        for (String id : FLAGS) {
+            labels.add(new Label().setId(id).setName(id).setType("system"));
+        }
+        labels.add(new Label().setId("SENT").setName("SENT").setType("system"));
+        for (String id : CATEGORIES) {
+            labels.add(new Label().setId(id).setName(id).setType("system"));
+        }
+        return labels;
+    }
+
+    // labels.get with counts, from a pass over the flag bytes; null for an unknown label
+    Label label(String id) {
+        int bit = flag(id);
+        int cat = categoryOf(id);
+        if (bit == 0 && cat < 0 && !"SENT".equals(id)) return null;
+
+        int total = 0;
+        int unread = 0;
+        for (int i = 0; i < size; i++) {
+            boolean has = bit != 0 ? (flags[i] & bit) != 0 : cat >= 0 && categories[i] == cat;
+            if (has) {
+                total++;
+                if ((flags[i] & UNREAD) != 0) unread++;
+            }
+        }
+        synchronized (this) {
+            for (CachedMessage m : sent) {
+                if (m.getLabelIds().contains(id)) {
+                    total++;
+                    if (m.getLabelIds().contains("UNREAD")) unread++;
+                }
+            }
+        }
+        return new Label().setId(id).setName(id).setType("system")
+                .setMessagesTotal(total).setMessagesUnread(unread)
+                .setThreadsTotal(total).setThreadsUnread(unread);
+    }
+
+    // The query compiler the metadata cache uses; what it cannot compile (free text, from:me)
+    // falls back to matching the plain words against subject, sender and snippet
+    private static Predicate<CachedMessage> filter(String q, boolean includeSpamTrash) {
+        String query = q == null ? "" : q.trim();
+        String scoped = !includeSpamTrash ? query : query.isEmpty() ? "in:anywhere" : "in:anywhere (" + query + ")";
+        GmailQuery compiled = GmailQuery.compile(scoped, System.currentTimeMillis());
+        if (compiled != null) return compiled::matches;
+
+        List<String> words = new ArrayList<>();
+        for (String token : query.toLowerCase(Locale.ROOT).split("\\s+")) {
+            if (!token.isEmpty() && token.indexOf(':') < 0) words.add(token);
+        }
+        return m -> {
+            if (!includeSpamTrash && (m.getLabelIds().contains("SPAM") || m.getLabelIds().contains("TRASH"))) return false;
+            String text = (m.getHeaders().get("Subject") + " " + m.getHeaders().get("From") + " " + m.getSnippet())
+                    .toLowerCase(Locale.ROOT);
+            for (String w : words) {
+                if (!text.contains(w)) return false;
+            }
+            return true;
+        };
+    }
+
+    private List<MessagePartHeader> headers(int i, CachedMessage v) {
+        List<MessagePartHeader> headers = new ArrayList<>();
+        if (i >= size) {
+            headers.add(header("From", ADDRESS));
+            headers.add(header("To", v.getHeaders().getOrDefault("To", "")));
+            headers.add(header("Subject", v.getHeaders().getOrDefault("Subject", "")));
+            headers.add(header("Date", DATE.format(Instant.ofEpochMilli(v.getInternalDate()))));
+            headers.add(header("Content-Type", "text/plain; charset=UTF-8"));
+            return headers;
+        }
+
+        long h = hash(i);
+        int cat = category(h);
+        String domain = domain(h, cat);
+        String id = v.getId();
+        headers.add(header("Delivered-To", ADDRESS));
+        headers.add(header("Received", "by 2002:a05:6a10:8e0d:b0:4f2:1d3a:77c2 with SMTP id l13csp" + (i % 10_000_000)
+                + "pxe; " + DATE.format(Instant.ofEpochMilli(v.getInternalDate()))));
+        headers.add(header("Return-Path", "<bounce-" + id + "@" + domain + ">"));
+        headers.add(header("Received", "from mta-" + (i % 32) + "." + domain + " (mta." + domain
+                + ". [192.0.2." + (i % 250) + "]) by mx.google.com with ESMTPS for <" + ADDRESS + ">"));
+        headers.add(header("DKIM-Signature", "v=1; a=rsa-sha256; c=relaxed/relaxed; d=" + domain
+                + "; h=from:to:subject:date:list-unsubscribe; s=s1; bh=frcCV1k9oG9oKj3dpUqdJg1PxRT2RSN/XKdLCPjaYaY=; b=KfZ"));
+        headers.add(header("Message-ID", "<" + id + "@" + domain + ">"));
+        headers.add(header("MIME-Version", "1.0"));
+        headers.add(header("Date", DATE.format(Instant.ofEpochMilli(v.getInternalDate()))));
+        headers.add(header("From", v.getHeaders().get("From")));
+        headers.add(header("To", ADDRESS));
+        headers.add(header("Subject", v.getHeaders().get("Subject")));
+        if (cat != PERSONAL) {
+            headers.add(header("List-Id", v.getHeaders().get("List-Id")));
+            headers.add(header("List-Unsubscribe", "<mailto:unsubscribe-" + id + "@" + domain
+                    + "?subject=unsubscribe>, <" + unsubscribeUrl + id + ">"));
+            // about half the senders support RFC 8058 one-click
+            if (senderIndex(h, cat) % 2 == 0) headers.add(header("List-Unsubscribe-Post", "List-Unsubscribe=One-Click"));
+            headers.add(header("Precedence", "bulk"));
+        }
+        headers.add(header("Content-Type", cat == PERSONAL ? "text/plain; charset=UTF-8"
+                : "multipart/alternative; boundary=\"000000000000" + id + "\""));
+        return headers;
+    }
+
+    private MessagePart payload(int i, List<MessagePartHeader> headers) {
+        if (i >= size) {
+            String body;
+            synchronized (this) {
+                body = sentBodies.get(i - size);
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            return leaf("", "text/plain", Base64.getUrlEncoder().encodeToString(bytes), bytes.length).setHeaders(headers);
+        }
+
+        long h = hash(i);
+        int cat = category(h);
+        Body body = bodies[cat][variant(h)];
+        MessagePart plain = leaf("0", "text/plain", body.plainData(), body.plainSize());
+        if (cat == PERSONAL) return plain.setPartId("").setHeaders(headers);
+
+        plain.setHeaders(List.of(header("Content-Type", "text/plain; charset=\"UTF-8\"")));
+        MessagePart html = leaf("1", "text/html", body.htmlData(), body.htmlSize())
+                .setHeaders(List.of(header("Content-Type", "text/html; charset=\"UTF-8\""),
+                        header("Content-Transfer-Encoding", "quoted-printable")));
+        return new MessagePart()
+                .setPartId("")
+                .setMimeType("multipart/alternative")
+                .setFilename("")
+                .setHeaders(headers)
+                .setBody(new MessagePartBody().setSize(0))
+                .setParts(List.of(plain, html));
+    }
+
+    private String mimeType(int i) {
+        return i >= size || category(i) == PERSONAL ? "text/plain" : "multipart/alternative";
+    }
+
+    private static MessagePart leaf(String partId, String type, String data, int size) {
+        return new MessagePart()
+                .setPartId(partId)
+                .setMimeType(type)
+                .setFilename("")
+                .setBody(new MessagePartBody().setSize(size).setData(data));
+    }
+
+    private static MessagePartHeader header(String name, String value) {
+        return new MessagePartHeader().setName(name).setValue(value);
+    }
+
+    private int threadRoot(int i) {
+        if (category(i) != PERSONAL) return i;
+        int root = i - i % 3;
+        while (category(root) != PERSONAL) root++;
+        return root;
+    }
+
+    private long date(int i) {
+        return start + (long) ((double) SPAN_MS * i / size);
+    }
+
+    private void record(History h) {
+        h.setId(BigInteger.valueOf(++latestHistoryId));
+        history.add(h);
+        if (history.size() > MAX_HISTORY) {
+            int drop = MAX_HISTORY / 2;
+            history.subList(0, drop).clear();
+            firstHistoryId += drop;
+        }
+    }
+
+    private static List<String> labels(int f, int cat) {
+        List<String> labels = new ArrayList<>(4);
+        if (cat != NO_CATEGORY) labels.add(CATEGORIES[cat]);
+        for (int b = 0; b < FLAGS.length; b++) {
+            if ((f & (1 << b)) != 0) labels.add(FLAGS[b]);
+        }
+        return labels;
+    }
+
+    private static int flag(String label) {
+        for (int b = 0; b < FLAGS.length; b++) {
+            if (FLAGS[b].equals(label)) return 1 << b;
+        }
+        return 0;
+    }
+
+    private static int categoryOf(String label) {
+        for (int c = 0; c < CATEGORIES.length; c++) {
+            if (CATEGORIES[c].equals(label)) return c;
+        }
+        return -1;
+    }
+
+    private static void requireLabel(String label) {
+        if (flag(label) == 0 && categoryOf(label) < 0 && !"SENT".equals(label)) {
+            throw new IllegalArgumentException("Invalid label: " + label);
+        }
+    }
+
+    private static List<String> nonNull(List<String> labels) {
+        return labels == null ? List.of() : labels;
+    }
+
+    private static int parseToken(String pageToken) {
+        try {
+            return Integer.parseInt(pageToken);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid pageToken: " + pageToken);
+        }
+    }
+
+    // Draws for one message come from 16-bit windows of its hash (and of the hash's hash)
+    private long hash(int i) {
+        return mix(seed + 0x9e3779b97f4a7c15L * (i + 1L));
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static double u(long h, int shift) {
+        return ((h >>> shift) & 0xFFFF) / 65536.0;
+    }
+
+    private static int category(long h) {
+        double c = u(h, 0);
+        if (c < 0.20) return PERSONAL;
+        if (c < 0.65) return PROMOTIONS;
+        if (c < 0.80) return SOCIAL;
+        if (c < 0.95) return UPDATES;
+        return FORUMS;
+    }
+
+    private static int senderIndex(long h, int cat) {
+        double s = u(h, 16);
+        return cat == PERSONAL ? (int) (CORRESPONDENTS * s * s) : (int) (SENDERS * s * s * s);
+    }
+
+    private static String from(long h, int cat) {
+        int k = senderIndex(h, cat);
+        if (cat == PERSONAL) {
+            String name = PEOPLE[k % PEOPLE.length];
+            return "\"" + name + "\" <" + name.toLowerCase(Locale.ROOT).replace(' ', '.')
+                    + (k < PEOPLE.length ? "" : String.valueOf(k / PEOPLE.length)) + "@gmail.com>";
+        }
+        return "\"" + BRANDS[k % BRANDS.length] + "\" <news@" + domain(h, cat) + ">";
+    }
+
+    private static String domain(long h, int cat) {
+        if (cat == PERSONAL) return "gmail.com";
+        int k = senderIndex(h, cat);
+        return BRANDS[k % BRANDS.length].toLowerCase(Locale.ROOT)
+                + (k < BRANDS.length ? "" : "-" + k / BRANDS.length) + ".example.com";
+    }
+
+    private static String subject(long h, int cat) {
+        long h2 = mix(h);
+        String[] templates = SUBJECTS[cat];
+        return String.format(templates[(int) ((h2 >>> 32) & 0xFFFF) % templates.length], 10 + (h2 >>> 48) % 90);
+    }
+
+    private static int variant(long h) {
+        return (int) ((mix(h) >>> 48) % VARIANTS);
+    }
+
+    private static Body body(int cat, int variant, long seed) {
+        String html = null;
+        String plain;
+        if (cat == PERSONAL) {
+            plain = PERSONAL_TEXT.repeat(variant + 1) + "-- \r\nSent from my phone\r\n";
+        } else {
+            html = PromoCorpus.newsletter(HTML_SIZES[cat][variant], seed + cat * 31L + variant);
+            plain = html.replaceAll("<[^>]*>", " ").replaceAll("\\s+", " ");
+        }
+        byte[] plainBytes = plain.getBytes(StandardCharsets.UTF_8);
+        byte[] htmlBytes = html == null ? new byte[0] : html.getBytes(StandardCharsets.UTF_8);
+        return new Body(Base64.getUrlEncoder().encodeToString(plainBytes), plainBytes.length,
+                html == null ? null : Base64.getUrlEncoder().encodeToString(htmlBytes), htmlBytes.length,
+                snippet(plain));
+    }
+
+    private static String snippet(String text) {
+        String collapsed = text.replaceAll("\\s+", " ").trim();
+        return collapsed.length() <= 140 ? collapsed : collapsed.substring(0, 140);
+    }
+}
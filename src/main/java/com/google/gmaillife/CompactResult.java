@@ -0,0 +1,143 @@
+package com.google.gmaillife;
+
+import java.util.*;
+
+// Opt-in compact shape for list-valued tool results, to keep model context small: column names
+// once plus one array per row, From headers normalized and dictionary-encoded into "senders",
+// dates cut to the day, and snippets/bodies truncated so the whole result fits a token budget.
+public final class CompactResult {
+
+    // Rough JSON-to-token ratio for Gemini-style tokenizers
+    static final int CHARS_PER_TOKEN = 4;
+    // Truncation never cuts a snippet shorter than this
+    static final int MIN_TEXT_CHARS = 40;
+
+    private static final String MONTHS = "janfebmaraprmayjunjulaugsepoctnovdec";
+
+    // Free-text columns that absorb whatever budget the rest leaves
+    private static final Set<String> TEXT_COLUMNS = Set.of("snippet", "body");
+
+    private CompactResult() {}
+
+    public static Map<String, Object> encode(List<Map<String, Object>> rows, int tokenBudget) {
+        List<String> columns = new ArrayList<>();
+        for (Map<String, Object> row : rows) {
+            for (String key : row.keySet()) {
+                if (!columns.contains(key)) columns.add(key);
+            }
+        }
+
+        Map<String, Integer> senderIds = new LinkedHashMap<>();
+        List<List<Object>> table = new ArrayList<>(rows.size());
+        int fixedChars = 0;
+        int textCells = 0;
+        for (Map<String, Object> row : rows) {
+            List<Object> cells = new ArrayList<>(columns.size());
+            for (String column : columns) {
+                Object value = row.get(column);
+                if (value instanceof String s) {
+                    switch (column) {
+                        case "from" -> value = senderIds.computeIfAbsent(sender(s), k -> senderIds.size());
+                        case "date" -> value = day(s);
+                        default -> value = collapse(s);
+                    }
+                }
+                if (TEXT_COLUMNS.contains(column) && value != null) {
+                    textCells++;
+                } else {
+                    fixedChars += approxChars(value);
+                }
+                cells.add(value);
+            }
+            table.add(cells);
+        }
+        for (String s : senderIds.keySet()) fixedChars += s.length() + 3;
+
+        // whatever the fixed columns leave of the budget is shared evenly between text cells
+        if (textCells > 0) {
+            int textChars = Math.max(MIN_TEXT_CHARS, (tokenBudget * CHARS_PER_TOKEN - fixedChars) / textCells);
+            for (List<Object> cells : table) {
+                for (int c = 0; c < columns.size(); c++) {
+                    if (TEXT_COLUMNS.contains(columns.get(c)) && cells.get(c) instanceof String s) {
+                        cells.set(c, truncate(s, textChars));
+                    }
+                }
+            }
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("columns", columns);
+        result.put("rows", table);
+        if (!senderIds.isEmpty()) result.put("senders", new ArrayList<>(senderIds.keySet()));
+        return result;
+    }
+
+    public static int estimateTokens(String json) {
+        return (json.length() + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+
+    // "\"Shop, Inc.\" <news@shop.com>" -> "Shop, Inc. <news@shop.com>"; bare address when the
+    // display name adds nothing
+    static String sender(String from) {
+        String s = collapse(from);
+        int lt = s.lastIndexOf('<');
+        int gt = s.lastIndexOf('>');
+        if (lt < 0 || gt < lt) return s;
+        String address = s.substring(lt + 1, gt).trim();
+        String name = s.substring(0, lt).trim().replace("\"", "").replace("\\", "").trim();
+        if (name.isEmpty() || name.equalsIgnoreCase(address)) return address;
+        return name + " <" + address + ">";
+    }
+
+    // RFC 2822 Date header -> yyyy-MM-dd, as written by the sender (no zone shift); anything
+    // else is passed through. Read by hand: DateTimeFormatter costs microseconds per header.
+    static String day(String date) {
+        String s = collapse(date);
+        // the weekday is optional and often wrong in the wild
+        int comma = s.indexOf(", ");
+        String[] parts = (comma > 0 && comma <= 4 ? s.substring(comma + 2) : s).split(" ", 4);
+        if (parts.length < 3) return s;
+        int at = parts[1].length() == 3 ? MONTHS.indexOf(parts[1].toLowerCase(Locale.ROOT)) : -1;
+        if (at < 0 || at % 3 != 0 || !isDigits(parts[0], 1, 2) || !isDigits(parts[2], 4, 4)) return s;
+        int month = at / 3 + 1;
+        int day = Integer.parseInt(parts[0]);
+        return parts[2] + (month < 10 ? "-0" : "-") + month + (day < 10 ? "-0" : "-") + day;
+    }
+
+    private static boolean isDigits(String s, int min, int max) {
+        if (s.length() < min || s.length() > max) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9') return false;
+        }
+        return true;
+    }
+
+    private static String truncate(String s, int max) {
+        if (s.length() <= max) return s;
+        int cut = s.lastIndexOf(' ', max - 1);
+        if (cut < max / 2) cut = max - 1;
+        return s.substring(0, cut) + "\u2026";
+    }
+
+    private static String collapse(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        boolean space = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = sb.length() > 0;
+                continue;
+            }
+            if (space) sb.append(' ');
+            space = false;
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static int approxChars(Object value) {
+        if (value == null) return 5;
+        if (value instanceof String s) return s.length() + 3;
+        return String.valueOf(value).length() + 1;
+    }
+}
@@ -0,0 +1,126 @@
+package com.google.gmaillife;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+// Case-insensitive multi-phrase matcher (Aho-Corasick) run over a response body as it streams in.
+// Reads at most maxBytes and stops at the first phrase found, so a multi-megabyte landing page
+// costs one small buffer instead of a full copy plus a lowercased copy.
+// Phrases are ASCII; bytes >= 0x80 never match and simply reset to the root state.
+public final class ConfirmationScanner {
+
+    private static final int ALPHABET = 128;
+    private static final int BUFFER_SIZE = 8192;
+
+    // Byte -> column: ASCII upper case folded to lower, non-ASCII to NUL (which no phrase contains)
+    private static final byte[] FOLD = new byte[256];
+
+    static {
+        for (int b = 0; b < ALPHABET; b++) {
+            FOLD[b] = (byte) lower((char) b);
+        }
+    }
+
+    // Transition table with failure links folded in. Entries are row offsets (state * ALPHABET)
+    // so the hot loop skips a multiply; accepting targets are stored as -1.
+    private final int[] next;
+    private final int maxBytes;
+
+    private ConfirmationScanner(int[] next, int maxBytes) {
+        this.next = next;
+        this.maxBytes = maxBytes;
+    }
+
+    public static ConfirmationScanner of(List<String> phrases, int maxBytes) {
+        int capacity = 1;
+        for (String p : phrases) capacity += p.length();
+
+        int[] trie = new int[capacity * ALPHABET];
+        Arrays.fill(trie, -1);
+        boolean[] accepting = new boolean[capacity];
+        int states = 1;
+
+        for (String phrase : phrases) {
+            int s = 0;
+            for (int i = 0; i < phrase.length(); i++) {
+                int c = lower(phrase.charAt(i));
+                if (c >= ALPHABET) throw new IllegalArgumentException("Non-ASCII phrase: " + phrase);
+                int idx = s * ALPHABET + c;
+                if (trie[idx] < 0) trie[idx] = states++;
+                s = trie[idx];
+            }
+            accepting[s] = true;
+        }
+
+        // breadth-first failure links, turning the trie into a full transition table
+        int[] fail = new int[states];
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < ALPHABET; c++) {
+            int t = trie[c];
+            if (t < 0) {
+                trie[c] = 0;
+            } else {
+                fail[t] = 0;
+                queue.add(t);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int s = queue.poll();
+            accepting[s] |= accepting[fail[s]];
+            for (int c = 0; c < ALPHABET; c++) {
+                int idx = s * ALPHABET + c;
+                int t = trie[idx];
+                if (t < 0) {
+                    trie[idx] = trie[fail[s] * ALPHABET + c];
+                } else {
+                    fail[t] = trie[fail[s] * ALPHABET + c];
+                    queue.add(t);
+                }
+            }
+        }
+
+        int[] next = new int[states * ALPHABET];
+        for (int i = 0; i < next.length; i++) {
+            int t = trie[i];
+            next[i] = accepting[t] ? -1 : t * ALPHABET;
+        }
+        return new ConfirmationScanner(next, maxBytes);
+    }
+
+    // True as soon as any phrase appears within the first maxBytes of the stream
+    public boolean matches(InputStream in) throws IOException {
+        byte[] buf = new byte[Math.min(BUFFER_SIZE, Math.max(1, maxBytes))];
+        int[] next = this.next;
+        int row = 0;
+        int remaining = maxBytes;
+        while (remaining > 0) {
+            int n = in.read(buf, 0, Math.min(buf.length, remaining));
+            if (n < 0) break;
+            remaining -= n;
+            for (int i = 0; i < n; i++) {
+                row = next[row + FOLD[buf[i] & 0xFF]];
+                if (row < 0) return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean matches(CharSequence text) {
+        int row = 0;
+        int len = Math.min(text.length(), maxBytes);
+        for (int i = 0; i < len; i++) {
+            char c = text.charAt(i);
+            row = next[row + (c < ALPHABET ? FOLD[c] : 0)];
+            if (row < 0) return true;
+        }
+        return false;
+    }
+
+    private static int lower(char c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+}
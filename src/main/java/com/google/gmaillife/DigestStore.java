@@ -0,0 +1,74 @@
+package com.google.gmaillife;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.gmaillife.model.LifeDigest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Life-story digests that survive restarts, so only months with new mail are summarized again
+public class DigestStore {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final Path file;
+    private final Map<String, LifeDigest> digests = new ConcurrentHashMap<>();
+
+    private DigestStore(Path file) {
+        this.file = file;
+    }
+
+    public static DigestStore open(Path file) throws IOException {
+        DigestStore store = new DigestStore(file);
+        if (file.getParent() != null) Files.createDirectories(file.getParent());
+        if (Files.exists(file)) {
+            List<LifeDigest> saved = MAPPER.readValue(file.toFile(), new TypeReference<List<LifeDigest>>() {});
+            for (LifeDigest d : saved) {
+                store.digests.put(d.getScope(), d);
+            }
+        }
+        return store;
+    }
+
+    // In-memory only, for runs that should not touch disk
+    public static DigestStore inMemory() {
+        return new DigestStore(null);
+    }
+
+    public int size() {
+        return digests.size();
+    }
+
+    // The digest for scope if it was made from the same inputs, else null
+    public LifeDigest get(String scope, String fingerprint) {
+        LifeDigest d = digests.get(scope);
+        return d != null && fingerprint.equals(d.getFingerprint()) ? d : null;
+    }
+
+    public synchronized LifeDigest put(String scope, String fingerprint, String summary, int messages) throws IOException {
+        LifeDigest d = new LifeDigest();
+        d.setScope(scope);
+        d.setFingerprint(fingerprint);
+        d.setSummary(summary);
+        d.setMessages(messages);
+        d.setUpdatedAt(System.currentTimeMillis());
+        digests.put(scope, d);
+        save();
+        return d;
+    }
+
+    // Small file: rewritten whole and swapped in atomically
+    private void save() throws IOException {
+        if (file == null) return;
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        MAPPER.writeValue(tmp.toFile(), new ArrayList<>(digests.values()));
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
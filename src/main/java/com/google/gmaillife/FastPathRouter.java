@@ -0,0 +1,136 @@
+package com.google.gmaillife;
+
+import com.google.adk.agents.BaseAgent;
+import com.google.adk.agents.InvocationContext;
+import com.google.adk.events.Event;
+import com.google.genai.types.Content;
+import com.google.genai.types.Part;
+import io.reactivex.rxjava3.core.Flowable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// Root agent in front of the LLM router. Messages IntentRouter can place are handed straight to
+// that sub-agent, saving the router's model round trip; the rest go to the LLM router as before.
+// Replies to an agent's question always go to the LLM router, which sees the whole conversation.
+public class FastPathRouter extends BaseAgent {
+
+    // Counted as the route of messages the LLM router handled
+    static final String LLM_ROUTE = "llm";
+
+    private final BaseAgent llmRouter;
+    private final Map<String, BaseAgent> targets = new HashMap<>();
+
+    private final Map<String, LongAdder> hits = new ConcurrentHashMap<>();
+    private final LongAdder deferredFollowUps = new LongAdder();
+    // Time from handing a message to the LLM router until it transferred (or answered itself);
+    // its median is what every fast-path hit is credited with saving
+    private final LatencyTracker routerLatency = new LatencyTracker();
+
+    public FastPathRouter(String name, BaseAgent llmRouter) {
+        super(name, "Routes unambiguous requests by keyword, the rest through " + llmRouter.name(),
+                List.of(llmRouter), null, null);
+        this.llmRouter = llmRouter;
+        for (BaseAgent agent : llmRouter.subAgents()) {
+            targets.put(agent.name(), agent);
+        }
+        for (String route : IntentRouter.routes()) {
+            if (!targets.containsKey(route)) {
+                throw new IllegalArgumentException("No sub-agent of " + llmRouter.name() + " for route " + route);
+            }
+        }
+    }
+
+    @Override
+    protected Flowable<Event> runAsyncImpl(InvocationContext ctx) {
+        String route = IntentRouter.route(userText(ctx));
+        // counted only when the fast path would otherwise have fired
+        if (route != null && awaitingReply(ctx)) {
+            deferredFollowUps.increment();
+            route = null;
+        }
+        if (route != null) {
+            hits.computeIfAbsent(route, r -> new LongAdder()).increment();
+            return targets.get(route).runAsync(ctx);
+        }
+        return Flowable.defer(() -> {
+            hits.computeIfAbsent(LLM_ROUTE, r -> new LongAdder()).increment();
+            long start = System.nanoTime();
+            AtomicBoolean routed = new AtomicBoolean();
+            return llmRouter.runAsync(ctx)
+                    .doOnNext(e -> {
+                        if (!llmRouter.name().equals(e.author()) && routed.compareAndSet(false, true)) {
+                            routerLatency.record(System.nanoTime() - start);
+                        }
+                    })
+                    .doOnComplete(() -> {
+                        if (routed.compareAndSet(false, true)) routerLatency.record(System.nanoTime() - start);
+                    });
+        });
+    }
+
+    @Override
+    protected Flowable<Event> runLiveImpl(InvocationContext ctx) {
+        return llmRouter.runLive(ctx);
+    }
+
+    // Per-route hit counts and rates, plus the router time the fast path is estimated to have saved
+    public Map<String, Object> stats() {
+        long total = 0;
+        long fast = 0;
+        Map<String, Long> counts = new TreeMap<>();
+        for (var entry : hits.entrySet()) {
+            long n = entry.getValue().sum();
+            counts.put(entry.getKey(), n);
+            total += n;
+            if (!LLM_ROUTE.equals(entry.getKey())) fast += n;
+        }
+
+        Map<String, Object> routes = new LinkedHashMap<>();
+        for (var entry : counts.entrySet()) {
+            Map<String, Object> r = new LinkedHashMap<>();
+            r.put("hits", entry.getValue());
+            r.put("rate", (double) entry.getValue() / total);
+            routes.put(entry.getKey(), r);
+        }
+
+        long p50 = routerLatency.percentileNanos(0.50);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("messages", total);
+        result.put("fastPathRate", total == 0 ? 0.0 : (double) fast / total);
+        result.put("routes", routes);
+        result.put("deferredFollowUps", deferredFollowUps.sum());
+        result.put("routerP50Ms", p50 < 0 ? null : p50 / 1e6);
+        // null until the LLM router has been timed often enough to trust its median
+        result.put("latencySavedMs", p50 < 0 ? null : fast * p50 / 1e6);
+        return result;
+    }
+
+    // True when the last reply before this message ended in a question, e.g. the decider asking
+    // which action to take: a bare "trash" then answers it and is not a new trash request
+    private boolean awaitingReply(InvocationContext ctx) {
+        List<Event> events = ctx.session().events();
+        for (int i = events.size() - 1; i >= 0; i--) {
+            Event e = events.get(i);
+            if ("user".equals(e.author())) continue;
+            String text = text(e.content().orElse(null));
+            return text.contains("requires_followup") || text.stripTrailing().endsWith("?");
+        }
+        return false;
+    }
+
+    private static String userText(InvocationContext ctx) {
+        return text(ctx.userContent().orElse(null));
+    }
+
+    private static String text(Content content) {
+        if (content == null || content.parts().isEmpty()) return "";
+        StringBuilder sb = new StringBuilder();
+        for (Part part : content.parts().get()) {
+            part.text().ifPresent(t -> sb.append(t).append('\n'));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,56 @@
+package com.google.gmaillife;
+
+import com.google.genai.Client;
+
+import java.util.List;
+
+// Summarizer backed by a direct Gemini call (same API key as the agents, GOOGLE_API_KEY)
+public class GeminiSummarizer implements Summarizer {
+
+    // Inputs beyond this are dropped from the prompt, oldest lines kept first
+    static final int MAX_INPUT_CHARS = 24_000;
+
+    private final String model;
+    private volatile Client client;
+
+    public GeminiSummarizer(String model) {
+        this.model = model;
+    }
+
+    @Override
+    public String summarize(Level level, String period, List<String> inputs) {
+        String task = switch (level) {
+            case MONTH -> "Below are emails from " + period + ", one per line as date | from | subject | snippet. "
+                    + "In 2-3 sentences, say what was going on in the person's life that month: events, travel, "
+                    + "work, purchases, people. Ignore marketing unless it reveals something personal.";
+            case YEAR -> "Below are monthly digests of someone's email for " + period + ". "
+                    + "Write one paragraph (at most 120 words) on the year's main themes and milestones.";
+            case OVERALL -> "Below are yearly summaries of someone's email for " + period + ". "
+                    + "Write a flowing life story of at most 250 words, in the second person, highlighting milestones.";
+        };
+
+        StringBuilder prompt = new StringBuilder(task).append("\n\n");
+        for (String input : inputs) {
+            if (prompt.length() + input.length() > MAX_INPUT_CHARS) break;
+            prompt.append(input).append('\n');
+        }
+        String text = client().models.generateContent(model, prompt.toString(), null).text();
+        return text == null ? "" : text.trim();
+    }
+
+    @Override
+    public String id() {
+        return "gemini:" + model;
+    }
+
+    private Client client() {
+        Client c = client;
+        if (c == null) {
+            synchronized (this) {
+                if (client == null) client = new Client();
+                c = client;
+            }
+        }
+        return c;
+    }
+}
@@ -0,0 +1,368 @@
+package com.google.gmaillife;
+
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+import com.google.api.client.googleapis.services.json.AbstractGoogleJsonClientRequest;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.services.gmail.Gmail;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+// Single place every Gmail API call goes through: quota accounting, retries with jittered
+// exponential backoff, and hedged reads once a method's latency history is known.
+// background() gives a view for bulk work that yields quota to interactive calls.
+public class GmailExecutor {
+
+    // Gmail accepts at most 100 sub-requests per batch call
+    static final int MAX_BATCH_SIZE = 100;
+    // Retryable failures are retried this many times before the error reaches the tool
+    static final int MAX_RETRIES = 5;
+
+    private static final long BASE_BACKOFF_MS = 200;
+    private static final long MAX_BACKOFF_MS = 10_000;
+    // A read still running at this latency percentile gets a duplicate request
+    private static final double HEDGE_PERCENTILE = 0.95;
+
+    private static final Set<String> RATE_LIMIT_REASONS = Set.of("rateLimitExceeded", "userRateLimitExceeded");
+    private static final Set<Integer> RETRYABLE_SERVER_CODES = Set.of(500, 502, 503, 504);
+
+    private static final ExecutorService HEDGE_POOL = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final Gmail gmail;
+    private final QuotaLimiter limiter;
+    private final Map<GmailMethod, LatencyTracker> latencies;
+    private final LongAdder retries;
+    private final LongAdder hedges;
+    private final LongAdder hedgeWins;
+    private final boolean background;
+
+    public GmailExecutor(Gmail gmail) {
+        this(gmail, new QuotaLimiter(QuotaLimiter.PER_USER_UNITS_PER_SECOND));
+    }
+
+    public GmailExecutor(Gmail gmail, QuotaLimiter limiter) {
+        this.gmail = gmail;
+        this.limiter = limiter;
+        this.background = false;
+        this.latencies = new EnumMap<>(GmailMethod.class);
+        this.retries = new LongAdder();
+        this.hedges = new LongAdder();
+        this.hedgeWins = new LongAdder();
+        for (GmailMethod m : GmailMethod.values()) {
+            latencies.put(m, new LatencyTracker());
+        }
+    }
+
+    private GmailExecutor(GmailExecutor shared) {
+        this.gmail = shared.gmail;
+        this.limiter = shared.limiter;
+        this.background = true;
+        this.latencies = shared.latencies;
+        this.retries = shared.retries;
+        this.hedges = shared.hedges;
+        this.hedgeWins = shared.hedgeWins;
+    }
+
+    // Same client, limiter, latency history and counters, but calls run at background priority in the
+    // limiter, batches are cut to its background share and reads are not hedged
+    public GmailExecutor background() {
+        return background ? this : new GmailExecutor(this);
+    }
+
+    public Gmail gmail() {
+        return gmail;
+    }
+
+    public QuotaLimiter limiter() {
+        return limiter;
+    }
+
+    public LatencyTracker latency(GmailMethod method) {
+        return latencies.get(method);
+    }
+
+    // Builds the request for one attempt. Each attempt, hedge or retry, gets its own request
+    // object, since a client request is not safe to run on two threads at once.
+    @FunctionalInterface
+    public interface Call<T> {
+        AbstractGoogleClientRequest<T> build() throws IOException;
+    }
+
+    public <T> T execute(GmailMethod method, Call<T> call) throws IOException {
+        return retrying(method, () -> method.readOnly() && !background
+                ? executeHedged(method, call)
+                : executeOnce(method, call.build()));
+    }
+
+    // A request that is already built: retried in turn but never hedged, as a duplicate would share it
+    public <T> T execute(GmailMethod method, AbstractGoogleClientRequest<T> request) throws IOException {
+        return retrying(method, () -> executeOnce(method, request));
+    }
+
+    private interface Attempt<T> {
+        T run() throws IOException;
+    }
+
+    private <T> T retrying(GmailMethod method, Attempt<T> attempt) throws IOException {
+        for (int n = 0; ; n++) {
+            try {
+                return attempt.run();
+            } catch (IOException e) {
+                if (n >= MAX_RETRIES || !isRetryable(method, e)) throw e;
+                retries.increment();
+                backoff(n);
+            }
+        }
+    }
+
+    private <T> T executeOnce(GmailMethod method, AbstractGoogleClientRequest<T> request) throws IOException {
+        limiter.acquire(method.quotaUnits(), background);
+        boolean throttled = false;
+        boolean failed = true;
+        long bytesBefore = PayloadMeter.threadBytes();
+        long start = System.nanoTime();
+        try {
+            T result = request.execute();
+            latencies.get(method).record(System.nanoTime() - start);
+            failed = false;
+            return result;
+        } catch (GoogleJsonResponseException e) {
+            throttled = isThrottle(e.getStatusCode(), e.getDetails());
+            throw e;
+        } finally {
+            Metrics.gmailCall(method, System.nanoTime() - start, method.quotaUnits(),
+                    PayloadMeter.threadBytes() - bytesBefore, failed ? 1 : 0);
+            // a throttled release pauses the limiter, so a retry waits out the cool-down
+            limiter.release(throttled);
+        }
+    }
+
+    // Sends a duplicate when the first attempt outlives the method's p95; the first success wins
+    // and the other attempt is cancelled. Only used for read-only methods, so a loser that got
+    // through before the cancel has just wasted quota.
+    private <T> T executeHedged(GmailMethod method, Call<T> call) throws IOException {
+        long threshold = latencies.get(method).percentileNanos(HEDGE_PERCENTILE);
+        if (threshold < 0) return executeOnce(method, call.build());
+
+        CompletableFuture<T> primary = submit(method, call.build());
+        CompletableFuture<T> hedge = null;
+        try {
+            try {
+                return primary.get(threshold, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException slow) {
+                // fall through to hedge
+            }
+
+            hedges.increment();
+            CompletableFuture<T> second = submit(method, call.build());
+            hedge = second;
+            CompletableFuture<T> winner = new CompletableFuture<>();
+            AtomicInteger failures = new AtomicInteger();
+            for (CompletableFuture<T> attempt : List.of(primary, second)) {
+                attempt.whenComplete((result, error) -> {
+                    if (error == null) {
+                        if (winner.complete(result) && attempt == second) hedgeWins.increment();
+                    } else if (failures.incrementAndGet() == 2) {
+                        winner.completeExceptionally(error);
+                    }
+                });
+            }
+            return winner.get();
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + method.apiName());
+        } finally {
+            // no-ops for the attempt that finished
+            primary.cancel(true);
+            if (hedge != null) hedge.cancel(true);
+        }
+    }
+
+    // Cancelling the returned future interrupts the attempt's virtual thread, which abandons a
+    // quota wait or aborts its blocked socket read; executeOnce releases its limiter slot either way
+    private <T> CompletableFuture<T> submit(GmailMethod method, AbstractGoogleClientRequest<T> request) {
+        Callable<T> call = PayloadMeter.propagate(() -> executeOnce(method, request));
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Future<?> running = HEDGE_POOL.submit(() -> {
+            try {
+                future.complete(call.call());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) running.cancel(true);
+        });
+        return future;
+    }
+
+    @FunctionalInterface
+    public interface BatchCall<T> {
+        AbstractGoogleJsonClientRequest<T> build(String id) throws IOException;
+    }
+
+    // Runs one request per ID as Gmail batch HTTP calls of up to 100 sub-requests.
+    // Retryable sub-request failures are retried in a later round after a jittered backoff;
+    // other failures are reported per ID. Returns the number of HTTP round trips made.
+    public <T> int executeBatch(GmailMethod method, List<String> ids, BatchCall<T> call,
+                                BiConsumer<String, T> onSuccess, BiConsumer<String, String> onFailure) throws IOException {
+        int roundTrips = 0;
+        List<String> pending = ids;
+        int batchSize = background
+                ? Math.max(1, Math.min(MAX_BATCH_SIZE, limiter.backgroundUnits() / method.quotaUnits()))
+                : MAX_BATCH_SIZE;
+
+        for (int round = 0; !pending.isEmpty(); round++) {
+            if (round > 0) {
+                retries.add(pending.size());
+                backoff(round - 1);
+            }
+            boolean lastRound = round >= MAX_RETRIES;
+            List<String> retry = new ArrayList<>();
+
+            for (int start = 0; start < pending.size(); start += batchSize) {
+                List<String> chunk = pending.subList(start, Math.min(pending.size(), start + batchSize));
+                roundTrips++;
+
+                // a batch envelope for a single call only adds overhead
+                if (chunk.size() == 1) {
+                    String id = chunk.get(0);
+                    try {
+                        onSuccess.accept(id, execute(method, () -> call.build(id)));
+                    } catch (IOException e) {
+                        onFailure.accept(id, String.valueOf(e.getMessage()));
+                    }
+                    continue;
+                }
+
+                Set<String> reported = new HashSet<>();
+                boolean[] throttled = new boolean[1];
+                int[] errors = new int[1];
+                BatchRequest batch = gmail.batch();
+                for (String id : chunk) {
+                    call.build(id).queue(batch, new JsonBatchCallback<T>() {
+                        @Override
+                        public void onSuccess(T result, HttpHeaders responseHeaders) {
+                            reported.add(id);
+                            onSuccess.accept(id, result);
+                        }
+
+                        @Override
+                        public void onFailure(GoogleJsonError e, HttpHeaders responseHeaders) {
+                            reported.add(id);
+                            errors[0]++;
+                            boolean throttle = isThrottle(e.getCode(), e);
+                            throttled[0] |= throttle;
+                            if (!lastRound && (throttle || isRetryableServerError(method, e.getCode()))) {
+                                retry.add(id);
+                            } else {
+                                onFailure.accept(id, e.getCode() + " " + e.getMessage());
+                            }
+                        }
+                    });
+                }
+
+                limiter.acquire(method.quotaUnits() * chunk.size(), background);
+                long bytesBefore = PayloadMeter.threadBytes();
+                long start = System.nanoTime();
+                try {
+                    batch.execute();
+                } catch (IOException e) {
+                    // the envelope itself failed: everything not answered yet shares its fate
+                    errors[0] += chunk.size() - reported.size();
+                    boolean again = !lastRound && isRetryable(method, e);
+                    for (String id : chunk) {
+                        if (reported.contains(id)) continue;
+                        if (again) {
+                            retry.add(id);
+                        } else {
+                            onFailure.accept(id, String.valueOf(e.getMessage()));
+                        }
+                    }
+                } finally {
+                    Metrics.gmailCall(method, System.nanoTime() - start, method.quotaUnits() * chunk.size(),
+                            PayloadMeter.threadBytes() - bytesBefore, errors[0]);
+                    limiter.release(throttled[0]);
+                }
+            }
+
+            pending = retry;
+        }
+
+        return roundTrips;
+    }
+
+    // Full jitter: sleep a uniform random time up to the exponential cap, so retries spread out
+    private static void backoff(int attempt) throws InterruptedIOException {
+        long cap = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << Math.min(attempt, 16));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(cap + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted during Gmail retry backoff");
+        }
+    }
+
+    // Rate limits were rejected before doing anything, so every method may retry them.
+    // Server errors and timeouts may have been applied, so only idempotent methods retry those.
+    static boolean isRetryable(GmailMethod method, IOException e) {
+        if (e instanceof GoogleJsonResponseException g) {
+            return isThrottle(g.getStatusCode(), g.getDetails()) || isRetryableServerError(method, g.getStatusCode());
+        }
+        if (e instanceof SocketTimeoutException) return method.idempotent();
+        if (e instanceof InterruptedIOException) return false;
+        return method.idempotent();
+    }
+
+    private static boolean isRetryableServerError(GmailMethod method, int code) {
+        return method.idempotent() && RETRYABLE_SERVER_CODES.contains(code);
+    }
+
+    static boolean isThrottle(int code, GoogleJsonError error) {
+        if (code == 429) return true;
+        if (code != 403 || error == null || error.getErrors() == null) return false;
+        for (GoogleJsonError.ErrorInfo info : error.getErrors()) {
+            if (RATE_LIMIT_REASONS.contains(info.getReason())) return true;
+        }
+        return false;
+    }
+
+    private static IOException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException io) return io;
+        if (cause instanceof RuntimeException re) throw re;
+        return new IOException(cause);
+    }
+
+    // Per-method p50/p99 plus retry and hedge counters
+    public Map<String, Object> latencySnapshot() {
+        Map<String, Object> methods = new LinkedHashMap<>();
+        for (var entry : latencies.entrySet()) {
+            LatencyTracker t = entry.getValue();
+            if (t.count() == 0) continue;
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("count", t.count());
+            m.put("p50Ms", t.percentileNanos(0.50) / 1e6);
+            m.put("p99Ms", t.percentileNanos(0.99) / 1e6);
+            methods.put(entry.getKey().apiName(), m);
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("methods", methods);
+        result.put("retries", retries.sum());
+        result.put("hedges", hedges.sum());
+        result.put("hedgeWins", hedgeWins.sum());
+        return result;
+    }
+}
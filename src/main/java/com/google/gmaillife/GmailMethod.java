@@ -0,0 +1,35 @@
+package com.google.gmaillife;
+
+// Gmail API methods used by the tools, with their per-user quota cost in units
+public enum GmailMethod {
+    MESSAGES_LIST("messages.list", 5, true, true),
+    MESSAGES_GET("messages.get", 5, true, true),
+    MESSAGES_MODIFY("messages.modify", 5, false, true),
+    MESSAGES_BATCH_MODIFY("messages.batchModify", 50, false, true),
+    MESSAGES_TRASH("messages.trash", 5, false, true),
+    MESSAGES_SEND("messages.send", 100, false, false),
+    THREADS_GET("threads.get", 10, true, true),
+    LABELS_GET("labels.get", 1, true, true),
+    LABELS_LIST("labels.list", 1, true, true),
+    HISTORY_LIST("history.list", 2, true, true),
+    GET_PROFILE("getProfile", 1, true, true);
+
+    private final String apiName;
+    private final int quotaUnits;
+    private final boolean readOnly;
+    private final boolean idempotent;
+
+    GmailMethod(String apiName, int quotaUnits, boolean readOnly, boolean idempotent) {
+        this.apiName = apiName;
+        this.quotaUnits = quotaUnits;
+        this.readOnly = readOnly;
+        this.idempotent = idempotent;
+    }
+
+    public String apiName() { return apiName; }
+    public int quotaUnits() { return quotaUnits; }
+    // Reads may be hedged: a duplicate in flight costs quota but changes nothing
+    public boolean readOnly() { return readOnly; }
+    // Repeating the call after a server error leaves the mailbox in the same state (not true for send)
+    public boolean idempotent() { return idempotent; }
+}
@@ -0,0 +1,354 @@
+package com.google.gmaillife;
+
+import com.google.gmaillife.model.CachedMessage;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.function.Predicate;
+
+// Gmail search syntax compiled to a predicate over cached metadata. Covers the operator subset
+// the agents use: from: to: subject: category: label: in: is: newer_than: older_than: after:
+// before: larger: smaller:, "-" negation, OR, {} any-of and () all-of groups. Anything else
+// (free text, has:, filename:, user labels...) makes compile() return null so the caller
+// asks Gmail instead.
+public final class GmailQuery {
+
+    // Gmail reads dates in after:/before: and periods in older_than:/newer_than: in Pacific time,
+    // whatever the account's or this machine's time zone
+    static final ZoneId ZONE = ZoneId.of("America/Los_Angeles");
+
+    private static final Map<String, String> CATEGORIES = Map.of(
+            "primary", "CATEGORY_PERSONAL",
+            "personal", "CATEGORY_PERSONAL",
+            "social", "CATEGORY_SOCIAL",
+            "promotions", "CATEGORY_PROMOTIONS",
+            "updates", "CATEGORY_UPDATES",
+            "forums", "CATEGORY_FORUMS");
+
+    // System labels addressable through label: and in:
+    private static final Map<String, String> SYSTEM_LABELS = Map.of(
+            "inbox", "INBOX",
+            "sent", "SENT",
+            "draft", "DRAFT",
+            "drafts", "DRAFT",
+            "spam", "SPAM",
+            "trash", "TRASH",
+            "starred", "STARRED",
+            "important", "IMPORTANT",
+            "unread", "UNREAD");
+
+    private final String query;
+    private final Predicate<CachedMessage> predicate;
+
+    private GmailQuery(String query, Predicate<CachedMessage> predicate) {
+        this.query = query;
+        this.predicate = predicate;
+    }
+
+    // Relative operators (newer_than:) are fixed against now at compile time
+    public static GmailQuery compile(String query, long now) {
+        try {
+            Parser parser = new Parser(query == null ? "" : query, now);
+            Predicate<CachedMessage> p = parser.parse();
+            // like messages.list, spam and trash only show up when the query asks for them
+            if (!parser.reachesSpamTrash) {
+                p = p.and(m -> !m.getLabelIds().contains("SPAM") && !m.getLabelIds().contains("TRASH"));
+            }
+            return new GmailQuery(query, p);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public boolean matches(CachedMessage m) {
+        return predicate.test(m);
+    }
+
+    // IDs of matching messages, newest first as messages.list returns them
+    public List<String> select(Collection<CachedMessage> messages) {
+        List<CachedMessage> hits = new ArrayList<>();
+        for (CachedMessage m : messages) {
+            if (predicate.test(m)) hits.add(m);
+        }
+        hits.sort(Comparator.comparingLong(CachedMessage::getInternalDate).reversed()
+                .thenComparing(CachedMessage::getId, Comparator.reverseOrder()));
+        List<String> ids = new ArrayList<>(hits.size());
+        for (CachedMessage m : hits) {
+            ids.add(m.getId());
+        }
+        return ids;
+    }
+
+    @Override
+    public String toString() {
+        return query;
+    }
+
+    // Recursive descent: query := or+ ; or := unary ("OR" unary)* ; unary := "-"? atom
+    private static final class Parser {
+        private final String s;
+        private final long now;
+        private int pos;
+        private int negations;
+        private boolean reachesSpamTrash;
+
+        Parser(String s, long now) {
+            this.s = s;
+            this.now = now;
+        }
+
+        Predicate<CachedMessage> parse() {
+            Predicate<CachedMessage> p = sequence((char) 0);
+            if (pos < s.length()) throw new IllegalArgumentException("Unexpected " + s.charAt(pos));
+            return p;
+        }
+
+        // Terms up to the closing char, ANDed
+        private Predicate<CachedMessage> sequence(char close) {
+            Predicate<CachedMessage> all = m -> true;
+            while (true) {
+                skipSpace();
+                if (pos >= s.length() || s.charAt(pos) == close) return all;
+                all = all.and(or(close));
+            }
+        }
+
+        private Predicate<CachedMessage> or(char close) {
+            Predicate<CachedMessage> any = unary(close);
+            while (true) {
+                int mark = pos;
+                skipSpace();
+                if (s.startsWith("OR", pos) && (pos + 2 == s.length() || Character.isWhitespace(s.charAt(pos + 2)))) {
+                    pos += 2;
+                    skipSpace();
+                    any = any.or(unary(close));
+                } else {
+                    pos = mark;
+                    return any;
+                }
+            }
+        }
+
+        private Predicate<CachedMessage> unary(char close) {
+            if (pos < s.length() && s.charAt(pos) == '-') {
+                pos++;
+                negations++;
+                Predicate<CachedMessage> p = unary(close);
+                negations--;
+                return p.negate();
+            }
+            return atom(close);
+        }
+
+        private Predicate<CachedMessage> atom(char close) {
+            // a trailing "-" or "OR" leaves nothing to read
+            if (pos >= s.length()) throw new IllegalArgumentException("Unexpected end of query");
+            char c = s.charAt(pos);
+            if (c == '(' || c == '{') return group(c, null);
+            if (c == ')' || c == '}') throw new IllegalArgumentException("Unbalanced " + c);
+
+            int colon = -1;
+            int start = pos;
+            while (pos < s.length()) {
+                char ch = s.charAt(pos);
+                if (Character.isWhitespace(ch) || ch == close || ch == '(' || ch == '{' || ch == '"') break;
+                if (ch == ':' && colon < 0) {
+                    colon = pos;
+                    pos++;
+                    break;
+                }
+                pos++;
+            }
+            if (colon < 0) throw new IllegalArgumentException("Free text is not evaluated locally");
+
+            String op = s.substring(start, colon).toLowerCase(Locale.ROOT);
+            if (pos < s.length() && (s.charAt(pos) == '(' || s.charAt(pos) == '{')) {
+                return group(s.charAt(pos), op);
+            }
+            return term(op, value(close));
+        }
+
+        // (a b) all of, {a b} any of; with an operator it is distributed, as in category:{social forums}
+        private Predicate<CachedMessage> group(char open, String op) {
+            char close = open == '(' ? ')' : '}';
+            pos++;
+            Predicate<CachedMessage> result = open == '(' ? m -> true : m -> false;
+            while (true) {
+                skipSpace();
+                if (pos >= s.length()) throw new IllegalArgumentException("Unclosed " + open);
+                if (s.charAt(pos) == close) {
+                    pos++;
+                    return result;
+                }
+                Predicate<CachedMessage> p = op == null ? or(close) : operand(op, close);
+                result = open == '(' ? result.and(p) : result.or(p);
+            }
+        }
+
+        // A value inside op:(...) or op:{...}, possibly negated or ORed
+        private Predicate<CachedMessage> operand(String op, char close) {
+            Predicate<CachedMessage> p = operandTerm(op, close);
+            while (true) {
+                int mark = pos;
+                skipSpace();
+                if (s.startsWith("OR ", pos)) {
+                    pos += 3;
+                    skipSpace();
+                    p = p.or(operandTerm(op, close));
+                } else {
+                    pos = mark;
+                    return p;
+                }
+            }
+        }
+
+        private Predicate<CachedMessage> operandTerm(String op, char close) {
+            if (pos < s.length() && s.charAt(pos) == '-') {
+                pos++;
+                negations++;
+                Predicate<CachedMessage> p = term(op, value(close));
+                negations--;
+                return p.negate();
+            }
+            return term(op, value(close));
+        }
+
+        private String value(char close) {
+            if (pos < s.length() && s.charAt(pos) == '"') {
+                int end = s.indexOf('"', pos + 1);
+                if (end < 0) throw new IllegalArgumentException("Unclosed quote");
+                String v = s.substring(pos + 1, end);
+                pos = end + 1;
+                return v;
+            }
+            int start = pos;
+            while (pos < s.length() && !Character.isWhitespace(s.charAt(pos)) && s.charAt(pos) != close) pos++;
+            if (pos == start) throw new IllegalArgumentException("Missing value");
+            return s.substring(start, pos);
+        }
+
+        private Predicate<CachedMessage> term(String op, String raw) {
+            String v = raw.toLowerCase(Locale.ROOT);
+            return switch (op) {
+                case "from" -> header("From", v);
+                case "to" -> header("To", v).or(header("Cc", v));
+                case "subject" -> header("Subject", v);
+                case "category" -> label(require(CATEGORIES.get(v), op, v));
+                case "label", "in" -> location(op, v);
+                case "is" -> switch (v) {
+                    case "unread" -> label("UNREAD");
+                    case "read" -> label("UNREAD").negate();
+                    case "starred" -> label("STARRED");
+                    case "important" -> label("IMPORTANT");
+                    default -> throw new IllegalArgumentException("Unsupported is:" + v);
+                };
+                case "newer_than" -> {
+                    long cutoff = relative(v);
+                    yield m -> m.getInternalDate() > cutoff;
+                }
+                case "older_than" -> {
+                    long cutoff = relative(v);
+                    yield m -> m.getInternalDate() < cutoff;
+                }
+                case "after" -> {
+                    long t = date(v);
+                    yield m -> m.getInternalDate() >= t;
+                }
+                case "before" -> {
+                    long t = date(v);
+                    yield m -> m.getInternalDate() < t;
+                }
+                case "larger" -> {
+                    long size = size(v);
+                    yield m -> m.getSizeEstimate() > size;
+                }
+                case "smaller" -> {
+                    long size = size(v);
+                    yield m -> m.getSizeEstimate() < size;
+                }
+                default -> throw new IllegalArgumentException("Unsupported operator " + op);
+            };
+        }
+
+        private Predicate<CachedMessage> location(String op, String v) {
+            if (op.equals("in") && v.equals("anywhere")) {
+                if (negations % 2 == 0) reachesSpamTrash = true;
+                return m -> true;
+            }
+            // All Mail: no label filter, spam and trash still left out
+            if (v.equals("all")) return m -> true;
+            String label = v.startsWith("category_") || v.startsWith("category-")
+                    ? CATEGORIES.get(v.substring(9))
+                    : SYSTEM_LABELS.get(v);
+            // user labels need a name -> ID lookup we don't hold
+            label = require(label, op, v);
+            // -in:trash keeps the default exclusion; only a positive mention reaches spam and trash
+            if ((label.equals("SPAM") || label.equals("TRASH")) && negations % 2 == 0) reachesSpamTrash = true;
+            return label(label);
+        }
+
+        private static Predicate<CachedMessage> label(String id) {
+            return m -> m.getLabelIds().contains(id);
+        }
+
+        // Substring match; Gmail matches whole address/name tokens, which this over-approximates
+        // only for fragments shorter than a token
+        private static Predicate<CachedMessage> header(String name, String v) {
+            if (v.equals("me")) throw new IllegalArgumentException("from:me / to:me need the account address");
+            return m -> {
+                String h = m.getHeaders().get(name);
+                return h != null && h.toLowerCase(Locale.ROOT).contains(v);
+            };
+        }
+
+        // 2d, 3m, 1y; Gmail counts m as months
+        private long relative(String v) {
+            if (v.length() < 2) throw new IllegalArgumentException("Bad period " + v);
+            long n = Long.parseLong(v.substring(0, v.length() - 1));
+            ZonedDateTime t = ZonedDateTime.ofInstant(Instant.ofEpochMilli(now), ZONE);
+            ZonedDateTime cutoff = switch (v.charAt(v.length() - 1)) {
+                case 'd' -> t.minusDays(n);
+                case 'm' -> t.minusMonths(n);
+                case 'y' -> t.minusYears(n);
+                default -> throw new IllegalArgumentException("Bad period " + v);
+            };
+            return cutoff.toInstant().toEpochMilli();
+        }
+
+        // 2024/01/31, 2024-01-31 or epoch seconds
+        private static long date(String v) {
+            if (v.chars().allMatch(Character::isDigit)) return Long.parseLong(v) * 1000;
+            String[] p = v.split("[/-]");
+            if (p.length != 3) throw new IllegalArgumentException("Bad date " + v);
+            try {
+                return LocalDate.of(Integer.parseInt(p[0]), Integer.parseInt(p[1]), Integer.parseInt(p[2]))
+                        .atStartOfDay(ZONE).toInstant().toEpochMilli();
+            } catch (DateTimeException e) {
+                throw new IllegalArgumentException("Bad date " + v, e);
+            }
+        }
+
+        // 10000, 10k, 5m
+        private static long size(String v) {
+            long unit = 1;
+            char last = v.charAt(v.length() - 1);
+            if (last == 'k') unit = 1024;
+            if (last == 'm') unit = 1024 * 1024;
+            String digits = unit == 1 ? v : v.substring(0, v.length() - 1);
+            return Long.parseLong(digits) * unit;
+        }
+
+        private static String require(String value, String op, String v) {
+            if (value == null) throw new IllegalArgumentException("Unsupported " + op + ":" + v);
+            return value;
+        }
+
+        private void skipSpace() {
+            while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) pos++;
+        }
+    }
+}
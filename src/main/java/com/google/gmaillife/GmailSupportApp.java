@@ -3,6 +3,7 @@ package com.google.gmaillife;
 import com.google.adk.agents.LlmAgent;
 import com.google.adk.agents.SequentialAgent;
 import com.google.adk.agents.BaseAgent;
+import com.google.adk.tools.BaseTool;
 import com.google.adk.tools.FunctionTool;
 import com.google.adk.web.AdkWebServer;
 import com.google.api.client.auth.oauth2.Credential;
@@ -17,6 +18,7 @@ import com.google.api.client.util.store.FileDataStoreFactory;
 import com.google.api.services.gmail.Gmail;
 import com.google.api.services.gmail.GmailScopes;
 import java.io.InputStreamReader;
+import java.nio.file.Path;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -26,20 +28,66 @@ public class GmailSupportApp {
     private static final String APPLICATION_NAME = "Gmail Life Support";
     private static final String CREDENTIALS_FILE_PATH = "/credentials.json";
 
+    // Told to agents reading list results when -Dgmail.compactResults=true
+    private static final String COMPACT_NOTE = """
+
+Tool results that list emails come in compact form: "columns" names the fields, each entry
+of "rows" is one email with values in that order, and a "from" value is an index into "senders".
+""";
+
     public static void main(String[] args) throws Exception {
         final NetHttpTransport HTTP_TRANSPORT = GoogleNetHttpTransport.newTrustedTransport();
         Credential credential = getCredentials(HTTP_TRANSPORT);
 
-        Gmail service = new Gmail.Builder(HTTP_TRANSPORT, GsonFactory.getDefaultInstance(), credential)
+        // metered JSON factory so each tool call can report the bytes it downloaded
+        Gmail service = new Gmail.Builder(HTTP_TRANSPORT, PayloadMeter.wrap(GsonFactory.getDefaultInstance()), credential)
                 .setApplicationName(APPLICATION_NAME)
                 .build();
 
+        // Metadata cache survives restarts; history.list deltas keep it current
+        MetadataCache cache = MetadataCache.open(Path.of("cache", "metadata.jsonl"));
+        // Full-text index over everything fetched, for searchLocal
+        TextIndex textIndex = TextIndex.open(Path.of("cache", "index"));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                cache.close();
+            } catch (Exception e) {
+                System.out.println("Failed to close metadata cache: " + e);
+            }
+            try {
+                textIndex.close();
+            } catch (Exception e) {
+                System.out.println("Failed to close text index: " + e);
+            }
+        }));
+
+        // Unsubscribe outcomes, so lists already left are not unsubscribed again
+        UnsubscribeStore unsubscribes = UnsubscribeStore.open(Path.of("cache", "unsubscribes.json"));
+        // Month, year and story digests, so a life story only re-summarizes months with new mail
+        DigestStore digests = DigestStore.open(Path.of("cache", "lifestory.json"));
+
+        MessageFetcher fetcher = new MessageFetcher(new GmailExecutor(service), cache, textIndex);
+        // First run caches metadata for the whole mailbox in the background; from then on the
+        // common agent queries are answered from the cache instead of messages.list
+        Thread.ofVirtual().name("metadata-prime").start(() -> {
+            try {
+                fetcher.primeCache();
+            } catch (Exception e) {
+                System.out.println("Metadata cache priming failed: " + e);
+            }
+        });
+
         // BUILD FRESH AGENT WITH GMAIL SERVICE (no chaining on withGmail)
-        BaseAgent rootAgent = createGmailAgent(service);
+        BaseAgent rootAgent = createGmailAgent(service, fetcher, unsubscribes, digests);
+
+        // Prometheus metrics next to the Dev UI
+        int metricsPort = Integer.getInteger("gmail.metricsPort", 9464);
+        Metrics.serve(metricsPort);
 
         // Start the ADK Dev UI
         AdkWebServer.start(rootAgent);
         System.out.println("Gmail Life Support is running at http://localhost:8080");
+        System.out.println("Metrics at http://localhost:" + metricsPort + "/metrics");
         System.out.println("Try: 'Clean my inbox' or 'Tell me my life story from Gmail'");
 
         // Keep app alive
@@ -48,46 +96,42 @@ public class GmailSupportApp {
 
     // FRESH BUILD — Inject Gmail directly, no static mutation
     public static BaseAgent createGmailAgent(Gmail gmail) {
-        UnsubscriberBot tools = new UnsubscriberBot(gmail);
+        return createGmailAgent(gmail, new MessageFetcher(gmail));
+    }
 
-        // 1. Build your sub-agents
-        LlmAgent analyzer = LlmAgent.builder()
-                .name("analyzer")
-                .model("gemini-2.5-flash")
-                .instruction("""
-                        .instruction(""\"
-                                                                              You are the ANALYZER.
-                                                                              
-                                                                              YOUR JOB:
-                                                                              - Call analyzeEmailBatch exactly once.
-                                                                              - Always call it with this fixed input:
-                                                                                                          {
-                                                                                                            "query": "in:inbox newer_than:2d"
-                                                                                                          }
-                                                                              - Return ONLY the raw JSON map produced by analyzeEmailBatch.
-                                                                              - No commentary, no text, no explanations, no formatting.
-                                                                              
-                                                                              STRICT RULES:
-                                                                              1. You MUST call analyzeEmailBatch exactly once.
-                                                                              2. After the tool returns, you MUST return its JSON output EXACTLY as-is.
-                                                                              3. DO NOT add any words before or after the JSON.
-                                                                              4. DO NOT wrap it in a sentence.
-                                                                              5. DO NOT modify the fields.
-                                                                              6. DO NOT think out loud.
-                                                                              7. DO NOT call any other tools.
-                                                                              8. After returning the JSON map, STOP COMPLETELY.
-                                                                              
-                                                                              If you violate ANY of these, the system will break.
-                                                                              ""\")
-                                                                              
+    public static BaseAgent createGmailAgent(Gmail gmail, MessageFetcher fetcher) {
+        return createGmailAgent(gmail, fetcher, null);
+    }
 
-""")
-                .tools(List.of(FunctionTool.create(tools, "analyzeEmailBatch")))
-                .build();
+    public static BaseAgent createGmailAgent(Gmail gmail, MessageFetcher fetcher, UnsubscribeStore unsubscribes) {
+        return createGmailAgent(gmail, fetcher, unsubscribes, DigestStore.inMemory());
+    }
+
+    public static BaseAgent createGmailAgent(Gmail gmail, MessageFetcher fetcher, UnsubscribeStore unsubscribes,
+                                             DigestStore digests) {
+        UnsubscriberBot tools = new UnsubscriberBot(gmail, fetcher, unsubscribes);
+        // opt-in: fewer tokens per listing, at the cost of a less self-describing shape
+        tools.setCompactResults(Boolean.getBoolean("gmail.compactResults"));
+        String compactNote = tools.compactResults() ? COMPACT_NOTE : "";
+        // repeat reads within a conversation are answered from memory; writes drop what they touch
+        ToolMemo memo = new ToolMemo();
+        MailArchaeologist archaeologist = new MailArchaeologist(fetcher);
+        // -Dgmail.summarizer=stub summarizes without model calls, for dry runs
+        Summarizer summarizer = "stub".equals(System.getProperty("gmail.summarizer"))
+                ? new StubSummarizer()
+                : new GeminiSummarizer("gemini-2.5-flash");
+        LifeStoryEngine lifeStoryEngine = new LifeStoryEngine(fetcher, summarizer, digests);
+
+        // 1. Build your sub-agents
+        // No model needed to call one tool with no arguments: the analyzer runs it directly
+        ToolStage analyzer = new ToolStage("analyzer", "Lists unread promotional emails for the decider",
+                "analysis", tools::analyzeEmailBatch);
 
         LlmAgent decider = LlmAgent.builder()
                 .name("decider")
                 .model("gemini-2.5-flash")
+                .beforeModelCallback(Metrics::beforeModel)
+                .afterModelCallback(Metrics::afterModel)
                 .instruction("""
 You are the DECIDER.
 
@@ -103,7 +147,7 @@ IMPORTANT:
 
 Rules:
 1) Do NOT call any tools.
-2) Input is the Map from analyzer (email summaries).
+2) Input is the analyzer's reply: the JSON Map from analyzeEmailBatch (email summaries).
 3) First, determine if the user explicitly requested an action:
       - If YES → return decisions normally.
       - If NO → return a follow-up question asking what action to perform.
@@ -124,22 +168,29 @@ Rules:
 
 6) NEVER auto-select trash/archive/markasread.
 7) ALWAYS ask the user when the intent is missing.
-""")
+8) If the analyzer's reply has "status":"error", return no decisions. Return
+   {"error": "<the analyzer's error>"} so the user learns the emails could not be listed.
+""" + compactNote)
                 .build();
 
 
         LlmAgent actor = LlmAgent.builder()
                 .name("actor")
                 .model("gemini-2.5-flash")
+                .beforeModelCallback(Metrics::beforeModel)
+                .afterModelCallback(Metrics::afterModel)
                 .instruction("""
-You execute trash or archive actions.
+You execute trash, archive and mark-as-read actions in bulk.
 
 RULES:
-1) For each decision:
-   - If action=trash → call trashEmail(messageId)
-   - If action=archive → call archiveEmail(messageId)
-2) Call each tool EXACTLY ONCE if needed.
+1) Group the decisions by action and collect their message IDs:
+   - action=trash → one call to trashEmails(messageIds) with ALL trash IDs
+   - action=archive → one call to archiveEmails(messageIds) with ALL archive IDs
+   - action=markasread → one call to markAsReadBulk(messageIds) with ALL mark-as-read IDs
+   - action=keep → no call
+2) Call each tool AT MOST ONCE, and only if it has at least one ID.
 3) Never call searchEmails or any other tools.
+   If the decider returned an error instead of decisions, call nothing and return that error.
 
 4) After all actions, return a FINAL STRING summary:
    "Inbox cleanup complete. Processed <N> messages."
@@ -148,8 +199,9 @@ RULES:
 6) After returning the string, STOP.
 """)
                 .tools(List.of(
-                        FunctionTool.create(tools, "trashEmail"),
-                        FunctionTool.create(tools, "archiveEmail")
+                        metered(memo.write(FunctionTool.create(tools, "trashEmails"))),
+                        metered(memo.write(FunctionTool.create(tools, "archiveEmails"))),
+                        metered(memo.write(FunctionTool.create(tools, "markAsReadBulk")))
                 ))
                 .build();
 
@@ -164,29 +216,35 @@ RULES:
         LlmAgent lifeStory = LlmAgent.builder()
                 .name("lifeStory")
                 .model("gemini-2.5-flash")
+                .beforeModelCallback(Metrics::beforeModel)
+                .afterModelCallback(Metrics::afterModel)
                 .instruction("""
                         You are a biographer. When the user asks about "life story", "timeline",
                         "biggest moments", "memories", "my journey", or "what my emails say about me":
                                                 
                         RULES:
-                        1) Call searchEmails EXACTLY ONCE with a broad query such as\s
-                           "label:all newer_than:5y".
+                        1) Call buildLifeStory EXACTLY ONCE with years=5 (or the span the user
+                           asks for). It summarizes the whole mailbox month by month and returns
+                           "story" plus a narrative per year in "years".
                                                 
-                        2) DO NOT call getEmail or getThread. Ignore those tools completely.
+                        2) If the user asks about a specific theme (e.g. "weddings", "moving house",
+                           "my first job"), you MAY also call searchLocal ONCE with a few keywords
+                           for it and a limit of 20. It searches years of mail by content.
                                                 
-                        3) Use ONLY the information returned from searchEmails
-                           (subject, from, date, snippet). Do not attempt to fetch full bodies.
+                        3) DO NOT call getEmail or getThread. Ignore those tools completely.
+                           Use ONLY the information returned from buildLifeStory and searchLocal.
+                           Do not attempt to fetch full bodies.
                                                 
-                        4) Write a readable, flowing narrative paragraph that summarizes what the
-                           user's emails say about their life — highlighting themes, milestones,
-                           patterns, or personal moments inferred from the metadata.
+                        4) Write a readable, flowing narrative paragraph from the story and the
+                           yearly narratives — highlighting themes, milestones, patterns, or
+                           personal moments.
                                                 
                         5) The final response must be a plain paragraph of text.
                            No JSON. No braces. No lists. No technical formatting.
                                                 
                         6) After generating the paragraph, STOP.\s
                            Do not call any additional tools.\s
-                           Do not retry searchEmails.\s
+                           Do not retry buildLifeStory or searchLocal.\s
                            Do not loop.
                                                 
                         7) After producing the final response:
@@ -194,19 +252,23 @@ RULES:
                            - DO NOT retry tool calls
                            - DO NOT attempt to expand details
 
-                        Your total tool calls must be ONE (1).
+                        Your total tool calls must be at most TWO (2): buildLifeStory once,
+                        and searchLocal at most once.
 
-                        """)
+                        """ + compactNote)
                 .tools(List.of(
-                        FunctionTool.create(tools, "searchEmails"),
-                        FunctionTool.create(tools, "getEmail"),
-                        FunctionTool.create(tools, "getThread")
+                        metered(FunctionTool.create(lifeStoryEngine, "buildLifeStory")),
+                        metered(memo.read(FunctionTool.create(tools, "searchLocal"))),
+                        metered(memo.read(FunctionTool.create(tools, "getEmail"))),
+                        metered(memo.read(FunctionTool.create(tools, "getThread")))
                 ))
                 .build();
 
         LlmAgent trashAgent = LlmAgent.builder()
                 .name("trashAgent")
                 .model("gemini-2.5-flash")
+                .beforeModelCallback(Metrics::beforeModel)
+                .afterModelCallback(Metrics::afterModel)
                 .instruction("""
 When user asks to delete/trash:
 
@@ -217,12 +279,14 @@ When user asks to delete/trash:
 No more tool calls.
 
 """)
-                .tools(List.of(FunctionTool.create(tools, "searchEmails"), FunctionTool.create(tools, "trashEmail")))
+                .tools(List.of(metered(memo.read(FunctionTool.create(tools, "searchEmails"))), metered(memo.write(FunctionTool.create(tools, "trashEmail")))))
                 .build();
 
         LlmAgent archiveAgent = LlmAgent.builder()
                 .name("archiveAgent")
                 .model("gemini-2.5-flash")
+                .beforeModelCallback(Metrics::beforeModel)
+                .afterModelCallback(Metrics::afterModel)
                 .instruction("""
 When user asks to archive a single message:
 
@@ -234,12 +298,14 @@ Do NOT retry tools.
 Do NOT call any extra tools.
 
 """)
-                .tools(List.of(FunctionTool.create(tools, "searchEmails"), FunctionTool.create(tools, "archiveEmail")))
+                .tools(List.of(metered(memo.read(FunctionTool.create(tools, "searchEmails"))), metered(memo.write(FunctionTool.create(tools, "archiveEmail")))))
                 .build();
 
         LlmAgent markAsReadAgent = LlmAgent.builder()
                 .name("markAsReadAgent")
                 .model("gemini-2.5-flash")
+                .beforeModelCallback(Metrics::beforeModel)
+                .afterModelCallback(Metrics::afterModel)
                 .instruction("""
 When user asks to mark an email as read:
 
@@ -250,16 +316,24 @@ When user asks to mark an email as read:
 Do not retry or call extra tools.
 
 """)
-                .tools(List.of(FunctionTool.create(tools, "searchEmails"), FunctionTool.create(tools, "markAsRead")))
+                .tools(List.of(metered(memo.read(FunctionTool.create(tools, "searchEmails"))), metered(memo.write(FunctionTool.create(tools, "markAsRead")))))
                 .build();
 
 
         LlmAgent unSubscribe = LlmAgent.builder()
                 .name("unSubscribe")
                 .model("gemini-2.5-flash")
+                .beforeModelCallback(Metrics::beforeModel)
+                .afterModelCallback(Metrics::afterModel)
                 .instruction("""
 When user asks to unsubscribe:
 
+If the user asks to unsubscribe from MANY senders at once
+(e.g. "all newsletters", "every promotion", "everything from the last month"):
+   - Call bulkUnsubscribe(query) exactly once with a Gmail query for those senders.
+   - Summarize how many senders were unsubscribed and which failed, then STOP.
+
+Otherwise, for a single sender:
 1) Call searchEmails once with the user's query.
 2) If results exist:
    - Call unsubscribeEmail(messageId) exactly once.
@@ -275,8 +349,34 @@ STOP after sending the final confirmation message.
 """)
 
                 .tools(List.of(
-                        FunctionTool.create(tools, "searchEmails"),
-                        FunctionTool.create(tools, "unsubscribeEmail")
+                        metered(memo.read(FunctionTool.create(tools, "searchEmails"))),
+                        metered(memo.write(FunctionTool.create(tools, "unsubscribeEmail"))),
+                        metered(FunctionTool.create(tools, "bulkUnsubscribe"))
+                ))
+                .build();
+
+        LlmAgent mailStats = LlmAgent.builder()
+                .name("mailStats")
+                .model("gemini-2.5-flash")
+                .beforeModelCallback(Metrics::beforeModel)
+                .afterModelCallback(Metrics::afterModel)
+                .instruction("""
+When the user asks who emails them the most, their top senders, biggest mailing lists,
+or which domains fill their inbox:
+
+1) Call topSenders(query, groupBy, limit) exactly once.
+   - query: a Gmail query for the period asked about (e.g. "newer_than:1y"), or "" for everything.
+   - groupBy: "sender", "list" or "domain".
+   - limit: how many to show (10 if not specified).
+2) Reply with a short ranked list: name or address, message count and unread count. STOP.
+
+When the user asks how many emails they have per category, call scanMailbox once instead.
+
+Do not retry or call extra tools.
+""")
+                .tools(List.of(
+                        metered(FunctionTool.create(archaeologist, "topSenders")),
+                        metered(FunctionTool.create(archaeologist, "scanMailbox"))
                 ))
                 .build();
 
@@ -284,6 +384,8 @@ STOP after sending the final confirmation message.
         LlmAgent clarifyAgent = LlmAgent.builder()
                 .name("clarify")
                 .model("gemini-2.5-flash")
+                .beforeModelCallback(Metrics::beforeModel)
+                .afterModelCallback(Metrics::afterModel)
                 .instruction("""
 When the router returns "clarify", ask a single short clarifying question to the user that helps routing
 (e.g., "Do you want me to unsubscribe, archive, or delete messages?"). Return a short text answer Map: { "text": "<question>" }.
@@ -291,10 +393,12 @@ When the router returns "clarify", ask a single short clarifying question to the
                 .build();
 
 
-        // 2. ROOT AGENT with routing instructions (Java ADK way)
+        // 2. LLM router with routing instructions (Java ADK way)
         LlmAgent router = LlmAgent.builder()
-                .name("Gmail Life Support")
+                .name("router")
                 .model("gemini-2.5-flash")
+                .beforeModelCallback(Metrics::beforeModel)
+                .afterModelCallback(Metrics::afterModel)
                 .instruction("""
 You are a STRICT deterministic router.
 
@@ -308,15 +412,29 @@ Convert ONLY the user message to lowercase and route according to:
 (keep your same routing rules here)
 
 Return exactly one of the following tokens:
-unSubscribe, cleanupFlow, lifeStory, archiveAgent, trashAgent, markAsReadAgent, clarify
+unSubscribe, cleanupFlow, lifeStory, mailStats, archiveAgent, trashAgent, markAsReadAgent, clarify
 
 Return ONLY the token and nothing else.
 
 """)
-                .subAgents(List.of(unSubscribe, archiveAgent, trashAgent, markAsReadAgent, cleanupFlow, lifeStory, clarifyAgent))
+                .subAgents(List.of(unSubscribe, archiveAgent, trashAgent, markAsReadAgent, cleanupFlow, lifeStory, mailStats, clarifyAgent))
                 .build();
 
-        return router;
+        // 3. ROOT AGENT: keyword fast path, LLM router only for ambiguous messages
+        FastPathRouter root = new FastPathRouter("Gmail Life Support", router);
+        Metrics.register("router", root::stats);
+        Metrics.register("tool_memo", memo::stats);
+        Metrics.register("gmail_limiter", fetcher.executor().limiter()::snapshot);
+        Metrics.register("gmail_executor", fetcher.executor()::latencySnapshot);
+        Metrics.register("metadata_cache", fetcher::cacheStats);
+        if (fetcher.index() != null) Metrics.register("text_index", fetcher.index()::stats);
+        Metrics.register("unsubscribe", tools::unsubscribeStats);
+        return root;
+    }
+
+    // Every tool the agents see is timed for /metrics
+    private static BaseTool metered(BaseTool tool) {
+        return new MeteredTool(tool);
     }
 
     private static Credential getCredentials(final NetHttpTransport transport) throws Exception {
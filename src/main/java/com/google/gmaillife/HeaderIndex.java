@@ -0,0 +1,104 @@
+package com.google.gmaillife;
+
+import com.google.api.services.gmail.model.Message;
+import com.google.api.services.gmail.model.MessagePartHeader;
+import com.google.gmaillife.model.EmailFull;
+import com.google.gmaillife.model.EmailSummary;
+
+import java.util.List;
+
+// The headers the tools read, picked out of a message in one pass over its header list. A full
+// message carries 20-40 headers (relays, DKIM, ARC), and looking each field up separately walked
+// them once per field. Names match case-insensitively and the first occurrence wins. Display
+// headers read as "" when absent, list headers as null.
+public final class HeaderIndex {
+
+    private String subject;
+    private String from;
+    private String date;
+    private String listId;
+    private String listUnsubscribe;
+    private String listUnsubscribePost;
+
+    private HeaderIndex() {}
+
+    public static HeaderIndex of(Message message) {
+        HeaderIndex h = new HeaderIndex();
+        if (message == null || message.getPayload() == null) return h;
+        List<MessagePartHeader> headers = message.getPayload().getHeaders();
+        if (headers == null) return h;
+
+        for (int i = 0; i < headers.size(); i++) {
+            MessagePartHeader header = headers.get(i);
+            String name = header.getName();
+            if (name == null) continue;
+            // a missing value still counts as the header being present
+            String value = header.getValue() == null ? "" : header.getValue();
+            // the length rules out most names (Received, DKIM-Signature, ...) without a compare
+            switch (name.length()) {
+                case 4 -> {
+                    if (h.from == null && name.equalsIgnoreCase("From")) h.from = value;
+                    else if (h.date == null && name.equalsIgnoreCase("Date")) h.date = value;
+                }
+                case 7 -> {
+                    if (h.subject == null && name.equalsIgnoreCase("Subject")) h.subject = value;
+                    else if (h.listId == null && name.equalsIgnoreCase("List-Id")) h.listId = value;
+                }
+                case 16 -> {
+                    if (h.listUnsubscribe == null && name.equalsIgnoreCase("List-Unsubscribe")) h.listUnsubscribe = value;
+                }
+                case 21 -> {
+                    if (h.listUnsubscribePost == null && name.equalsIgnoreCase("List-Unsubscribe-Post")) h.listUnsubscribePost = value;
+                }
+                default -> {
+                }
+            }
+        }
+        return h;
+    }
+
+    // A listing row: id, Subject/From/Date and snippet
+    public static EmailSummary summary(String id, Message message) {
+        HeaderIndex h = of(message);
+        return new EmailSummary(id, h.subject(), h.from(), h.date(), message.getSnippet());
+    }
+
+    // A message with its decoded body
+    public static EmailFull full(Message message, String body) {
+        HeaderIndex h = of(message);
+        return new EmailFull(message.getId(), h.subject(), h.from(), h.date(), body, message.getSnippet());
+    }
+
+    public String subject() {
+        return subject == null ? "" : subject;
+    }
+
+    public String from() {
+        return from == null ? "" : from;
+    }
+
+    public String date() {
+        return date == null ? "" : date;
+    }
+
+    public String listId() {
+        return listId;
+    }
+
+    public String listUnsubscribe() {
+        return listUnsubscribe;
+    }
+
+    public String listUnsubscribePost() {
+        return listUnsubscribePost;
+    }
+
+    // First value of any other header in a list, e.g. a MIME part's Content-Type; null when absent
+    static String first(List<MessagePartHeader> headers, String name) {
+        if (headers == null) return null;
+        for (MessagePartHeader h : headers) {
+            if (name.equalsIgnoreCase(h.getName())) return h.getValue();
+        }
+        return null;
+    }
+}
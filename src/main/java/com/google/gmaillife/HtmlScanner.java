@@ -0,0 +1,377 @@
+package com.google.gmaillife;
+
+import org.jsoup.nodes.Entities;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// One forward pass over an HTML body without building a DOM. Produces the page text
+// (whitespace-normalized like Jsoup's text()) and the first unsubscribe link, using the same
+// rules the Jsoup-based lookup used: anchor text, href or rel mentioning unsubscribe, http(s)
+// and mailto preferred, root-relative links resolved against <base href>.
+public final class HtmlScanner {
+
+    private static final Pattern UNSUBSCRIBE_URL =
+            Pattern.compile("(https?://[^\\s\"'>]*unsubscribe[^\\s\"'>]*)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern MAILTO =
+            Pattern.compile("mailto:([\\w.%+-]+@[\\w.-]+\\.[A-Za-z]{2,})", Pattern.CASE_INSENSITIVE);
+    private static final Pattern URL_SCHEME = Pattern.compile("^[a-zA-Z][a-zA-Z0-9+\\-.]*:");
+
+    // Elements that break text flow (Jsoup's block tags), so their edges read as a space
+    private static final Set<String> BLOCK_TAGS = Set.of(
+            "html", "head", "body", "frameset", "script", "noscript", "style", "meta", "link", "title", "frame",
+            "noframes", "section", "nav", "aside", "hgroup", "header", "footer", "p", "h1", "h2", "h3", "h4", "h5",
+            "h6", "ul", "ol", "pre", "div", "blockquote", "hr", "address", "figure", "figcaption", "form", "fieldset",
+            "ins", "del", "dl", "dt", "dd", "li", "table", "caption", "thead", "tfoot", "tbody", "colgroup", "col",
+            "tr", "th", "td", "video", "audio", "canvas", "details", "menu", "plaintext", "template", "article",
+            "main", "svg", "math", "center", "dir", "applet", "marquee", "listing", "br");
+
+    private final String html;
+    private final StringBuilder text = new StringBuilder();
+    private final StringBuilder anchorText = new StringBuilder();
+
+    private String base = "";
+    private String link;
+    private boolean inAnchor;
+    private String anchorHref;
+    private String anchorRel;
+
+    private HtmlScanner(String html) {
+        this.html = html;
+    }
+
+    public static Result scan(String html) {
+        if (html == null) return new Result("", null, "");
+        HtmlScanner s = new HtmlScanner(html);
+        s.run();
+        String link = s.link;
+        if (link == null) {
+            // no qualifying anchor: any URL in the raw HTML that mentions unsubscribe
+            Matcher m = UNSUBSCRIBE_URL.matcher(html);
+            if (m.find()) link = m.group(1);
+        }
+        return new Result(trimEnd(s.text), link, html);
+    }
+
+    private void run() {
+        int n = html.length();
+        int i = 0;
+        while (i < n) {
+            char c = html.charAt(i);
+            if (c == '<') {
+                i = tag(i);
+            } else if (c == '&') {
+                i = entity(i);
+            } else {
+                appendText(c);
+                i++;
+            }
+        }
+        if (inAnchor) closeAnchor();
+    }
+
+    // Consumes the markup starting at '<' and returns the index just past it
+    private int tag(int i) {
+        int n = html.length();
+        int j = i + 1;
+        if (j >= n) {
+            appendText('<');
+            return n;
+        }
+        char c = html.charAt(j);
+        if (c == '!') {
+            if (html.startsWith("--", j + 1)) {
+                int end = html.indexOf("-->", j + 3);
+                return end < 0 ? n : end + 3;
+            }
+            return skipPast('>', j);
+        }
+        if (c == '?') return skipPast('>', j);
+
+        boolean closing = c == '/';
+        if (closing) j++;
+        if (j >= n || !isLetter(html.charAt(j))) {
+            if (closing) return skipPast('>', j); // "</ x>" is a bogus comment
+            appendText('<');
+            return i + 1;
+        }
+
+        int nameStart = j;
+        while (j < n && !isSpace(html.charAt(j)) && html.charAt(j) != '/' && html.charAt(j) != '>') j++;
+        String name = html.substring(nameStart, j).toLowerCase(Locale.ROOT);
+
+        String href = null;
+        String rel = null;
+        while (j < n) {
+            c = html.charAt(j);
+            if (c == '>') {
+                j++;
+                break;
+            }
+            if (isSpace(c) || c == '/') {
+                j++;
+                continue;
+            }
+            int attrStart = j;
+            while (j < n && !isSpace(html.charAt(j)) && "/>=".indexOf(html.charAt(j)) < 0) j++;
+            if (j == attrStart) j++; // stray '=' with no name
+            String attr = html.substring(attrStart, j).toLowerCase(Locale.ROOT);
+            while (j < n && isSpace(html.charAt(j))) j++;
+
+            String value = "";
+            if (j < n && html.charAt(j) == '=') {
+                j++;
+                while (j < n && isSpace(html.charAt(j))) j++;
+                if (j < n && (html.charAt(j) == '"' || html.charAt(j) == '\'')) {
+                    int close = html.indexOf(html.charAt(j), j + 1);
+                    if (close < 0) close = n;
+                    value = html.substring(j + 1, close);
+                    j = Math.min(n, close + 1);
+                } else {
+                    int start = j;
+                    while (j < n && !isSpace(html.charAt(j)) && html.charAt(j) != '>') j++;
+                    value = html.substring(start, j);
+                }
+            }
+            // the first occurrence of an attribute wins
+            if (attr.equals("href") && href == null) href = decodeAttribute(value);
+            if (attr.equals("rel") && rel == null) rel = decodeAttribute(value);
+        }
+
+        if (closing) {
+            if (name.equals("a") && inAnchor) closeAnchor();
+            if (BLOCK_TAGS.contains(name)) appendSpace();
+            return j;
+        }
+
+        if (BLOCK_TAGS.contains(name)) appendSpace();
+        switch (name) {
+            case "a" -> {
+                // a new anchor closes any open one
+                if (inAnchor) closeAnchor();
+                inAnchor = true;
+                anchorHref = href;
+                anchorRel = rel;
+                anchorText.setLength(0);
+            }
+            case "base" -> {
+                if (base.isEmpty() && href != null) base = absolute(href);
+            }
+            // raw text: contents are never markup and never part of the page text
+            case "script", "style" -> j = skipRawText(name, j, false);
+            // escapable raw text: contents are text, never markup
+            case "title", "textarea" -> j = skipRawText(name, j, true);
+            default -> { }
+        }
+        return j;
+    }
+
+    private int skipRawText(String name, int from, boolean keepText) {
+        int n = html.length();
+        int end = from;
+        while (true) {
+            end = html.indexOf("</", end);
+            if (end < 0) {
+                end = n;
+                break;
+            }
+            if (html.regionMatches(true, end + 2, name, 0, name.length())) break;
+            end += 2;
+        }
+        if (keepText) {
+            int i = from;
+            while (i < end) {
+                char c = html.charAt(i);
+                if (c == '&') {
+                    i = entity(i);
+                } else {
+                    appendText(c);
+                    i++;
+                }
+            }
+        }
+        return end;
+    }
+
+    // Same decision the Jsoup version made for each a[href], in document order
+    private void closeAnchor() {
+        inAnchor = false;
+        if (link != null || anchorHref == null) return;
+
+        String href = anchorHref;
+        String hrefLower = href.toLowerCase(Locale.ROOT);
+        String textLower = trimEnd(anchorText).toLowerCase(Locale.ROOT);
+
+        boolean candidate = textLower.contains("unsubscribe") || textLower.contains("opt out")
+                || textLower.contains("manage preferences")
+                || hrefLower.contains("unsubscribe") || hrefLower.contains("optout") || hrefLower.contains("opt-out")
+                || (anchorRel != null && anchorRel.toLowerCase(Locale.ROOT).contains("unsub"));
+        if (!candidate) return;
+
+        if (hrefLower.startsWith("http://") || hrefLower.startsWith("https://") || hrefLower.startsWith("mailto:")) {
+            link = href;
+        } else if (!base.isBlank() && href.startsWith("/")) {
+            // relative link: resolve naively against <base href>
+            link = base + href;
+        }
+    }
+
+    private void appendText(char c) {
+        appendNormalized(text, c);
+        if (inAnchor) appendNormalized(anchorText, c);
+    }
+
+    private void appendSpace() {
+        appendNormalized(text, ' ');
+        if (inAnchor) appendNormalized(anchorText, ' ');
+    }
+
+    // Whitespace runs (including nbsp) collapse to one space, never leading; invisible characters are dropped
+    private static void appendNormalized(StringBuilder sb, char c) {
+        if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\u00a0') {
+            if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ' ') sb.append(' ');
+        } else if (c != '\u200b' && c != '\u00ad') {
+            sb.append(c);
+        }
+    }
+
+    // A decoded character reference and the index just past it
+    private record Reference(String text, int end) {}
+
+    // Decodes the character reference at '&' into the page text, returning the next index
+    private int entity(int i) {
+        Reference ref = reference(html, i, false);
+        if (ref == null) {
+            appendText('&');
+            return i + 1;
+        }
+        for (int k = 0; k < ref.text().length(); k++) {
+            appendText(ref.text().charAt(k));
+        }
+        return ref.end();
+    }
+
+    // The character reference at the '&' at index i, or null when the '&' is literal. Named
+    // references follow Jsoup's tokenizer over its full HTML5 table: the longest letters-then-digits
+    // name, where the legacy names (&copy, &amp, ...) decode without a ';' and the rest need one.
+    // In attributes a name followed by a letter, digit, '=', '-' or '_' stays literal, so
+    // query strings like ?a=1&copy=2 survive.
+    private static Reference reference(String s, int i, boolean inAttribute) {
+        int n = s.length();
+        int j = i + 1;
+        if (j < n && s.charAt(j) == '#') {
+            int semi = s.indexOf(';', j);
+            if (semi < 0 || semi - i > 10) return null;
+            String decoded = numericReference(s.substring(j + 1, semi));
+            return decoded == null ? null : new Reference(decoded, semi + 1);
+        }
+
+        int start = j;
+        while (j < n && Character.isLetter(s.charAt(j))) j++;
+        while (j < n && s.charAt(j) >= '0' && s.charAt(j) <= '9') j++;
+        if (j == start) return null;
+        String name = s.substring(start, j);
+        boolean semicolon = j < n && s.charAt(j) == ';';
+        if (!Entities.isBaseNamedEntity(name) && !(semicolon && Entities.isNamedEntity(name))) return null;
+        if (inAttribute && !semicolon && j < n) {
+            char next = s.charAt(j);
+            if (Character.isLetterOrDigit(next) || next == '=' || next == '-' || next == '_') return null;
+        }
+        String decoded = Entities.getByName(name);
+        if (decoded.isEmpty()) return null;
+        return new Reference(decoded, semicolon ? j + 1 : j);
+    }
+
+    private static String numericReference(String ref) {
+        try {
+            int cp = ref.length() > 0 && (ref.charAt(0) == 'x' || ref.charAt(0) == 'X')
+                    ? Integer.parseInt(ref.substring(1), 16)
+                    : Integer.parseInt(ref);
+            return Character.isValidCodePoint(cp) ? new String(Character.toChars(cp)) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String decodeAttribute(String value) {
+        if (value.indexOf('&') < 0) return value;
+        StringBuilder sb = new StringBuilder(value.length());
+        int i = 0;
+        while (i < value.length()) {
+            char c = value.charAt(i);
+            Reference ref = c == '&' ? reference(value, i, true) : null;
+            if (ref != null) {
+                sb.append(ref.text());
+                i = ref.end();
+            } else {
+                sb.append(c);
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+
+    // What Jsoup's absUrl gives for <base href> in a document without a base URI
+    @SuppressWarnings("deprecation")
+    private static String absolute(String href) {
+        try {
+            return new URL(href).toExternalForm();
+        } catch (MalformedURLException e) {
+            return URL_SCHEME.matcher(href).find() ? href : "";
+        }
+    }
+
+    private int skipPast(char c, int from) {
+        int end = html.indexOf(c, from);
+        return end < 0 ? html.length() : end + 1;
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    private static String trimEnd(StringBuilder sb) {
+        int end = sb.length();
+        while (end > 0 && sb.charAt(end - 1) == ' ') end--;
+        return sb.substring(0, end);
+    }
+
+    // Outcome of one scan; the mailto search runs only if asked for
+    public static final class Result {
+        private final String text;
+        private final String unsubscribeLink;
+        private final String html;
+        private String mailto;
+        private boolean mailtoSearched;
+
+        Result(String text, String unsubscribeLink, String html) {
+            this.text = text;
+            this.unsubscribeLink = unsubscribeLink;
+            this.html = html;
+        }
+
+        // Page text with tags stripped and whitespace collapsed
+        public String text() { return text; }
+
+        // First unsubscribe link (http(s) or mailto), or null
+        public String unsubscribeLink() { return unsubscribeLink; }
+
+        // First mailto: address anywhere in the HTML, as "mailto:addr", or null
+        public synchronized String mailto() {
+            if (!mailtoSearched) {
+                mailtoSearched = true;
+                Matcher m = MAILTO.matcher(html);
+                if (m.find()) mailto = "mailto:" + m.group(1);
+            }
+            return mailto;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.google.gmaillife;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+// HTTP side of unsubscribing: one shared HTTP/2 client (pooled connections, virtual threads)
+// and a per-host cap so a bulk run never floods a single ESP
+public class HttpUnsubscriber {
+
+    // Concurrent requests allowed against one host
+    static final int PER_HOST_LIMIT = 4;
+    // Confirmation pages are only read up to this many bytes
+    static final int MAX_BODY_BYTES = 256 * 1024;
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(8);
+
+    // Confirmation phrases per response content type, matched case-insensitively
+    static final ConfirmationScanner JSON_CONFIRMATION = ConfirmationScanner.of(
+            List.of("unsubscribed", "success", "ok"), MAX_BODY_BYTES);
+    static final ConfirmationScanner HTML_CONFIRMATION = ConfirmationScanner.of(
+            List.of("you have been unsubscribed", "successfully unsubscribed", "unsubscribed successfully", "subscription cancelled"),
+            MAX_BODY_BYTES);
+    static final ConfirmationScanner OTHER_CONFIRMATION = ConfirmationScanner.of(
+            List.of("you have been unsubscribed", "unsubscribed successfully", "success"), MAX_BODY_BYTES);
+
+    // RFC 8058 one-click body
+    private static final String ONE_CLICK_BODY = "List-Unsubscribe=One-Click";
+
+    private final HttpClient client;
+    private final Map<String, Semaphore> hosts = new ConcurrentHashMap<>();
+    // Outcome counts for /metrics: each request by step and status class, each URL by result
+    private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+
+    public HttpUnsubscriber() {
+        this(HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(TIMEOUT)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build());
+    }
+
+    public HttpUnsubscriber(HttpClient client) {
+        this.client = client;
+    }
+
+    // Returns the method that confirmed ("http-one-click", "http-get", "http-post"), or null.
+    // With oneClick the sender advertised List-Unsubscribe-Post, so a single POST is enough.
+    public String unsubscribe(String url, boolean oneClick) {
+        URI uri;
+        try {
+            uri = URI.create(url.trim());
+        } catch (IllegalArgumentException e) {
+            count("badUrl");
+            return null;
+        }
+        // links found in the body may be mailto:, which is not ours to handle
+        String scheme = uri.getScheme() == null ? "" : uri.getScheme().toLowerCase(Locale.ROOT);
+        if (!scheme.equals("http") && !scheme.equals("https")) return null;
+
+        Semaphore permits = hosts.computeIfAbsent(hostKey(uri), h -> new Semaphore(PER_HOST_LIMIT));
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        String method = null;
+        try {
+            method = attempt(uri, oneClick);
+        } finally {
+            permits.release();
+            count(method == null ? "unconfirmed" : "confirmed_" + method);
+        }
+        return method;
+    }
+
+    private String attempt(URI uri, boolean oneClick) {
+        if (oneClick) {
+            HttpRequest post = request(uri)
+                    .header("Content-Type", "application/x-www-form-urlencoded")
+                    .POST(HttpRequest.BodyPublishers.ofString(ONE_CLICK_BODY))
+                    .build();
+            // one-click endpoints answer 2xx with no meaningful body
+            if (isSuccess(send(post, "oneClickPost"), true)) return "http-one-click";
+        }
+
+        if (isSuccess(send(request(uri).GET().build(), "get"), false)) return "http-get";
+
+        // some endpoints require POST
+        HttpRequest post = request(uri).POST(HttpRequest.BodyPublishers.noBody()).build();
+        if (isSuccess(send(post, "post"), false)) return "http-post";
+        return null;
+    }
+
+    // Counts by outcome, e.g. get_2xx, post_failed, confirmed_http-get, unconfirmed
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new TreeMap<>();
+        outcomes.forEach((key, n) -> m.put(key, n.sum()));
+        return m;
+    }
+
+    private void count(String outcome) {
+        outcomes.computeIfAbsent(outcome, k -> new LongAdder()).increment();
+    }
+
+    private HttpRequest.Builder request(URI uri) {
+        return HttpRequest.newBuilder(uri).timeout(TIMEOUT);
+    }
+
+    private HttpResponse<InputStream> send(HttpRequest request, String step) {
+        try {
+            HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            count(step + "_" + response.statusCode() / 100 + "xx");
+            return response;
+        } catch (IOException e) {
+            count(step + "_failed");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    private static boolean isSuccess(HttpResponse<InputStream> response, boolean oneClick) {
+        if (response == null) return false;
+        try (InputStream body = response.body()) {
+            int code = response.statusCode();
+            if (oneClick && code >= 200 && code < 300) return true;
+            return isConfirmedUnsub(code, response.headers().firstValue("Content-Type").orElse(null), body);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Decide if response indicates a confirmed unsubscribe (avoid false positives)
+    // Make conservative checks: 204/205 ok, JSON success ok, plain HTML only if explicit "you have been unsubscribed" visible.
+    // The body is scanned as it streams and abandoned at the first match or the byte cap.
+    static boolean isConfirmedUnsub(int code, String contentType, InputStream body) {
+        if (code == 204 || code == 205) return true;
+        if (code != 200) return false; // redirects are followed; anything else is not a confirmation
+
+        String type = contentType == null ? "" : contentType.toLowerCase(Locale.ROOT);
+        try {
+            if (type.contains("application/json")) return JSON_CONFIRMATION.matches(body);
+            // For HTML, be conservative: only accept if explicit phrases appear
+            if (type.contains("text/html")) return HTML_CONFIRMATION.matches(body);
+            // Unknown content-type: inspect body as fallback (conservative)
+            return OTHER_CONFIRMATION.matches(body);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static String hostKey(URI uri) {
+        return uri.getHost() == null ? "" : uri.getHost().toLowerCase(Locale.ROOT);
+    }
+}
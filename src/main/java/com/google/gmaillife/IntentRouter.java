@@ -0,0 +1,81 @@
+package com.google.gmaillife;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+// Keyword rules for the routes the LLM router picks between. A message is routed only when
+// exactly one route's phrases occur in it and nothing hedges the request (negation, undo,
+// "instead"); everything else is ambiguous and left to the model. Routes that change the mailbox
+// also need the message to be an order rather than a question about one.
+public class IntentRouter {
+
+    // Messages longer than this carry more than one intent often enough to leave to the model
+    static final int MAX_WORDS = 40;
+
+    // Rule order is the order routes are reported in; matching itself is order-free
+    private static final Map<String, Pattern> RULES = new LinkedHashMap<>();
+
+    static {
+        rule("unSubscribe", "unsubscribe\\w*", "opt(?:ing)? out", "stop (?:getting|receiving) (?:emails|these|mail)");
+        rule("lifeStory", "life ?story", "timeline", "biggest moments", "memories", "my journey",
+                "what (?:do )?my emails? say(?:s)? about me", "biograph\\w*");
+        rule("mailStats", "top senders?", "who (?:emails|mails|writes to) me", "emails? me the most",
+                "(?:biggest|largest|top) (?:mailing )?lists", "which domains", "per category",
+                "how many (?:emails|messages|mails)");
+        rule("cleanupFlow", "clean(?:ing)?(?: ?up)?", "declutter\\w*", "tidy(?: up)?", "inbox zero");
+        rule("trashAgent", "trash\\w*", "delet\\w*", "bin it");
+        rule("archiveAgent", "archiv\\w*");
+        rule("markAsReadAgent", "mark(?:ed|ing)? (?:\\w+ ){0,4}(?:as )?read");
+    }
+
+    // Routes that trash, archive or mark mail: taken only when their verb opens the message, so
+    // "what's in my trash?" or "were those archived?" is left to the model
+    private static final Map<String, Pattern> IMPERATIVES = new LinkedHashMap<>();
+
+    static {
+        IMPERATIVES.put("trashAgent", Pattern.compile("^(?:please )?(?:trash|delete|bin)\\b"));
+        IMPERATIVES.put("archiveAgent", Pattern.compile("^(?:please )?archive\\b"));
+        IMPERATIVES.put("markAsReadAgent", Pattern.compile("^(?:please )?mark\\b"));
+    }
+
+    // Words that turn a matching phrase into something else: "don't delete", "undo the archive"
+    private static final Pattern HEDGES = Pattern.compile(
+            "\\b(?:don'?t|do not|doesn'?t|never|not|without|undo|restore|recover|instead|unless)\\b");
+
+    private static void rule(String route, String... phrases) {
+        RULES.put(route, Pattern.compile("\\b(?:" + String.join("|", phrases) + ")\\b"));
+    }
+
+    // Route names this router can pick
+    public static Iterable<String> routes() {
+        return RULES.keySet();
+    }
+
+    // The route for an unambiguous message, or null when the LLM router has to decide
+    public static String route(String message) {
+        if (message == null || message.isBlank()) return null;
+        String text = message.toLowerCase(Locale.ROOT).replace('\u2019', '\'');
+        if (HEDGES.matcher(text).find()) return null;
+        if (text.split("\\s+").length > MAX_WORDS) return null;
+
+        String match = null;
+        for (var rule : RULES.entrySet()) {
+            if (!rule.getValue().matcher(text).find()) continue;
+            if (match != null) return null;
+            match = rule.getKey();
+        }
+        if (match != null && IMPERATIVES.containsKey(match) && !imperative(text, IMPERATIVES.get(match))) {
+            return null;
+        }
+        return match;
+    }
+
+    // The verb leads and the message doesn't end as a question; a leading wh-word or auxiliary
+    // ("did you delete", "can you archive") fails the first test
+    private static boolean imperative(String text, Pattern verb) {
+        String trimmed = text.strip();
+        return !trimmed.endsWith("?") && verb.matcher(trimmed).find();
+    }
+}
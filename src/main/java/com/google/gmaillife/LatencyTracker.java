@@ -0,0 +1,40 @@
+package com.google.gmaillife;
+
+import java.util.Arrays;
+
+// Rolling latency window for one Gmail method: the last WINDOW samples, percentiles on demand
+public class LatencyTracker {
+
+    static final int WINDOW = 1024;
+    // Percentiles are not trusted (and hedging stays off) below this many samples
+    static final int MIN_SAMPLES = 50;
+    // Sorted percentiles are cached and refreshed every this many samples
+    private static final int REFRESH_EVERY = 64;
+
+    private final long[] samples = new long[WINDOW];
+    private long count;
+    private long[] sorted = new long[0];
+    private long sortedAt = -1;
+
+    public synchronized void record(long nanos) {
+        samples[(int) (count % WINDOW)] = nanos;
+        count++;
+    }
+
+    public synchronized long count() {
+        return count;
+    }
+
+    // Latency at quantile q (0..1) over the window, or -1 with too few samples
+    public synchronized long percentileNanos(double q) {
+        if (count < MIN_SAMPLES) return -1;
+        if (sortedAt < 0 || count - sortedAt >= REFRESH_EVERY) {
+            int n = (int) Math.min(count, WINDOW);
+            sorted = Arrays.copyOf(samples, n);
+            Arrays.sort(sorted);
+            sortedAt = count;
+        }
+        int idx = (int) Math.min(sorted.length - 1, Math.ceil(q * sorted.length) - 1);
+        return sorted[Math.max(0, idx)];
+    }
+}
@@ -0,0 +1,227 @@
+package com.google.gmaillife;
+
+import com.google.adk.tools.Annotations.Schema;
+import com.google.api.services.gmail.model.Message;
+import com.google.gmaillife.model.LifeDigest;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Life story over the whole mailbox as a map-reduce: the mailbox is sharded into months with
+// after:/before: queries, each month is summarized from a sample of its mail, months reduce
+// into years and years into the story. Every level is cached in a DigestStore under a
+// fingerprint of its inputs, so a rerun only summarizes months that got new mail and the
+// years and story above them.
+public class LifeStoryEngine {
+
+    // Messages per month handed to the summarizer, spread evenly over the month
+    static final int MONTH_SAMPLE = 120;
+    // Listing a month stops here; busier months are sampled from their newest messages
+    static final int MAX_MONTH_IDS = 20_000;
+    static final int MAX_YEARS = 20;
+    // Summarizer calls in flight at once; month listing itself runs unbounded
+    static final int SUMMARIZER_CONCURRENCY = 4;
+    private static final int SNIPPET_CHARS = 160;
+
+    // Marketing is most of the volume and says little about a life
+    static final String MONTH_FILTER = "-category:promotions";
+
+    // All served by the metadata cache
+    static final Projection MONTH_FIELDS = Projection.of(
+            Set.of(Projection.Field.SNIPPET, Projection.Field.INTERNAL_DATE), "Subject", "From");
+
+    private final MessageFetcher fetcher;
+    private final Summarizer summarizer;
+    private final DigestStore store;
+    private final ZoneId zone;
+    private final Semaphore summarizerSlots = new Semaphore(SUMMARIZER_CONCURRENCY);
+
+    // Months in Gmail's query time zone, so each shard's after:/before: bounds are exactly its month
+    public LifeStoryEngine(MessageFetcher fetcher, Summarizer summarizer, DigestStore store) {
+        this(fetcher, summarizer, store, GmailQuery.ZONE);
+    }
+
+    public LifeStoryEngine(MessageFetcher fetcher, Summarizer summarizer, DigestStore store, ZoneId zone) {
+        this.fetcher = fetcher;
+        this.summarizer = summarizer;
+        this.store = store;
+        this.zone = zone;
+    }
+
+    @Schema(
+            name = "buildLifeStory",
+            description = "Summarize the user's whole mailbox month by month and return their life story, with a narrative per year"
+    )
+    public Map<String, Object> buildLifeStory(
+            @Schema(description = "How many years back to cover, e.g. 5") int years
+    ) throws Exception {
+        long start = System.currentTimeMillis();
+        int span = Math.max(1, Math.min(years, MAX_YEARS));
+        YearMonth last = YearMonth.now(zone);
+        YearMonth first = last.minusYears(span).plusMonths(1);
+        Stats stats = new Stats();
+
+        Map<Integer, Future<LifeDigest>> yearly = new TreeMap<>();
+        LifeDigest story;
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            // map: every month at once; each year reduces as soon as its own months are done
+            Map<Integer, List<Future<LifeDigest>>> months = new TreeMap<>();
+            for (YearMonth ym = first; !ym.isAfter(last); ym = ym.plusMonths(1)) {
+                YearMonth month = ym;
+                months.computeIfAbsent(ym.getYear(), y -> new ArrayList<>())
+                        .add(pool.submit(() -> month(month, stats)));
+            }
+            for (var entry : months.entrySet()) {
+                yearly.put(entry.getKey(), pool.submit(() -> reduce(Summarizer.Level.YEAR,
+                        "year:" + entry.getKey(), String.valueOf(entry.getKey()), awaitAll(entry.getValue()), stats)));
+            }
+            story = reduce(Summarizer.Level.OVERALL, "overall:" + span + "y",
+                    first.getYear() + "-" + last.getYear(), awaitAll(yearly.values()), stats);
+        }
+
+        Map<String, String> narratives = new LinkedHashMap<>();
+        for (var entry : yearly.entrySet()) {
+            LifeDigest d = await(entry.getValue());
+            if (!d.getSummary().isEmpty()) narratives.put(String.valueOf(entry.getKey()), d.getSummary());
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("status", story.getMessages() == 0 ? "empty" : "success");
+        result.put("story", story.getSummary());
+        result.put("years", narratives);
+        result.put("messages", story.getMessages());
+        result.put("monthsSummarized", stats.monthsSummarized.get());
+        result.put("monthsCached", stats.monthsCached.get());
+        result.put("summarizerCalls", stats.calls.get());
+        result.put("tookMs", System.currentTimeMillis() - start);
+        return result;
+    }
+
+    // One month: list it, and only when its fingerprint moved sample and summarize it
+    private LifeDigest month(YearMonth ym, Stats stats) throws Exception {
+        String query = "after:" + gmailDate(ym.atDay(1)) + " before:" + gmailDate(ym.plusMonths(1).atDay(1))
+                + " " + MONTH_FILTER;
+        List<String> ids = new ArrayList<>();
+        try (MailboxIterator pages = MailboxIterator.scan(fetcher, query)) {
+            while (pages.hasNext() && ids.size() < MAX_MONTH_IDS) {
+                ids.addAll(pages.next());
+            }
+        }
+
+        // listing is newest first, so count plus newest ID changes whenever the month gains mail
+        String scope = "month:" + ym;
+        String fingerprint = summarizer.id() + "|" + ids.size() + "|" + (ids.isEmpty() ? "" : ids.get(0));
+        LifeDigest cached = store.get(scope, fingerprint);
+        if (cached != null) {
+            stats.monthsCached.incrementAndGet();
+            return cached;
+        }
+        if (ids.isEmpty()) return store.put(scope, fingerprint, "", 0);
+
+        MessageFetcher.Result fetched = fetcher.fetch(sample(ids, MONTH_SAMPLE), MONTH_FIELDS);
+        List<Message> messages = new ArrayList<>();
+        for (String id : fetched.ids()) {
+            if (fetched.message(id) != null) messages.add(fetched.message(id));
+        }
+        messages.sort(Comparator.comparing(m -> m.getInternalDate() == null ? 0L : m.getInternalDate()));
+
+        List<String> lines = new ArrayList<>(messages.size());
+        for (Message m : messages) {
+            lines.add(line(m));
+        }
+        String summary = summarize(Summarizer.Level.MONTH, ym.toString(), lines, stats);
+        stats.monthsSummarized.incrementAndGet();
+        return store.put(scope, fingerprint, summary, ids.size());
+    }
+
+    // Year or overall: the digests below, labelled by period; cached while none of them changed
+    private LifeDigest reduce(Summarizer.Level level, String scope, String period, List<LifeDigest> parts,
+                              Stats stats) throws Exception {
+        StringBuilder key = new StringBuilder(summarizer.id());
+        List<String> inputs = new ArrayList<>();
+        int messages = 0;
+        for (LifeDigest d : parts) {
+            key.append('\n').append(d.getScope()).append('=').append(d.getFingerprint());
+            messages += d.getMessages();
+            if (!d.getSummary().isEmpty()) {
+                inputs.add(d.getScope().substring(d.getScope().indexOf(':') + 1) + ": " + d.getSummary());
+            }
+        }
+        String fingerprint = sha256(key.toString());
+        LifeDigest cached = store.get(scope, fingerprint);
+        if (cached != null) return cached;
+        String summary = inputs.isEmpty() ? "" : summarize(level, period, inputs, stats);
+        return store.put(scope, fingerprint, summary, messages);
+    }
+
+    private String summarize(Summarizer.Level level, String period, List<String> inputs, Stats stats) throws Exception {
+        summarizerSlots.acquire();
+        try {
+            stats.calls.incrementAndGet();
+            String summary = summarizer.summarize(level, period, inputs);
+            return summary == null ? "" : summary;
+        } finally {
+            summarizerSlots.release();
+        }
+    }
+
+    // "2023-04-12 | Jane Doe <jane@x.com> | Flight to Paris | Your booking..."
+    private String line(Message m) {
+        String day = m.getInternalDate() == null ? ""
+                : Instant.ofEpochMilli(m.getInternalDate()).atZone(zone).toLocalDate().toString();
+        String snippet = m.getSnippet() == null ? "" : m.getSnippet();
+        if (snippet.length() > SNIPPET_CHARS) snippet = snippet.substring(0, SNIPPET_CHARS);
+        HeaderIndex headers = HeaderIndex.of(m);
+        return day + " | " + headers.from() + " | " + headers.subject() + " | " + snippet;
+    }
+
+    // Evenly spaced picks, so a month is not described by its last few days only
+    static List<String> sample(List<String> ids, int n) {
+        if (ids.size() <= n) return ids;
+        List<String> picked = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            picked.add(ids.get((int) ((long) i * ids.size() / n)));
+        }
+        return picked;
+    }
+
+    private static String gmailDate(LocalDate d) {
+        return d.getYear() + "/" + d.getMonthValue() + "/" + d.getDayOfMonth();
+    }
+
+    private static String sha256(String s) throws Exception {
+        byte[] hash = MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(hash, 0, 16);
+    }
+
+    private static List<LifeDigest> awaitAll(Collection<Future<LifeDigest>> futures) throws Exception {
+        List<LifeDigest> digests = new ArrayList<>(futures.size());
+        for (Future<LifeDigest> f : futures) {
+            digests.add(await(f));
+        }
+        return digests;
+    }
+
+    private static <T> T await(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            // surface the Gmail or model error itself rather than the executor wrapper
+            if (e.getCause() instanceof Exception cause) throw cause;
+            throw e;
+        }
+    }
+
+    private static final class Stats {
+        final AtomicInteger monthsSummarized = new AtomicInteger();
+        final AtomicInteger monthsCached = new AtomicInteger();
+        final AtomicInteger calls = new AtomicInteger();
+    }
+}
@@ -2,17 +2,75 @@ package com.google.gmaillife;
 
 import com.google.adk.tools.Annotations.Schema;
 import com.google.api.services.gmail.Gmail;
-import com.google.api.services.gmail.model.ListMessagesResponse;
+import com.google.api.services.gmail.model.Label;
+import com.google.api.services.gmail.model.Message;
 
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class MailArchaeologist {
 
-    private final Gmail gmail;
+    // Category buckets backed by a system label: labels.get returns exact totals in one call
+    private static final Map<String, String> CATEGORY_LABELS = orderedMap(
+            "promotions", "CATEGORY_PROMOTIONS",
+            "social", "CATEGORY_SOCIAL",
+            "updates", "CATEGORY_UPDATES",
+            "forums", "CATEGORY_FORUMS"
+    );
+
+    // Derived buckets without a label of their own still need a query walk
+    private static final Map<String, String> QUERY_BUCKETS = orderedMap(
+            "primary", "-category:{promotions social updates forums}"
+    );
+
+    // Scan results are reused for this long
+    private static final long SCAN_TTL_MS = 60_000;
+
+    // Sender indexes are rebuilt after this long; until then top-N is answered from memory
+    private static final long INDEX_TTL_MS = 10 * 60_000;
+    // Distinct queries whose sender index is kept
+    private static final int MAX_INDEXES = 8;
+    // One index never walks more messages than this
+    static final int MAX_INDEX_MESSAGES = 50_000;
+    private static final int MAX_TOP = 100;
+
+    // Everything a sender index needs; all of it is served by the metadata cache
+    static final Projection SENDER_FIELDS = Projection.of(
+            Set.of(Projection.Field.LABELS, Projection.Field.INTERNAL_DATE, Projection.Field.SIZE_ESTIMATE),
+            "From", "List-Id");
+
+    private final GmailExecutor executor;
+    private final MessageFetcher fetcher;
+
+    private volatile Map<String, Object> lastScan;
+    private volatile long lastScanAt;
+
+    // query -> index, least recently used evicted
+    private final Map<String, SenderIndex> indexes = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SenderIndex> eldest) {
+            return size() > MAX_INDEXES;
+        }
+    };
 
     public MailArchaeologist(Gmail gmail) {
-        this.gmail = gmail;
+        this(new MessageFetcher(gmail));
+    }
+
+    public MailArchaeologist(GmailExecutor executor) {
+        this(new MessageFetcher(executor, null));
+    }
+
+    public MailArchaeologist(MessageFetcher fetcher) {
+        this.fetcher = fetcher;
+        this.executor = fetcher.executor();
     }
 
     @Schema(
@@ -20,36 +78,139 @@ public class MailArchaeologist {
             description = "Scan the user's inbox and return counts by Gmail category"
     )
     public Map<String, Object> scanMailbox() throws Exception {
+        Map<String, Object> cached = lastScan;
+        if (cached != null && System.currentTimeMillis() - lastScanAt < SCAN_TTL_MS) {
+            return cached;
+        }
 
-        Map<String, Object> result = new LinkedHashMap<>();
-
-        Map<String, String> categories = Map.of(
-                "promotions", "category:promotions",
-                "social", "category:social",
-                "updates", "category:updates",
-                "forums", "category:forums",
-                "primary", "-category:{promotions social updates forums}"
-        );
+        Map<String, Object> result = scan(true);
+        lastScan = result;
+        lastScanAt = System.currentTimeMillis();
+        return result;
+    }
 
+    // Runs the category fan-out either concurrently on virtual threads or one bucket after another
+    // (the sequential run is FanOutComparison's baseline)
+    Map<String, Object> scan(boolean concurrent) throws Exception {
         Map<String, Long> counts = new LinkedHashMap<>();
+        Map<String, Long> unread = new LinkedHashMap<>();
+
+        try (ExecutorService pool = concurrent
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newSingleThreadExecutor()) {
 
-        for (var entry : categories.entrySet()) {
-            ListMessagesResponse response = gmail.users().messages()
-                    .list("me")
-                    .setQ(entry.getValue())
-                    .setMaxResults(500L)
-                    .execute();
+            Map<String, Future<Label>> labels = new LinkedHashMap<>();
+            for (var entry : CATEGORY_LABELS.entrySet()) {
+                labels.put(entry.getKey(), pool.submit(() -> executor.execute(GmailMethod.LABELS_GET,
+                        () -> executor.gmail().users().labels().get("me", entry.getValue())
+                                .setFields("id,messagesTotal,messagesUnread"))));
+            }
 
-            long count = response.getResultSizeEstimate() != null
-                    ? response.getResultSizeEstimate()
-                    : (response.getMessages() == null ? 0 : response.getMessages().size());
+            Map<String, Future<Long>> queries = new LinkedHashMap<>();
+            for (var entry : QUERY_BUCKETS.entrySet()) {
+                queries.put(entry.getKey(), pool.submit(() -> MailboxIterator.count(fetcher, entry.getValue())));
+            }
 
-            counts.put(entry.getKey(), count);
+            for (var entry : labels.entrySet()) {
+                Label label = await(entry.getValue());
+                counts.put(entry.getKey(), label.getMessagesTotal() == null ? 0L : label.getMessagesTotal());
+                unread.put(entry.getKey(), label.getMessagesUnread() == null ? 0L : label.getMessagesUnread());
+            }
+            for (var entry : queries.entrySet()) {
+                counts.put(entry.getKey(), await(entry.getValue()));
+            }
         }
 
+        Map<String, Object> result = new LinkedHashMap<>();
         result.put("summary", counts);
+        result.put("unread", unread);
         result.put("status", "scan-complete");
 
         return result;
     }
+
+    @Schema(
+            name = "topSenders",
+            description = "Who sends the user the most mail: top senders, mailing lists or sender domains by message count, with unread count, total size and first/last date"
+    )
+    public Map<String, Object> topSenders(
+            @Schema(description = "Gmail search query to aggregate over, e.g. newer_than:1y; empty string for the whole mailbox") String query,
+            @Schema(description = "What to group by: sender, list or domain") String groupBy,
+            @Schema(description = "How many entries to return, e.g. 10") int limit
+    ) throws Exception {
+        SenderIndex.GroupBy group;
+        try {
+            group = SenderIndex.GroupBy.valueOf(groupBy == null || groupBy.isBlank() ? "SENDER" : groupBy.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return Map.of("status", "error", "message", "groupBy must be sender, list or domain");
+        }
+        String key = query == null ? "" : query.trim();
+        int n = Math.max(1, Math.min(limit, MAX_TOP));
+
+        long start = System.currentTimeMillis();
+        SenderIndex index;
+        boolean cached;
+        synchronized (indexes) {
+            index = indexes.get(key);
+            cached = index != null && start - index.builtAt() < INDEX_TTL_MS;
+        }
+        if (!cached) {
+            index = buildIndex(key);
+            synchronized (indexes) {
+                indexes.put(key, index);
+            }
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("status", "ok");
+        result.put("groupBy", group.name().toLowerCase(Locale.ROOT));
+        result.put("messagesScanned", index.messages());
+        result.put("truncated", index.messages() >= MAX_INDEX_MESSAGES);
+        result.put("distinct", index.distinct(group));
+        result.put("top", index.top(group, n));
+        result.put("cached", cached);
+        result.put("tookMs", System.currentTimeMillis() - start);
+        return result;
+    }
+
+    // One pass over the query: list pages feed metadata fetches straight into the index,
+    // so no more than a page of messages is held at a time
+    SenderIndex buildIndex(String query) throws Exception {
+        SenderIndex index = new SenderIndex();
+        try (MailboxIterator pages = MailboxIterator.scan(fetcher, query)) {
+            while (pages.hasNext() && index.messages() < MAX_INDEX_MESSAGES) {
+                List<String> ids = pages.next();
+                if (ids.isEmpty()) continue;
+                MessageFetcher.Result fetched = fetcher.fetch(ids, SENDER_FIELDS);
+                for (String id : ids) {
+                    Message m = fetched.message(id);
+                    if (m == null || index.messages() >= MAX_INDEX_MESSAGES) continue;
+                    HeaderIndex headers = HeaderIndex.of(m);
+                    index.add(headers.from(), headers.listId(),
+                            m.getLabelIds() != null && m.getLabelIds().contains("UNREAD"),
+                            m.getSizeEstimate() == null ? 0 : m.getSizeEstimate(),
+                            m.getInternalDate() == null ? 0 : m.getInternalDate());
+                }
+            }
+        }
+        return index;
+    }
+
+    private static <T> T await(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            // surface the Gmail error itself rather than the executor wrapper
+            if (e.getCause() instanceof Exception cause) throw cause;
+            throw e;
+        }
+    }
+
+    private static Map<String, String> orderedMap(String... kv) {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (int i = 0; i < kv.length; i += 2) {
+            map.put(kv[i], kv[i + 1]);
+        }
+        return map;
+    }
 }
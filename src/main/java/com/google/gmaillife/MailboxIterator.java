@@ -0,0 +1,153 @@
+package com.google.gmaillife;
+
+import com.google.api.services.gmail.Gmail;
+import com.google.api.services.gmail.model.ListMessagesResponse;
+import com.google.api.services.gmail.model.Message;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Lazily walks messages().list pages for a query, one list of message IDs per page.
+// The next page is prefetched while the consumer works on the current one, and never more
+// than that, so a full-mailbox scan holds at most two pages in memory.
+// Queries a complete metadata cache can answer are paged out of the local result instead.
+public class MailboxIterator implements Iterator<List<String>>, AutoCloseable {
+
+    // Gmail caps list pages at 500 messages
+    static final long MAX_PAGE_SIZE = 500L;
+
+    private static final ExecutorService PREFETCH = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final GmailExecutor executor;
+    private final String query;
+    private final long pageSize;
+
+    private Future<ListMessagesResponse> pending;
+    private String cursor;
+    private int pagesRead;
+
+    // IDs of a locally answered query and the offset of the next page
+    private List<String> local;
+    private int localOffset;
+
+    public MailboxIterator(GmailExecutor executor, String query, long pageSize, String pageToken) {
+        this.executor = executor;
+        this.query = query;
+        this.pageSize = Math.min(pageSize, MAX_PAGE_SIZE);
+        this.cursor = blankToNull(pageToken);
+        this.pending = PREFETCH.submit(() -> list(cursor));
+    }
+
+    private MailboxIterator(GmailExecutor executor, String query, List<String> local) {
+        this.executor = executor;
+        this.query = query;
+        this.pageSize = MAX_PAGE_SIZE;
+        this.local = local;
+    }
+
+    public static MailboxIterator scan(GmailExecutor executor, String query) {
+        return new MailboxIterator(executor, query, MAX_PAGE_SIZE, null);
+    }
+
+    public static MailboxIterator scan(MessageFetcher fetcher, String query) throws IOException {
+        List<String> local = fetcher.localIds(query);
+        if (local != null) return new MailboxIterator(fetcher.executor(), query, local);
+        return scan(fetcher.executor(), query);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return local != null ? localOffset < local.size() : pending != null;
+    }
+
+    @Override
+    public List<String> next() {
+        if (local != null) {
+            if (localOffset >= local.size()) throw new NoSuchElementException();
+            int end = (int) Math.min(local.size(), localOffset + pageSize);
+            List<String> ids = local.subList(localOffset, end);
+            localOffset = end;
+            pagesRead++;
+            return ids;
+        }
+        if (pending == null) throw new NoSuchElementException();
+
+        ListMessagesResponse page = await(pending);
+        pagesRead++;
+        cursor = page.getNextPageToken();
+
+        // backpressure: the following page is only requested once this one is handed out
+        String token = cursor;
+        pending = token == null ? null : PREFETCH.submit(() -> list(token));
+
+        if (page.getMessages() == null) return List.of();
+        List<String> ids = new ArrayList<>(page.getMessages().size());
+        for (Message m : page.getMessages()) {
+            ids.add(m.getId());
+        }
+        return ids;
+    }
+
+    // Page token for the page after the last one returned; null once the query is exhausted
+    public String cursor() {
+        return cursor;
+    }
+
+    public int pagesRead() {
+        return pagesRead;
+    }
+
+    // Exact number of messages matching the query, from the cache when it can answer
+    public static long count(MessageFetcher fetcher, String query) throws IOException {
+        List<String> local = fetcher.localIds(query);
+        return local != null ? local.size() : count(fetcher.executor(), query);
+    }
+
+    // Exact number of messages matching the query, counted page by page
+    public static long count(GmailExecutor executor, String query) {
+        long count = 0;
+        try (MailboxIterator pages = scan(executor, query)) {
+            while (pages.hasNext()) {
+                count += pages.next().size();
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void close() {
+        if (pending != null) {
+            pending.cancel(true);
+            pending = null;
+        }
+    }
+
+    private ListMessagesResponse list(String pageToken) throws IOException {
+        return executor.execute(GmailMethod.MESSAGES_LIST, () -> {
+            Gmail.Users.Messages.List request = executor.gmail().users().messages().list("me")
+                    .setMaxResults(pageSize)
+                    .setFields("messages/id,nextPageToken");
+            if (query != null && !query.isBlank()) request.setQ(query);
+            if (pageToken != null) request.setPageToken(pageToken);
+            return request;
+        });
+    }
+
+    private static ListMessagesResponse await(Future<ListMessagesResponse> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while listing messages", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) throw new UncheckedIOException(io);
+            throw new IllegalStateException("Listing messages failed", e.getCause());
+        }
+    }
+
+    private static String blankToNull(String s) {
+        return s == null || s.isBlank() ? null : s;
+    }
+}
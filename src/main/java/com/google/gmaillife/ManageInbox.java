@@ -1,50 +1,61 @@
 package com.google.gmaillife;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.adk.tools.Annotations;
 import com.google.api.services.gmail.Gmail;
 import com.google.api.services.gmail.model.*;
 import com.google.api.services.gmail.model.Thread;
+import com.google.gmaillife.model.EmailFull;
+import com.google.gmaillife.model.EmailSummary;
 
 import java.util.*;
 
 public class ManageInbox {
 
     private final Gmail gmail;
-    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private final MessageFetcher fetcher;
+    private final GmailExecutor executor;
+
+    static final Projection BATCH_ITEM = Projection.of(Set.of(Projection.Field.SNIPPET), "Subject");
+    static final Projection SUMMARY = Projection.of(Set.of(Projection.Field.SNIPPET), "Subject", "From", "Date");
+    // labels, date and size ride along so full fetches can be written through to the metadata cache
+    static final Projection FULL = Projection.of(Set.of(Projection.Field.THREAD_ID, Projection.Field.LABELS,
+            Projection.Field.SNIPPET, Projection.Field.INTERNAL_DATE, Projection.Field.SIZE_ESTIMATE, Projection.Field.BODY));
 
     public ManageInbox(Gmail gmail) {
+        this(gmail, new MessageFetcher(gmail));
+    }
+
+    public ManageInbox(Gmail gmail, MessageFetcher fetcher) {
         this.gmail = gmail;
+        this.fetcher = fetcher;
+        this.executor = fetcher.executor();
     }
 
     @Annotations.Schema(name = "analyzeEmailBatch", description = "Analyze unread promotional emails")
     public Map<String, Object> analyzeEmailBatch() throws Exception {
+        try (var meter = PayloadMeter.open("analyzeEmailBatch")) {
+            // Query promotional emails (remove size filter)
+            ListMessagesResponse response = fetcher.list("category:promotions is:unread", 100L, null);
+
+            // EmailSummary rows, or error maps for messages that failed
+            List<Object> arr = new ArrayList<>();
+
+            MessageFetcher.Result fetched = fetcher.fetch(response, BATCH_ITEM);
 
-        // Query promotional emails (remove size filter)
-        ListMessagesResponse response = gmail.users().messages()
-                .list("me")
-                .setQ("category:promotions is:unread")
-                .execute();
-
-        List<Map<String,Object>> arr = new ArrayList<>();
-
-        if (response.getMessages() != null) {
-            for (Message msg : response.getMessages()) {
-                Message full = gmail.users().messages()
-                        .get("me", msg.getId())
-                        .setFormat("metadata")
-                        .execute();
-
-                Map<String,Object> item = new LinkedHashMap<>();
-                item.put("id", msg.getId());
-                item.put("subject", getHeader(full, "Subject"));
-                item.put("snippet", full.getSnippet());
-                arr.add(item);
+            for (String id : fetched.ids()) {
+                Message full = fetched.message(id);
+                if (full == null) {
+                    arr.add(fetched.errorItem(id));
+                    continue;
+                }
+
+                // only Subject is fetched; null from/date are left out of the row
+                arr.add(new EmailSummary(id, HeaderIndex.of(full).subject(), null, null, full.getSnippet()));
             }
-        }
 
-        // Return as Map (same as searchEmails)
-        return Map.of("items", arr);
+            // Return as Map (same as searchEmails)
+            return Map.of("items", arr);
+        }
     }
 
 
@@ -54,7 +65,8 @@ public class ManageInbox {
             String messageId
     ) throws Exception {
 
-        gmail.users().messages().trash("me", messageId).execute();
+        executor.execute(GmailMethod.MESSAGES_TRASH, gmail.users().messages().trash("me", messageId));
+        fetcher.labelsChanged(messageId, List.of("TRASH"), List.of());
 
         return Map.of(
                 "status", "ok",
@@ -74,7 +86,8 @@ public class ManageInbox {
         ModifyMessageRequest mods = new ModifyMessageRequest()
                 .setRemoveLabelIds(Collections.singletonList("UNREAD"));
 
-        Message updated = gmail.users().messages().modify("me", messageId, mods).execute();
+        Message updated = executor.execute(GmailMethod.MESSAGES_MODIFY, gmail.users().messages().modify("me", messageId, mods));
+        fetcher.labelsChanged(messageId, List.of(), mods.getRemoveLabelIds());
 
         return Map.of(
                 "status", "success",
@@ -93,7 +106,8 @@ public class ManageInbox {
         ModifyMessageRequest req = new ModifyMessageRequest()
                 .setRemoveLabelIds(List.of("INBOX"));
 
-        gmail.users().messages().modify("me", id, req).execute();
+        executor.execute(GmailMethod.MESSAGES_MODIFY, gmail.users().messages().modify("me", id, req));
+        fetcher.labelsChanged(id, List.of(), req.getRemoveLabelIds());
 
         Map<String, Object> result = new LinkedHashMap<>();
         result.put("status", "ok");
@@ -106,126 +120,71 @@ public class ManageInbox {
 
     @Annotations.Schema(name = "searchEmails", description = "Search emails")
     public Map<String, Object> searchEmails(
-            @Annotations.Schema(description = "Gmail search query") String query
+            @Annotations.Schema(description = "Gmail search query") String query,
+            @Annotations.Schema(description = "nextCursor from a previous searchEmails result to get the following page; empty string for the first page") String cursor
     ) throws Exception {
+        try (var meter = PayloadMeter.open("searchEmails")) {
+            if (query == null || query.isBlank()) {
+                query = "from:me";
+            }
 
-        if (query == null || query.isBlank()) {
-            query = "from:me";
-        }
+            long maxResults = 50; // default internally
 
-        long maxResults = 50; // default internally
+            // page size, not a cap: further pages are reachable through the returned cursor
+            var response = fetcher.list(query, maxResults, cursor);
 
-        var response = gmail.users().messages().list("me")
-                .setQ(query)
-                .setMaxResults(maxResults)
-                .execute();
+            List<Object> arr = new ArrayList<>();
 
-        List<Map<String,Object>> arr = new ArrayList<>();
+            MessageFetcher.Result fetched = fetcher.fetch(response, SUMMARY);
 
-        if (response.getMessages() != null) {
-            for (var m : response.getMessages()) {
-                var full = gmail.users().messages()
-                        .get("me", m.getId())
-                        .setFormat("metadata")
-                        .execute();
+            for (String id : fetched.ids()) {
+                Message full = fetched.message(id);
+                if (full == null) {
+                    arr.add(fetched.errorItem(id));
+                    continue;
+                }
 
-                Map<String,Object> email = new LinkedHashMap<>();
-                email.put("id", m.getId());
-                email.put("subject", getHeader(full, "Subject"));
-                email.put("from", getHeader(full, "From"));
-                email.put("date", getHeader(full, "Date"));
-                email.put("snippet", full.getSnippet());
+                arr.add(HeaderIndex.summary(id, full));
+            }
 
-                arr.add(email);
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("items", arr);
+            if (response.getNextPageToken() != null) {
+                result.put("nextCursor", response.getNextPageToken());
             }
+            return result;
         }
-
-        return Map.of("items", arr);
     }
 
 
 
     @Annotations.Schema(name = "getEmail", description = "Get full email")
     public Map<String, Object> getEmail(String messageId) throws Exception {
+        try (var meter = PayloadMeter.open("getEmail")) {
+            Message message = fetcher.fetchOne(messageId, FULL);
 
-        Message message = gmail.users().messages().get("me", messageId).setFormat("full").execute();
-
-        String body = extractBody(message);
+            String body = MimeView.of(message, UnsubscriberBot.MAX_BODY_BYTES).text();
 
-        Map<String,Object> result = new LinkedHashMap<>();
-        result.put("id", message.getId());
-        result.put("subject", getHeader(message, "Subject"));
-        result.put("from", getHeader(message, "From"));
-        result.put("date", getHeader(message, "Date"));
-        result.put("snippet", message.getSnippet());
-        result.put("body", body);
-
-        // MUST return Map, NOT JSON string
-        return result;
+            // MUST return Map, NOT JSON string
+            return HeaderIndex.full(message, body).toMap();
+        }
     }
 
     @Annotations.Schema(name = "getThread", description = "Get thread")
     public Map<String, Object> getThread(String threadId) throws Exception {
+        try (var meter = PayloadMeter.open("getThread")) {
+            Thread thread = executor.execute(GmailMethod.THREADS_GET, () -> gmail.users().threads().get("me", threadId)
+                    .setFormat("full")
+                    .setFields("messages(" + FULL.fieldsMask() + ")"));
 
-        Thread thread = gmail.users().threads().get("me", threadId).setFormat("full").execute();
-
-        List<Map<String,Object>> messages = new ArrayList<>();
+            List<EmailFull> messages = new ArrayList<>();
 
-        for (Message msg : thread.getMessages()) {
-            Map<String,Object> one = new LinkedHashMap<>();
-            one.put("id", msg.getId());
-            one.put("subject", getHeader(msg, "Subject"));
-            one.put("from", getHeader(msg, "From"));
-            one.put("date", getHeader(msg, "Date"));
-            one.put("snippet", msg.getSnippet());
-            one.put("body", extractBody(msg));
-
-            messages.add(one);
-        }
-
-        // MUST return Map, NOT String
-        return Map.of("items", messages);
-    }
-
-
-
-    private String getHeader(Message message, String name) {
-        if (message.getPayload() == null) return "";
-        List<MessagePartHeader> headers = message.getPayload().getHeaders();
-        if (headers == null) return "";
-        return headers.stream()
-                .filter(h -> name.equalsIgnoreCase(h.getName()))
-                .map(MessagePartHeader::getValue)
-                .findFirst()
-                .orElse("");
-    }
-
-    private String extractBody(Message message) {
-        try {
-            return extractParts(message.getPayload());
-        } catch (Exception e) {
-            return "";
-        }
-    }
-
-    private String extractParts(MessagePart part) throws Exception {
-        if (part == null) return "";
-
-        // If body exists
-        if (part.getBody() != null && part.getBody().getData() != null) {
-            byte[] data = Base64.getUrlDecoder().decode(part.getBody().getData());
-            return new String(data);
-        }
-
-        // If multipart
-        if (part.getParts() != null) {
-            StringBuilder sb = new StringBuilder();
-            for (MessagePart p : part.getParts()) {
-                sb.append(extractParts(p));
+            for (Message msg : thread.getMessages()) {
+                messages.add(HeaderIndex.full(msg, MimeView.of(msg, UnsubscriberBot.MAX_BODY_BYTES).text()));
             }
-            return sb.toString();
-        }
 
-        return "";
+            // MUST return Map, NOT String
+            return Map.of("items", messages);
+        }
     }
 }
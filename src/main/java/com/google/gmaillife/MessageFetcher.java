@@ -0,0 +1,359 @@
+package com.google.gmaillife;
+
+import com.google.api.services.gmail.Gmail;
+import com.google.api.services.gmail.model.ListMessagesResponse;
+import com.google.api.services.gmail.model.Message;
+import com.google.gmaillife.model.CachedMessage;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// Fetches messages by ID, grouping the per-message gets into Gmail batch HTTP requests
+public class MessageFetcher {
+
+    // Prefix of page tokens handed out for locally answered queries
+    private static final String LOCAL_TOKEN = "local:";
+
+    private final GmailExecutor executor;
+    // Cache priming lists the whole mailbox; it yields quota to the tools' calls
+    private final GmailExecutor priming;
+    private final MetadataCache cache;
+    private final TextIndex index;
+    // Set while primeCache runs, so an expired history never starts a second listing
+    private final AtomicBoolean listing = new AtomicBoolean();
+    // Priming outcomes for /metrics
+    private final LongAdder primeFailures = new LongAdder();
+    private volatile long lastPrimeMessages;
+    private volatile long lastPrimeMillis;
+
+    public MessageFetcher(Gmail gmail) {
+        this(new GmailExecutor(gmail), null);
+    }
+
+    // With a cache, projections it covers are served locally and only misses hit the network
+    public MessageFetcher(GmailExecutor executor, MetadataCache cache) {
+        this(executor, cache, null);
+    }
+
+    // With a text index, every message whose metadata passes through here becomes searchable
+    public MessageFetcher(GmailExecutor executor, MetadataCache cache, TextIndex index) {
+        this.executor = executor;
+        this.priming = executor.background();
+        this.cache = cache;
+        this.index = index;
+    }
+
+    public GmailExecutor executor() {
+        return executor;
+    }
+
+    public TextIndex index() {
+        return index;
+    }
+
+    public Result fetch(ListMessagesResponse response, Projection projection) throws IOException {
+        List<String> ids = new ArrayList<>();
+        if (response.getMessages() != null) {
+            for (Message m : response.getMessages()) {
+                ids.add(m.getId());
+            }
+        }
+        return fetch(ids, projection);
+    }
+
+    public Result fetch(List<String> ids, Projection projection) throws IOException {
+        if (cache == null || !cache.covers(projection)) {
+            return fetchRemote(ids, projection);
+        }
+
+        syncCache();
+
+        Result result = new Result(ids);
+        List<String> misses = new ArrayList<>();
+        for (String id : ids) {
+            CachedMessage c = cache.get(id);
+            if (c != null) {
+                Message m = MetadataCache.toMessage(c);
+                result.messages.put(id, m);
+                index(m, null);
+            } else {
+                misses.add(id);
+            }
+        }
+
+        if (!misses.isEmpty()) {
+            // misses are fetched with the full cached field set so later projections hit too
+            Result remote = fetchRemote(misses, MetadataCache.METADATA);
+            for (Message m : remote.messages.values()) {
+                cache.put(m);
+                index(m, null);
+            }
+            cache.flush();
+            result.messages.putAll(remote.messages);
+            result.errors.putAll(remote.errors);
+            result.roundTrips = remote.roundTrips;
+        }
+        result.cacheHits = ids.size() - misses.size();
+
+        return result;
+    }
+
+    // Single message; served from the cache when it covers the projection, written through otherwise
+    public Message fetchOne(String id, Projection projection) throws IOException {
+        if (cache != null && cache.covers(projection)) {
+            Result result = fetch(List.of(id), projection);
+            if (result.message(id) == null) throw new IOException(result.error(id));
+            return result.message(id);
+        }
+        Message message = executor.execute(GmailMethod.MESSAGES_GET, () -> get(id, projection));
+        if (cache != null) {
+            cache.put(message);
+            cache.flush();
+        }
+        return message;
+    }
+
+    // Applies Gmail history to the cache and fetches metadata for newly added messages
+    public void syncCache() throws IOException {
+        if (cache == null) return;
+        List<String> added = cache.sync(executor);
+        if (added == MetadataCache.HISTORY_EXPIRED) {
+            // queries go to Gmail until the background listing has filled the cache again
+            Thread.ofVirtual().name("metadata-resync").start(() -> {
+                try {
+                    primeCache();
+                } catch (Exception e) {
+                    primeFailures.increment();
+                }
+            });
+            return;
+        }
+        if (added.isEmpty()) return;
+        Result remote = fetchRemote(added, MetadataCache.METADATA);
+        for (Message m : remote.messages.values()) {
+            cache.put(m);
+            index(m, null);
+        }
+        cache.flush();
+        if (hasLostMessages(remote)) cache.markIncomplete();
+    }
+
+    // Caches metadata for every message in the mailbox, spam and trash included, so that queries
+    // can be answered from the cache. Needed once: history sync keeps the cache complete after that,
+    // until the history expires and syncCache starts it again.
+    public void primeCache() throws IOException {
+        if (cache == null || cache.isComplete()) return;
+        if (!listing.compareAndSet(false, true)) return;
+        try {
+            listMailbox();
+        } finally {
+            listing.set(false);
+        }
+    }
+
+    private void listMailbox() throws IOException {
+        // the history baseline is taken before listing, so anything that changes mid-listing
+        // arrives again through history
+        syncCache();
+
+        long start = System.currentTimeMillis();
+        Set<String> listed = new HashSet<>();
+        String pageToken = null;
+        do {
+            String token = pageToken;
+            ListMessagesResponse page = priming.execute(GmailMethod.MESSAGES_LIST, () -> {
+                Gmail.Users.Messages.List request = executor.gmail().users().messages().list("me")
+                        .setMaxResults(MailboxIterator.MAX_PAGE_SIZE)
+                        .setIncludeSpamTrash(true)
+                        .setFields("messages/id,nextPageToken");
+                if (token != null) request.setPageToken(token);
+                return request;
+            });
+
+            List<String> ids = new ArrayList<>();
+            if (page.getMessages() != null) {
+                for (Message m : page.getMessages()) {
+                    ids.add(m.getId());
+                }
+            }
+            listed.addAll(ids);
+            // refetched even when cached: older entries may predate the current header set
+            Result remote = fetchRemote(priming, ids, MetadataCache.METADATA);
+            for (Message m : remote.messages.values()) {
+                cache.put(m);
+                index(m, null);
+            }
+            cache.flush();
+            if (hasLostMessages(remote)) {
+                primeFailures.increment();
+                return;
+            }
+            pageToken = page.getNextPageToken();
+        } while (pageToken != null);
+
+        cache.retain(listed);
+        cache.markComplete();
+        lastPrimeMessages = listed.size();
+        lastPrimeMillis = System.currentTimeMillis() - start;
+    }
+
+    // Cache state plus priming outcomes; empty without a cache
+    public Map<String, Object> cacheStats() {
+        if (cache == null) return Map.of();
+        Map<String, Object> m = cache.stats();
+        m.put("primeFailures", primeFailures.sum());
+        m.put("lastPrimeMessages", lastPrimeMessages);
+        m.put("lastPrimeMs", lastPrimeMillis);
+        return m;
+    }
+
+    // Matching IDs newest first, evaluated against the cache; null when the query has to go to Gmail
+    public List<String> localIds(String query) throws IOException {
+        if (cache == null || !cache.isComplete()) return null;
+        GmailQuery compiled = GmailQuery.compile(query, System.currentTimeMillis());
+        if (compiled == null) return null;
+        syncCache();
+        // a sync can find the history expired and drop the cache
+        if (!cache.isComplete()) return null;
+        return compiled.select(cache.entries());
+    }
+
+    // messages.list, answered from the cache when it can be. Local page tokens are offsets into
+    // the local result; one reaching Gmail (the cache went incomplete mid-paging) restarts the listing.
+    public ListMessagesResponse list(String query, long maxResults, String pageToken) throws IOException {
+        List<String> local = localIds(query);
+        if (local != null) {
+            int offset = localOffset(pageToken);
+            int end = (int) Math.min(local.size(), offset + maxResults);
+            List<Message> page = new ArrayList<>();
+            for (String id : local.subList(Math.min(offset, end), end)) {
+                page.add(new Message().setId(id));
+            }
+            return new ListMessagesResponse()
+                    .setMessages(page)
+                    .setResultSizeEstimate((long) local.size())
+                    .setNextPageToken(end < local.size() ? LOCAL_TOKEN + end : null);
+        }
+
+        return executor.execute(GmailMethod.MESSAGES_LIST, () -> {
+            Gmail.Users.Messages.List request = executor.gmail().users().messages().list("me")
+                    .setMaxResults(maxResults);
+            if (query != null && !query.isBlank()) request.setQ(query);
+            if (pageToken != null && !pageToken.isBlank() && !pageToken.startsWith(LOCAL_TOKEN)) {
+                request.setPageToken(pageToken);
+            }
+            return request;
+        });
+    }
+
+    // Offset a local page token points at; anything else, including a token mangled on its way
+    // through the model, restarts the listing from the top
+    private static int localOffset(String pageToken) {
+        if (pageToken == null || !pageToken.startsWith(LOCAL_TOKEN)) return 0;
+        try {
+            return Math.max(0, Integer.parseInt(pageToken.substring(LOCAL_TOKEN.length())));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // Adds a message to the text index; body is its extracted text when the caller has it.
+    // Only complete metadata is indexed, since a document is never re-indexed for its headers.
+    public void index(Message m, String body) throws IOException {
+        if (index == null || m == null || m.getSnippet() == null) return;
+        index.add(m, body);
+    }
+
+    // Ranked full-text hits; messages the cache knows to be deleted, trashed or spam are skipped.
+    // Makes no Gmail calls: the cache is filtered as last synced, not brought up to date first.
+    public List<Map<String, Object>> searchIndex(String query, int limit) throws IOException {
+        if (index == null) return null;
+        return index.search(query, limit, id -> {
+            if (cache == null) return true;
+            CachedMessage c = cache.get(id);
+            if (c == null) return !cache.isComplete();
+            return !c.getLabelIds().contains("TRASH") && !c.getLabelIds().contains("SPAM");
+        });
+    }
+
+    // Anything other than "already deleted" means a message the cache should hold is missing
+    private static boolean hasLostMessages(Result remote) {
+        for (String error : remote.errors.values()) {
+            if (error == null || !error.startsWith("404")) return true;
+        }
+        return false;
+    }
+
+    // Keeps cached labels in step with writes made through the tools
+    public void labelsChanged(String id, List<String> added, List<String> removed) throws IOException {
+        labelsChanged(List.of(id), added, removed);
+    }
+
+    public void labelsChanged(Collection<String> ids, List<String> added, List<String> removed) throws IOException {
+        // trashed mail drops out of local search; archived mail stays, as in Gmail search
+        if (index != null && added != null && (added.contains("TRASH") || added.contains("SPAM"))) {
+            for (String id : ids) {
+                index.remove(id);
+            }
+        }
+        if (cache == null || ids.isEmpty()) return;
+        for (String id : ids) {
+            cache.updateLabels(id, added, removed);
+        }
+        cache.flush();
+    }
+
+    private Result fetchRemote(List<String> ids, Projection projection) throws IOException {
+        return fetchRemote(executor, ids, projection);
+    }
+
+    private Result fetchRemote(GmailExecutor via, List<String> ids, Projection projection) throws IOException {
+        Result result = new Result(ids);
+        result.roundTrips = via.executeBatch(GmailMethod.MESSAGES_GET, ids,
+                id -> get(id, projection),
+                result.messages::put,
+                result.errors::put);
+        return result;
+    }
+
+    // Single get shaped by the projection: format, metadataHeaders and a partial-response mask
+    public Gmail.Users.Messages.Get get(String id, Projection projection) throws IOException {
+        Gmail.Users.Messages.Get get = executor.gmail().users().messages().get("me", id)
+                .setFormat(projection.format())
+                .setFields(projection.fieldsMask());
+        if (!projection.metadataHeaders().isEmpty()) {
+            get.setMetadataHeaders(projection.metadataHeaders());
+        }
+        return get;
+    }
+
+    // Outcome of a fetch: messages in request order, plus per-ID failures
+    public static class Result {
+        private final List<String> ids;
+        private final Map<String, Message> messages = new HashMap<>();
+        private final Map<String, String> errors = new LinkedHashMap<>();
+        private int roundTrips;
+        private int cacheHits;
+
+        Result(List<String> ids) {
+            this.ids = ids;
+        }
+
+        public List<String> ids() { return ids; }
+        public Message message(String id) { return messages.get(id); }
+        public String error(String id) { return errors.get(id); }
+        public Map<String, String> errors() { return errors; }
+        public int roundTrips() { return roundTrips; }
+        public int cacheHits() { return cacheHits; }
+
+        // Row reported in place of a message whose sub-request failed
+        public Map<String, Object> errorItem(String id) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("id", id);
+            item.put("error", errors.getOrDefault(id, "not-found"));
+            return item;
+        }
+    }
+}
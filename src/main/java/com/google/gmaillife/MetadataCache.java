@@ -0,0 +1,433 @@
+package com.google.gmaillife;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.services.gmail.model.*;
+import com.google.gmaillife.model.CachedMessage;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// On-disk message metadata cache kept current with users.history.list deltas.
+// Stored as an append-only JSON-lines journal that is rewritten (compacted) once it grows
+// well past the number of live entries.
+public class MetadataCache {
+
+    // Headers kept per message; projections asking for anything else go to the network
+    static final List<String> CACHED_HEADERS = List.of(
+            "Subject", "From", "To", "Cc", "Date", "List-Id", "List-Unsubscribe", "List-Unsubscribe-Post");
+
+    // Projection used to fill the cache: every cached field, never the body
+    static final Projection METADATA = Projection.of(
+            Set.of(Projection.Field.THREAD_ID, Projection.Field.LABELS, Projection.Field.SNIPPET,
+                    Projection.Field.INTERNAL_DATE, Projection.Field.SIZE_ESTIMATE),
+            CACHED_HEADERS.toArray(String[]::new));
+
+    // Reads trigger at most one history.list sync per interval
+    private static final long SYNC_INTERVAL_MS = 30_000;
+    // Compact once the journal holds this many more ops than live entries
+    private static final int COMPACT_SLACK = 10_000;
+
+    private static final List<String> HISTORY_TYPES =
+            List.of("messageAdded", "messageDeleted", "labelAdded", "labelRemoved");
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+    private final Path file;
+    private final Map<String, CachedMessage> entries = new ConcurrentHashMap<>();
+    // Written under the lock, read without it
+    private volatile BigInteger historyId;
+    // Set once every message in the mailbox has been cached with the current CACHED_HEADERS;
+    // history sync keeps it true until the cache is cleared
+    private volatile boolean complete;
+    private long lastSync;
+    private Writer journal;
+    private int journalOps;
+    private final LongAdder historyExpirations = new LongAdder();
+    private int skippedJournalLines;
+
+    private MetadataCache(Path file) {
+        this.file = file;
+    }
+
+    public static MetadataCache open(Path file) throws IOException {
+        MetadataCache cache = new MetadataCache(file);
+        if (file.getParent() != null) Files.createDirectories(file.getParent());
+        if (Files.exists(file)) {
+            cache.replay();
+        }
+        cache.journal = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        return cache;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public BigInteger historyId() {
+        return historyId;
+    }
+
+    // Size and state for /metrics
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("messages", entries.size());
+        m.put("complete", complete);
+        m.put("historyExpirations", historyExpirations.sum());
+        m.put("skippedJournalLines", skippedJournalLines);
+        return m;
+    }
+
+    public CachedMessage get(String id) {
+        return entries.get(id);
+    }
+
+    // True when the cache holds the whole mailbox, so queries can be answered without messages.list
+    public boolean isComplete() {
+        return complete;
+    }
+
+    // Called after a full listing has been cached; the marker records the header set it was built with
+    public synchronized void markComplete() throws IOException {
+        complete = true;
+        append(JournalOp.complete(CACHED_HEADERS));
+        flush();
+    }
+
+    // A message the cache should hold could not be fetched; local answers are no longer exact
+    public synchronized void markIncomplete() throws IOException {
+        if (!complete) return;
+        complete = false;
+        append(JournalOp.complete(null));
+        flush();
+    }
+
+    public Collection<CachedMessage> entries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    // True when every field of the projection is held locally
+    public boolean covers(Projection projection) {
+        if (projection.has(Projection.Field.BODY)) return false;
+        for (String h : projection.headers()) {
+            if (canonicalHeader(h) == null) return false;
+        }
+        return true;
+    }
+
+    // Returned by sync when the history had expired and the cache was dropped; only a full
+    // listing (MessageFetcher.primeCache) makes it complete again
+    static final List<String> HISTORY_EXPIRED = Collections.unmodifiableList(new ArrayList<>());
+
+    // Applies history since the stored historyId; returns IDs of added messages still to be fetched.
+    // An expired historyId (404) drops the cache, starts over from the current profile historyId
+    // and returns HISTORY_EXPIRED. history.list runs without the lock; only applying it takes it,
+    // so reads and puts carry on while Gmail answers.
+    public List<String> sync(GmailExecutor executor) throws IOException {
+        BigInteger start;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (now - lastSync < SYNC_INTERVAL_MS) return List.of();
+            lastSync = now;
+            start = historyId;
+        }
+
+        if (start == null) {
+            BigInteger baseline = profileHistoryId(executor);
+            synchronized (this) {
+                if (historyId == null) {
+                    setHistoryId(baseline);
+                    flush();
+                }
+            }
+            return List.of();
+        }
+
+        List<History> history = new ArrayList<>();
+        BigInteger latest = start;
+        String pageToken = null;
+        try {
+            do {
+                String token = pageToken;
+                ListHistoryResponse response = executor.execute(GmailMethod.HISTORY_LIST,
+                        () -> executor.gmail().users().history().list("me")
+                                .setStartHistoryId(start)
+                                .setHistoryTypes(HISTORY_TYPES)
+                                .setPageToken(token));
+
+                if (response.getHistory() != null) history.addAll(response.getHistory());
+                if (response.getHistoryId() != null) latest = response.getHistoryId();
+                pageToken = response.getNextPageToken();
+            } while (pageToken != null);
+        } catch (GoogleJsonResponseException e) {
+            if (e.getStatusCode() != 404) throw e;
+            // Gmail keeps roughly a week of history; older start IDs need a full resync
+            BigInteger baseline = profileHistoryId(executor);
+            synchronized (this) {
+                // another sync may already have reset the cache from under this one
+                if (!start.equals(historyId)) return List.of();
+                clear();
+                setHistoryId(baseline);
+                flush();
+            }
+            historyExpirations.increment();
+            return HISTORY_EXPIRED;
+        }
+
+        Set<String> added = new LinkedHashSet<>();
+        synchronized (this) {
+            // a concurrent sync already applied this history, or the cache was cleared meanwhile
+            if (!start.equals(historyId)) return List.of();
+            for (History h : history) {
+                apply(h, added);
+            }
+            setHistoryId(latest);
+            flush();
+        }
+        return new ArrayList<>(added);
+    }
+
+    private void apply(History h, Set<String> added) throws IOException {
+        if (h.getMessagesAdded() != null) {
+            for (HistoryMessageAdded a : h.getMessagesAdded()) {
+                added.add(a.getMessage().getId());
+            }
+        }
+        if (h.getMessagesDeleted() != null) {
+            for (HistoryMessageDeleted d : h.getMessagesDeleted()) {
+                added.remove(d.getMessage().getId());
+                remove(d.getMessage().getId());
+            }
+        }
+        if (h.getLabelsAdded() != null) {
+            for (HistoryLabelAdded l : h.getLabelsAdded()) {
+                updateLabels(l.getMessage().getId(), l.getLabelIds(), List.of());
+            }
+        }
+        if (h.getLabelsRemoved() != null) {
+            for (HistoryLabelRemoved l : h.getLabelsRemoved()) {
+                updateLabels(l.getMessage().getId(), List.of(), l.getLabelIds());
+            }
+        }
+    }
+
+    private static BigInteger profileHistoryId(GmailExecutor executor) throws IOException {
+        Profile profile = executor.execute(GmailMethod.GET_PROFILE, () -> executor.gmail().users().getProfile("me"));
+        return profile.getHistoryId();
+    }
+
+    // Caches a message fetched with METADATA (or full); partial projections are ignored
+    public synchronized void put(Message m) throws IOException {
+        if (m == null || m.getId() == null || m.getLabelIds() == null || m.getInternalDate() == null) return;
+
+        CachedMessage c = new CachedMessage();
+        c.setId(m.getId());
+        c.setThreadId(m.getThreadId());
+        c.setLabelIds(new ArrayList<>(m.getLabelIds()));
+        c.setSnippet(m.getSnippet());
+        c.setInternalDate(m.getInternalDate());
+        c.setSizeEstimate(m.getSizeEstimate() == null ? 0 : m.getSizeEstimate());
+        if (m.getPayload() != null && m.getPayload().getHeaders() != null) {
+            for (MessagePartHeader h : m.getPayload().getHeaders()) {
+                String name = canonicalHeader(h.getName());
+                if (name != null) c.getHeaders().putIfAbsent(name, h.getValue());
+            }
+        }
+
+        entries.put(c.getId(), c);
+        append(JournalOp.put(c));
+    }
+
+    public synchronized void remove(String id) throws IOException {
+        if (entries.remove(id) != null) {
+            append(JournalOp.del(id));
+        }
+    }
+
+    // Drops entries for messages no longer in the mailbox
+    public synchronized void retain(Set<String> ids) throws IOException {
+        for (String id : new ArrayList<>(entries.keySet())) {
+            if (!ids.contains(id)) remove(id);
+        }
+        flush();
+    }
+
+    public synchronized void updateLabels(String id, List<String> add, List<String> remove) throws IOException {
+        CachedMessage c = entries.get(id);
+        if (c == null) return;
+        List<String> labels = new ArrayList<>(c.getLabelIds());
+        if (remove != null) labels.removeAll(remove);
+        if (add != null) {
+            for (String l : add) {
+                if (!labels.contains(l)) labels.add(l);
+            }
+        }
+        c.setLabelIds(labels);
+        append(JournalOp.put(c));
+    }
+
+    // Rebuilds a Gmail message carrying only the cached fields
+    static Message toMessage(CachedMessage c) {
+        List<MessagePartHeader> headers = new ArrayList<>(c.getHeaders().size());
+        for (var h : c.getHeaders().entrySet()) {
+            headers.add(new MessagePartHeader().setName(h.getKey()).setValue(h.getValue()));
+        }
+        return new Message()
+                .setId(c.getId())
+                .setThreadId(c.getThreadId())
+                .setLabelIds(new ArrayList<>(c.getLabelIds()))
+                .setSnippet(c.getSnippet())
+                .setInternalDate(c.getInternalDate())
+                .setSizeEstimate(c.getSizeEstimate())
+                .setPayload(new MessagePart().setHeaders(headers));
+    }
+
+    public synchronized void flush() throws IOException {
+        journal.flush();
+        if (journalOps > entries.size() + COMPACT_SLACK) {
+            compact();
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        compact();
+        journal.close();
+    }
+
+    // Rewrites the journal as one put per live entry, swapping it in atomically
+    private void compact() throws IOException {
+        journal.close();
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            if (historyId != null) {
+                out.write(MAPPER.writeValueAsString(JournalOp.history(historyId)));
+                out.newLine();
+            }
+            for (CachedMessage c : entries.values()) {
+                out.write(MAPPER.writeValueAsString(JournalOp.put(c)));
+                out.newLine();
+            }
+            if (complete) {
+                out.write(MAPPER.writeValueAsString(JournalOp.complete(CACHED_HEADERS)));
+                out.newLine();
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journal = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        journalOps = entries.size() + (historyId == null ? 0 : 1) + (complete ? 1 : 0);
+    }
+
+    private void clear() throws IOException {
+        entries.clear();
+        historyId = null;
+        complete = false;
+        append(JournalOp.clear());
+    }
+
+    private void setHistoryId(BigInteger id) throws IOException {
+        if (id == null || id.equals(historyId)) return;
+        historyId = id;
+        append(JournalOp.history(id));
+    }
+
+    private void append(JournalOp op) throws IOException {
+        journal.write(MAPPER.writeValueAsString(op));
+        journal.write('\n');
+        journalOps++;
+    }
+
+    private void replay() throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isBlank()) continue;
+                JournalOp op;
+                try {
+                    op = MAPPER.readValue(line, JournalOp.class);
+                } catch (IOException e) {
+                    // torn write from a crash; everything before it is still valid
+                    skippedJournalLines++;
+                    continue;
+                }
+                switch (op.op) {
+                    case "put" -> entries.put(op.message.getId(), op.message);
+                    case "del" -> entries.remove(op.id);
+                    case "history" -> historyId = op.historyId;
+                    // a marker written with another header set doesn't cover today's fields
+                    case "complete" -> complete = CACHED_HEADERS.equals(op.headers);
+                    case "clear" -> {
+                        entries.clear();
+                        historyId = null;
+                        complete = false;
+                    }
+                    default -> { }
+                }
+                journalOps++;
+            }
+        }
+    }
+
+    private static String canonicalHeader(String name) {
+        if (name == null) return null;
+        for (String h : CACHED_HEADERS) {
+            if (h.equalsIgnoreCase(name)) return h;
+        }
+        return null;
+    }
+
+    static class JournalOp {
+        public String op;
+        public String id;
+        public BigInteger historyId;
+        public CachedMessage message;
+        public List<String> headers;
+
+        static JournalOp put(CachedMessage m) {
+            JournalOp o = new JournalOp();
+            o.op = "put";
+            o.message = m;
+            return o;
+        }
+
+        static JournalOp del(String id) {
+            JournalOp o = new JournalOp();
+            o.op = "del";
+            o.id = id;
+            return o;
+        }
+
+        static JournalOp history(BigInteger historyId) {
+            JournalOp o = new JournalOp();
+            o.op = "history";
+            o.historyId = historyId;
+            return o;
+        }
+
+        static JournalOp complete(List<String> headers) {
+            JournalOp o = new JournalOp();
+            o.op = "complete";
+            o.headers = headers;
+            return o;
+        }
+
+        static JournalOp clear() {
+            JournalOp o = new JournalOp();
+            o.op = "clear";
+            return o;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.google.gmaillife;
+
+import com.google.adk.tools.BaseTool;
+import com.google.adk.tools.ToolContext;
+import com.google.genai.types.FunctionDeclaration;
+import io.reactivex.rxjava3.core.Single;
+
+import java.util.Map;
+import java.util.Optional;
+
+// Records every call of the wrapped tool in Metrics: latency as the agent sees it (memo hits
+// included), Gmail bytes downloaded inside it, and whether it failed
+public class MeteredTool extends BaseTool {
+
+    private final BaseTool delegate;
+
+    public MeteredTool(BaseTool delegate) {
+        super(delegate.name(), delegate.description());
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Optional<FunctionDeclaration> declaration() {
+        return delegate.declaration();
+    }
+
+    @Override
+    public Single<Map<String, Object>> runAsync(Map<String, Object> args, ToolContext ctx) {
+        // tools block on Gmail anyway; running the call here keeps the byte scope on this thread
+        return Single.fromCallable(() -> {
+            long start = System.nanoTime();
+            long bytes = 0;
+            boolean error = true;
+            try (PayloadMeter.Scope scope = PayloadMeter.open(name())) {
+                Map<String, Object> result = delegate.runAsync(args, ctx).blockingGet();
+                bytes = scope.bytes();
+                error = result != null && "error".equals(result.get("status"));
+                return result;
+            } finally {
+                Metrics.toolCall(name(), System.nanoTime() - start, bytes, error);
+            }
+        });
+    }
+}
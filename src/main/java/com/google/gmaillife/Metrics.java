@@ -0,0 +1,205 @@
+package com.google.gmaillife;
+
+import com.google.adk.agents.CallbackContext;
+import com.google.adk.models.LlmResponse;
+import com.sun.net.httpserver.HttpServer;
+import io.reactivex.rxjava3.core.Maybe;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// Process-wide latency and volume metrics for Gmail API methods, tools and agents' model calls,
+// served as Prometheus text. Latencies go into HdrHistograms (microseconds, 2 significant
+// digits), so quantiles are exact to 1% whatever the sample count.
+public final class Metrics {
+
+    private static final long MAX_MICROS = TimeUnit.HOURS.toMicros(1);
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static final ConcurrentMap<String, Series> GMAIL = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Series> TOOLS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Series> MODELS = new ConcurrentHashMap<>();
+    // Model calls in flight, by invocation and agent, started at this nanoTime
+    private static final ConcurrentMap<String, Long> MODEL_STARTS = new ConcurrentHashMap<>();
+    // A call that failed never reaches afterModel; its start is dropped after this long
+    private static final long MODEL_START_TTL_NANOS = TimeUnit.MINUTES.toNanos(10);
+    // Components with their own counters (router, memo, limiter), flattened into gauges
+    private static final Map<String, Supplier<Map<String, Object>>> SNAPSHOTS = new ConcurrentHashMap<>();
+
+    private Metrics() {}
+
+    // One Gmail HTTP round trip; a batch counts once, with the units and failures of all its sub-requests
+    public static void gmailCall(GmailMethod method, long nanos, int quotaUnits, long bytes, int errors) {
+        Series s = GMAIL.computeIfAbsent(method.apiName(), k -> new Series());
+        s.record(nanos, bytes, errors);
+        s.units.add(quotaUnits);
+    }
+
+    public static void toolCall(String tool, long nanos, long bytes, boolean error) {
+        TOOLS.computeIfAbsent(tool, k -> new Series()).record(nanos, bytes, error ? 1 : 0);
+    }
+
+    // LlmAgent before/after model callbacks: the time from sending a request to the model's
+    // first response. The request is not looked at, so its type is left open.
+    public static Maybe<LlmResponse> beforeModel(CallbackContext ctx, Object request) {
+        long now = System.nanoTime();
+        expireModelStarts(now);
+        MODEL_STARTS.put(ctx.invocationId() + "/" + ctx.agentName(), now);
+        return Maybe.empty();
+    }
+
+    public static Maybe<LlmResponse> afterModel(CallbackContext ctx, LlmResponse response) {
+        // streamed responses call back per chunk; only the first one closes the round trip
+        Long start = MODEL_STARTS.remove(ctx.invocationId() + "/" + ctx.agentName());
+        if (start != null) {
+            boolean error = response != null && response.content().isEmpty();
+            MODELS.computeIfAbsent(ctx.agentName(), k -> new Series()).record(System.nanoTime() - start, 0, error ? 1 : 0);
+        }
+        return Maybe.empty();
+    }
+
+    // Starts never closed by afterModel count as failed calls of their agent, without a latency sample
+    private static void expireModelStarts(long now) {
+        for (Iterator<Map.Entry<String, Long>> it = MODEL_STARTS.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Long> e = it.next();
+            if (now - e.getValue() < MODEL_START_TTL_NANOS) continue;
+            it.remove();
+            String agent = e.getKey().substring(e.getKey().lastIndexOf('/') + 1);
+            MODELS.computeIfAbsent(agent, k -> new Series()).errors.increment();
+        }
+    }
+
+    // Numbers in the snapshot are exported as <prefix>_<key> gauges; a map of maps becomes one
+    // gauge per inner key, labelled with the outer key
+    public static void register(String prefix, Supplier<Map<String, Object>> snapshot) {
+        SNAPSHOTS.put(prefix, snapshot);
+    }
+
+    // Serves prometheus() at http://localhost:<port>/metrics
+    public static HttpServer serve(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = prometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        return server;
+    }
+
+    // Prometheus text exposition format 0.0.4
+    public static String prometheus() {
+        StringBuilder sb = new StringBuilder(8192);
+        summary(sb, "gmail_request_seconds", "Gmail API HTTP round trip latency", "method", GMAIL);
+        counter(sb, "gmail_request_errors_total", "Failed Gmail calls and batch sub-requests", "method", GMAIL, s -> s.errors.sum());
+        counter(sb, "gmail_response_bytes_total", "Gmail response bytes decoded", "method", GMAIL, s -> s.bytes.sum());
+        counter(sb, "gmail_quota_units_total", "Gmail per-user quota units spent", "method", GMAIL, s -> s.units.sum());
+        summary(sb, "tool_call_seconds", "Tool call latency as seen by the agent", "tool", TOOLS);
+        counter(sb, "tool_call_errors_total", "Tool calls that threw or returned status=error", "tool", TOOLS, s -> s.errors.sum());
+        counter(sb, "tool_response_bytes_total", "Gmail bytes downloaded inside tool calls", "tool", TOOLS, s -> s.bytes.sum());
+        summary(sb, "agent_model_seconds", "Model round trip per agent, to the first response", "agent", MODELS);
+        counter(sb, "agent_model_errors_total", "Model responses without content", "agent", MODELS, s -> s.errors.sum());
+
+        sb.append("# TYPE gmail_payload_bytes_total counter\n")
+                .append("gmail_payload_bytes_total ").append(PayloadMeter.totalBytes()).append('\n');
+        for (var entry : new TreeMap<>(SNAPSHOTS).entrySet()) {
+            gauges(sb, entry.getKey(), entry.getValue().get(), null);
+        }
+        return sb.toString();
+    }
+
+    private static void summary(StringBuilder sb, String name, String help, String label, Map<String, Series> series) {
+        if (series.isEmpty()) return;
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" summary\n");
+        for (var entry : new TreeMap<>(series).entrySet()) {
+            Histogram h = entry.getValue().latency.copy();
+            String l = label + "=\"" + escape(entry.getKey()) + "\"";
+            for (double q : QUANTILES) {
+                sb.append(name).append('{').append(l).append(",quantile=\"").append(q).append("\"} ")
+                        .append(h.getTotalCount() == 0 ? "NaN" : seconds(h.getValueAtPercentile(q * 100))).append('\n');
+            }
+            sb.append(name).append("_sum{").append(l).append("} ").append(seconds(entry.getValue().totalMicros.sum())).append('\n');
+            sb.append(name).append("_count{").append(l).append("} ").append(h.getTotalCount()).append('\n');
+        }
+    }
+
+    private interface Field {
+        long get(Series s);
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, String label, Map<String, Series> series, Field field) {
+        if (series.isEmpty()) return;
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        for (var entry : new TreeMap<>(series).entrySet()) {
+            sb.append(name).append('{').append(label).append("=\"").append(escape(entry.getKey())).append("\"} ")
+                    .append(field.get(entry.getValue())).append('\n');
+        }
+    }
+
+    private static void gauges(StringBuilder sb, String name, Map<?, ?> values, String key) {
+        for (var entry : values.entrySet()) {
+            String child = name + "_" + sanitize(String.valueOf(entry.getKey()));
+            Object v = entry.getValue();
+            if (v instanceof Number n) {
+                sb.append(child);
+                if (key != null) sb.append("{key=\"").append(escape(key)).append("\"}");
+                sb.append(' ').append(n).append('\n');
+            } else if (v instanceof Boolean b) {
+                sb.append(child).append(key != null ? "{key=\"" + escape(key) + "\"}" : "").append(b ? " 1\n" : " 0\n");
+            } else if (v instanceof Map<?, ?> inner && key == null) {
+                if (!inner.isEmpty() && inner.values().stream().allMatch(x -> x instanceof Map)) {
+                    for (var row : inner.entrySet()) {
+                        gauges(sb, child, (Map<?, ?>) row.getValue(), String.valueOf(row.getKey()));
+                    }
+                } else {
+                    gauges(sb, child, inner, null);
+                }
+            }
+        }
+    }
+
+    private static String seconds(long micros) {
+        return String.valueOf(micros / 1e6);
+    }
+
+    private static String sanitize(String s) {
+        return s.replaceAll("[^A-Za-z0-9_]", "_");
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static final class Series {
+        final Histogram latency = new ConcurrentHistogram(1, MAX_MICROS, 2);
+        final LongAdder totalMicros = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final LongAdder units = new LongAdder();
+
+        void record(long nanos, long bytes, int errors) {
+            long micros = Math.max(1, Math.min(MAX_MICROS, nanos / 1000));
+            latency.recordValue(micros);
+            totalMicros.add(micros);
+            this.bytes.add(bytes);
+            this.errors.add(errors);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.google.gmaillife;
+
+import com.google.api.services.gmail.model.Message;
+import com.google.api.services.gmail.model.MessagePart;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// Body view of one Gmail message. The MIME tree is walked once to index parts by type and size;
+// only the part actually asked for (text/html or text/plain) is decoded, at most once, and never
+// past maxBytes. Attachments are indexed but never decoded.
+public final class MimeView {
+
+    // text/plain parts that look like markup are treated as HTML, as mail clients do
+    private static final ConfirmationScanner HTML_SNIFF = ConfirmationScanner.of(List.of("<html", "<a "), 4096);
+
+    private final List<Part> parts;
+    private final MessagePart htmlPart;
+    private final MessagePart plainPart;
+    private final int maxBytes;
+
+    private String html;
+    private String plain;
+    private boolean htmlDecoded;
+    private boolean plainDecoded;
+    private HtmlScanner.Result scanned;
+
+    private MimeView(List<Part> parts, MessagePart htmlPart, MessagePart plainPart, int maxBytes) {
+        this.parts = parts;
+        this.htmlPart = htmlPart;
+        this.plainPart = plainPart;
+        this.maxBytes = maxBytes;
+    }
+
+    public static MimeView of(Message message, int maxBytes) {
+        List<Part> parts = new ArrayList<>();
+        MessagePart html = null;
+        MessagePart plain = null;
+
+        Deque<MessagePart> stack = new ArrayDeque<>();
+        if (message != null && message.getPayload() != null) stack.push(message.getPayload());
+        while (!stack.isEmpty()) {
+            MessagePart part = stack.pop();
+            if (part.getParts() != null) {
+                // reversed so parts come off the stack in document order
+                List<MessagePart> children = part.getParts();
+                for (int i = children.size() - 1; i >= 0; i--) {
+                    stack.push(children.get(i));
+                }
+                continue;
+            }
+
+            String type = part.getMimeType() == null ? "" : part.getMimeType().toLowerCase(Locale.ROOT);
+            boolean attachment = isAttachment(part);
+            int size = part.getBody() == null || part.getBody().getSize() == null ? 0 : part.getBody().getSize();
+            parts.add(new Part(type, part.getFilename(), size, attachment));
+
+            if (attachment || part.getBody() == null || part.getBody().getData() == null) continue;
+            if (html == null && type.startsWith("text/html")) html = part;
+            if (plain == null && type.startsWith("text/plain")) plain = part;
+        }
+        return new MimeView(parts, html, plain, maxBytes);
+    }
+
+    // Every leaf part, in document order
+    public List<Part> parts() {
+        return parts;
+    }
+
+    // Decoded HTML body, or null when the message has none
+    public String html() {
+        if (!htmlDecoded) {
+            htmlDecoded = true;
+            html = decode(htmlPart);
+            if (html == null) {
+                String p = plain();
+                if (p != null && HTML_SNIFF.matches(p)) html = p;
+            }
+        }
+        return html;
+    }
+
+    // Decoded text/plain body, or null
+    public String plain() {
+        if (!plainDecoded) {
+            plainDecoded = true;
+            plain = decode(plainPart);
+        }
+        return plain;
+    }
+
+    // Readable text: HTML with tags stripped when there is HTML, the plain part otherwise
+    public String text() {
+        String h = html();
+        if (h != null && !h.isBlank()) return scan().text();
+        String p = plain();
+        return p == null ? "" : p;
+    }
+
+    // The HTML body scanned once for text and unsubscribe targets; empty when there is no HTML
+    public HtmlScanner.Result scan() {
+        if (scanned == null) scanned = HtmlScanner.scan(html());
+        return scanned;
+    }
+
+    private String decode(MessagePart part) {
+        if (part == null) return null;
+        String data = part.getBody().getData();
+        // base64 is 4 chars per 3 bytes; cut on a quantum boundary so the prefix still decodes
+        long limit = ((maxBytes + 2L) / 3) * 4;
+        if (data.length() > limit) data = data.substring(0, (int) limit);
+        try {
+            byte[] bytes = Base64.getUrlDecoder().decode(data);
+            int n = Math.min(bytes.length, maxBytes);
+            return new String(bytes, 0, n, charset(part));
+        } catch (IllegalArgumentException e) {
+            // ignore bad base64
+            return null;
+        }
+    }
+
+    private static boolean isAttachment(MessagePart part) {
+        if (part.getFilename() != null && !part.getFilename().isEmpty()) return true;
+        if (part.getBody() != null && part.getBody().getAttachmentId() != null) return true;
+        String disposition = HeaderIndex.first(part.getHeaders(), "Content-Disposition");
+        return disposition != null && disposition.toLowerCase(Locale.ROOT).startsWith("attachment");
+    }
+
+    private static Charset charset(MessagePart part) {
+        String type = HeaderIndex.first(part.getHeaders(), "Content-Type");
+        if (type != null) {
+            int i = type.toLowerCase(Locale.ROOT).indexOf("charset=");
+            if (i >= 0) {
+                String name = type.substring(i + 8).split("[;\\s]", 2)[0].replace("\"", "");
+                try {
+                    return Charset.forName(name);
+                } catch (IllegalArgumentException ignored) {
+                    // unknown charset: fall through to UTF-8
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    // Index entry for one leaf part; nothing here requires decoding
+    public static final class Part {
+        private final String mimeType;
+        private final String filename;
+        private final int size;
+        private final boolean attachment;
+
+        Part(String mimeType, String filename, int size, boolean attachment) {
+            this.mimeType = mimeType;
+            this.filename = filename;
+            this.size = size;
+            this.attachment = attachment;
+        }
+
+        public String mimeType() { return mimeType; }
+        public String filename() { return filename; }
+        public int size() { return size; }
+        public boolean attachment() { return attachment; }
+    }
+}
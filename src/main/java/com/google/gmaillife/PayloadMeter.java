@@ -0,0 +1,164 @@
+package com.google.gmaillife;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.JsonGenerator;
+import com.google.api.client.json.JsonParser;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Counts Gmail response bytes per tool call.
+// Every response body (including each batch sub-response) goes through the client's JsonFactory,
+// so wrapping the factory sees exactly what was downloaded and decoded.
+public final class PayloadMeter {
+
+    private static final AtomicLong TOTAL = new AtomicLong();
+    private static final ThreadLocal<Scope> CURRENT = new ThreadLocal<>();
+    // Bytes decoded on each thread, scope or not; per-call deltas feed the Gmail metrics
+    private static final ThreadLocal<long[]> THREAD_BYTES = ThreadLocal.withInitial(() -> new long[1]);
+
+    private PayloadMeter() {}
+
+    public static long totalBytes() {
+        return TOTAL.get();
+    }
+
+    // Opens a per-tool scope on this thread; bytes read inside it count toward it and every
+    // scope around it. MeteredTool reports each tool call's total to Metrics.
+    public static Scope open(String tool) {
+        Scope scope = new Scope(tool, CURRENT.get());
+        CURRENT.set(scope);
+        return scope;
+    }
+
+    // Bytes decoded on the calling thread so far
+    static long threadBytes() {
+        return THREAD_BYTES.get()[0];
+    }
+
+    // Bytes read by the innermost open scope on this thread, 0 when none is open
+    public static long currentBytes() {
+        Scope scope = CURRENT.get();
+        return scope == null ? 0 : scope.bytes.get();
+    }
+
+    // Lets work handed to another thread (hedged reads) count against the caller's scope
+    static <T> Callable<T> propagate(Callable<T> task) {
+        Scope scope = CURRENT.get();
+        if (scope == null) return task;
+        return () -> {
+            Scope previous = CURRENT.get();
+            CURRENT.set(scope);
+            try {
+                return task.call();
+            } finally {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    static void record(long n) {
+        TOTAL.addAndGet(n);
+        THREAD_BYTES.get()[0] += n;
+        for (Scope s = CURRENT.get(); s != null; s = s.parent) {
+            s.bytes.addAndGet(n);
+        }
+    }
+
+    // Wraps a JsonFactory (normally GsonFactory) so every parsed response is counted
+    public static JsonFactory wrap(JsonFactory delegate) {
+        return new MeteredJsonFactory(delegate);
+    }
+
+    public static final class Scope implements AutoCloseable {
+        private final String tool;
+        private final Scope parent;
+        private final AtomicLong bytes = new AtomicLong();
+
+        private Scope(String tool, Scope parent) {
+            this.tool = tool;
+            this.parent = parent;
+        }
+
+        public String tool() {
+            return tool;
+        }
+
+        public long bytes() {
+            return bytes.get();
+        }
+
+        @Override
+        public void close() {
+            CURRENT.set(parent);
+        }
+    }
+
+    private static final class MeteredJsonFactory extends JsonFactory {
+        private final JsonFactory delegate;
+
+        MeteredJsonFactory(JsonFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public JsonParser createJsonParser(InputStream in) throws IOException {
+            return delegate.createJsonParser(new CountingInputStream(in));
+        }
+
+        @Override
+        public JsonParser createJsonParser(InputStream in, Charset charset) throws IOException {
+            return delegate.createJsonParser(new CountingInputStream(in), charset);
+        }
+
+        @Override
+        public JsonParser createJsonParser(String value) throws IOException {
+            record(value.length());
+            return delegate.createJsonParser(value);
+        }
+
+        @Override
+        public JsonParser createJsonParser(Reader reader) throws IOException {
+            return delegate.createJsonParser(reader);
+        }
+
+        @Override
+        public JsonGenerator createJsonGenerator(OutputStream out, Charset enc) throws IOException {
+            return delegate.createJsonGenerator(out, enc);
+        }
+
+        @Override
+        public JsonGenerator createJsonGenerator(Writer writer) throws IOException {
+            return delegate.createJsonGenerator(writer);
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) record(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) record(n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            if (skipped > 0) record(skipped);
+            return skipped;
+        }
+    }
+}
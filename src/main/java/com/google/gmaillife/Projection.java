@@ -0,0 +1,67 @@
+package com.google.gmaillife;
+
+import java.util.*;
+
+// Fields a tool needs from each message; decides the Gmail get format and partial-response mask
+public final class Projection {
+
+    public enum Field { ID, THREAD_ID, LABELS, SNIPPET, INTERNAL_DATE, SIZE_ESTIMATE, HEADERS, BODY }
+
+    private final EnumSet<Field> fields;
+    private final List<String> headers;
+
+    private Projection(EnumSet<Field> fields, List<String> headers) {
+        this.fields = fields;
+        this.headers = headers;
+    }
+
+    // Header names imply HEADERS; ID is always included
+    public static Projection of(Set<Field> fields, String... headers) {
+        EnumSet<Field> all = EnumSet.of(Field.ID);
+        all.addAll(fields);
+        if (headers.length > 0) all.add(Field.HEADERS);
+        return new Projection(all, List.of(headers));
+    }
+
+    public boolean has(Field field) {
+        return fields.contains(field);
+    }
+
+    public List<String> headers() {
+        return headers;
+    }
+
+    // minimal < metadata < full, picking the cheapest format that carries every field
+    public String format() {
+        if (fields.contains(Field.BODY)) return "full";
+        if (fields.contains(Field.HEADERS)) return "metadata";
+        return "minimal";
+    }
+
+    // Only meaningful for metadata; full ignores metadataHeaders and returns every header
+    public List<String> metadataHeaders() {
+        return "metadata".equals(format()) ? headers : List.of();
+    }
+
+    // Partial-response mask for messages.get
+    public String fieldsMask() {
+        List<String> mask = new ArrayList<>();
+        mask.add("id");
+        if (fields.contains(Field.THREAD_ID)) mask.add("threadId");
+        if (fields.contains(Field.LABELS)) mask.add("labelIds");
+        if (fields.contains(Field.SNIPPET)) mask.add("snippet");
+        if (fields.contains(Field.INTERNAL_DATE)) mask.add("internalDate");
+        if (fields.contains(Field.SIZE_ESTIMATE)) mask.add("sizeEstimate");
+        if (fields.contains(Field.BODY)) {
+            mask.add("payload");
+        } else if (fields.contains(Field.HEADERS)) {
+            mask.add("payload/headers");
+        }
+        return String.join(",", mask);
+    }
+
+    @Override
+    public String toString() {
+        return format() + fields + headers;
+    }
+}
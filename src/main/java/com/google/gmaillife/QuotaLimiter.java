@@ -0,0 +1,198 @@
+package com.google.gmaillife;
+
+import java.io.InterruptedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Client-side limiter for Gmail's per-user quota.
+// A token bucket of quota units refilled at the per-user rate bounds throughput, and an
+// AIMD concurrency limit bounds in-flight calls: +1/limit per clean call made while every slot
+// was taken, halved (plus a short pause) whenever Gmail answers with a rate-limit error.
+// Waiting goes through a ReentrantLock so blocked virtual threads release their carrier.
+// Background calls (cache priming) step aside for interactive ones: they never take the last
+// half of the bucket or of the concurrency limit, and wait while an interactive call is waiting.
+public class QuotaLimiter {
+
+    // Gmail allows 15,000 quota units per user per minute
+    public static final double PER_USER_UNITS_PER_SECOND = 250.0;
+
+    private static final double MIN_CONCURRENCY = 1;
+    private static final double MAX_CONCURRENCY = 64;
+    private static final double INITIAL_CONCURRENCY = 8;
+    // Everyone backs off for this long after a throttle response
+    private static final long THROTTLE_PAUSE_NANOS = 1_000_000_000L;
+    // Share of the bucket and of the concurrency limit background calls may use
+    private static final double BACKGROUND_SHARE = 0.5;
+
+    private final double unitsPerSecond;
+    private final double capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Signalled whenever a slot frees up or the limits change
+    private final Condition changed = lock.newCondition();
+
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+    private long pausedUntil;
+    private double concurrencyLimit = INITIAL_CONCURRENCY;
+    private int inFlight;
+    private int foregroundWaiting;
+
+    private long acquisitions;
+    private long throttles;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+
+    public QuotaLimiter(double unitsPerSecond) {
+        this.unitsPerSecond = unitsPerSecond;
+        // one second of budget can be spent as a burst
+        this.capacity = unitsPerSecond;
+        this.tokens = capacity;
+    }
+
+    // Blocks until `units` can be spent and a concurrency slot is free
+    public void acquire(int units) throws InterruptedIOException {
+        acquire(units, false);
+    }
+
+    public void acquire(int units, boolean background) throws InterruptedIOException {
+        long start = System.nanoTime();
+        // tokens and slots a background call has to leave for interactive ones
+        double reserve = background ? capacity * (1 - BACKGROUND_SHARE) : 0;
+        boolean waiting = false;
+        lock.lock();
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                refill(now);
+                double needed = reserve + Math.min(units, capacity - reserve);
+                int slots = background ? Math.max(1, (int) (concurrencyLimit * BACKGROUND_SHARE)) : (int) concurrencyLimit;
+
+                long waitNanos;
+                if (now < pausedUntil) {
+                    waitNanos = pausedUntil - now;
+                } else if (inFlight >= slots || (background && foregroundWaiting > 0)) {
+                    waitNanos = 0; // woken by release()
+                } else if (tokens >= needed) {
+                    // calls costing more than the bucket (large batches) run into debt instead of starving
+                    tokens -= units;
+                    inFlight++;
+                    break;
+                } else {
+                    waitNanos = (long) ((needed - tokens) / unitsPerSecond * 1e9);
+                }
+
+                if (!background && !waiting) {
+                    waiting = true;
+                    foregroundWaiting++;
+                }
+                if (waitNanos == 0) {
+                    changed.await();
+                } else {
+                    changed.awaitNanos(waitNanos);
+                }
+            }
+
+            long waited = System.nanoTime() - start;
+            acquisitions++;
+            totalWaitNanos += waited;
+            maxWaitNanos = Math.max(maxWaitNanos, waited);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for Gmail quota");
+        } finally {
+            if (waiting && --foregroundWaiting == 0) changed.signalAll();
+            lock.unlock();
+        }
+    }
+
+    // Most units a background call should cost, so it fits the share of the bucket it may use
+    public int backgroundUnits() {
+        return (int) (capacity * BACKGROUND_SHARE);
+    }
+
+    // Ends a call started with acquire(); `throttled` when Gmail rejected it for rate limits
+    public void release(boolean throttled) {
+        lock.lock();
+        try {
+            // a limit that was never reached says nothing about whether a higher one is safe
+            boolean saturated = inFlight >= (int) concurrencyLimit;
+            inFlight--;
+            if (throttled) {
+                onThrottle();
+            } else if (saturated) {
+                concurrencyLimit = Math.min(MAX_CONCURRENCY, concurrencyLimit + 1 / concurrencyLimit);
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Also used for throttled sub-requests inside an otherwise successful batch
+    public void onThrottle() {
+        lock.lock();
+        try {
+            throttles++;
+            concurrencyLimit = Math.max(MIN_CONCURRENCY, concurrencyLimit / 2);
+            tokens = Math.min(tokens, 0);
+            pausedUntil = System.nanoTime() + THROTTLE_PAUSE_NANOS;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(capacity, tokens + (now - lastRefill) / 1e9 * unitsPerSecond);
+        lastRefill = now;
+    }
+
+    public double availableUnits() {
+        lock.lock();
+        try {
+            refill(System.nanoTime());
+            return tokens;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int concurrencyLimit() {
+        lock.lock();
+        try {
+            return (int) concurrencyLimit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int inFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Map<String, Object> snapshot() {
+        lock.lock();
+        try {
+            refill(System.nanoTime());
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("availableUnits", (long) tokens);
+            m.put("concurrencyLimit", (int) concurrencyLimit);
+            m.put("inFlight", inFlight);
+            m.put("acquisitions", acquisitions);
+            m.put("throttles", throttles);
+            m.put("totalWaitMs", totalWaitNanos / 1_000_000);
+            m.put("avgWaitMs", acquisitions == 0 ? 0 : totalWaitNanos / acquisitions / 1_000_000);
+            m.put("maxWaitMs", maxWaitNanos / 1_000_000);
+            return m;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
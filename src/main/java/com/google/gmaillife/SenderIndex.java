@@ -0,0 +1,214 @@
+package com.google.gmaillife;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.*;
+
+// Mailbox volume aggregated three ways: by sender address, by List-Id and by sender domain.
+// Each key is interned once to a dense int id; per-key stats live in parallel primitive arrays,
+// so building touches no per-message objects and top-N is a heap pass over ints.
+public class SenderIndex {
+
+    public enum GroupBy { SENDER, LIST, DOMAIN }
+
+    private final Table senders = new Table();
+    private final Table lists = new Table();
+    private final Table domains = new Table();
+    private final long builtAt = System.currentTimeMillis();
+    private int messages;
+
+    public void add(String from, String listId, boolean unread, long sizeEstimate, long internalDate) {
+        messages++;
+        String address = address(from);
+        if (address != null) {
+            senders.add(address, displayName(from), unread, sizeEstimate, internalDate);
+            int at = address.lastIndexOf('@');
+            if (at >= 0 && at < address.length() - 1) {
+                domains.add(address.substring(at + 1), null, unread, sizeEstimate, internalDate);
+            }
+        }
+        String list = listKey(listId);
+        if (list != null) {
+            lists.add(list, listName(listId), unread, sizeEstimate, internalDate);
+        }
+    }
+
+    public int messages() {
+        return messages;
+    }
+
+    public long builtAt() {
+        return builtAt;
+    }
+
+    public int distinct(GroupBy groupBy) {
+        return table(groupBy).size;
+    }
+
+    // The n keys with the most messages, largest first
+    public List<Map<String, Object>> top(GroupBy groupBy, int n) {
+        Table t = table(groupBy);
+        int[] ids = t.top(n);
+        List<Map<String, Object>> rows = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put(groupBy.name().toLowerCase(Locale.ROOT), t.keys[id]);
+            if (t.names[id] != null) row.put("name", t.names[id]);
+            row.put("messages", t.count[id]);
+            row.put("unread", t.unread[id]);
+            row.put("totalBytes", t.bytes[id]);
+            row.put("first", date(t.first[id]));
+            row.put("last", date(t.last[id]));
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private Table table(GroupBy groupBy) {
+        return switch (groupBy) {
+            case SENDER -> senders;
+            case LIST -> lists;
+            case DOMAIN -> domains;
+        };
+    }
+
+    // "Name <a@b.com>" -> "a@b.com", lowercased
+    static String address(String from) {
+        if (from == null || from.isBlank()) return null;
+        int lt = from.lastIndexOf('<');
+        int gt = from.lastIndexOf('>');
+        String addr = lt >= 0 && gt > lt ? from.substring(lt + 1, gt) : from;
+        addr = addr.trim().toLowerCase(Locale.ROOT);
+        return addr.isEmpty() ? null : addr;
+    }
+
+    private static String displayName(String from) {
+        int lt = from.lastIndexOf('<');
+        if (lt <= 0) return null;
+        String name = from.substring(0, lt).trim();
+        if (name.length() >= 2 && name.startsWith("\"") && name.endsWith("\"")) {
+            name = name.substring(1, name.length() - 1);
+        }
+        return name.isEmpty() ? null : name;
+    }
+
+    // "Weekly News <news.example.com>" -> "news.example.com"
+    static String listKey(String listId) {
+        if (listId == null || listId.isBlank()) return null;
+        int lt = listId.lastIndexOf('<');
+        int gt = listId.lastIndexOf('>');
+        String key = lt >= 0 && gt > lt ? listId.substring(lt + 1, gt) : listId;
+        key = key.trim().toLowerCase(Locale.ROOT);
+        return key.isEmpty() ? null : key;
+    }
+
+    private static String listName(String listId) {
+        int lt = listId.lastIndexOf('<');
+        if (lt <= 0) return null;
+        String name = listId.substring(0, lt).trim().replace("\"", "");
+        return name.isEmpty() ? null : name;
+    }
+
+    private static String date(long epochMillis) {
+        return Instant.ofEpochMilli(epochMillis).atZone(ZoneOffset.UTC).toLocalDate().toString();
+    }
+
+    // One aggregation: key -> dense id, stats indexed by id
+    private static final class Table {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private String[] keys = new String[64];
+        private String[] names = new String[64];
+        private int[] count = new int[64];
+        private int[] unread = new int[64];
+        private long[] bytes = new long[64];
+        private long[] first = new long[64];
+        private long[] last = new long[64];
+        private int size;
+
+        void add(String key, String name, boolean isUnread, long sizeEstimate, long internalDate) {
+            Integer boxed = ids.get(key);
+            int id;
+            if (boxed == null) {
+                id = size++;
+                if (id == keys.length) grow();
+                ids.put(key, id);
+                keys[id] = key;
+                first[id] = internalDate;
+                last[id] = internalDate;
+            } else {
+                id = boxed;
+            }
+            if (names[id] == null) names[id] = name;
+            count[id]++;
+            if (isUnread) unread[id]++;
+            bytes[id] += sizeEstimate;
+            if (internalDate < first[id]) first[id] = internalDate;
+            if (internalDate > last[id]) last[id] = internalDate;
+        }
+
+        private void grow() {
+            int cap = keys.length * 2;
+            keys = Arrays.copyOf(keys, cap);
+            names = Arrays.copyOf(names, cap);
+            count = Arrays.copyOf(count, cap);
+            unread = Arrays.copyOf(unread, cap);
+            bytes = Arrays.copyOf(bytes, cap);
+            first = Arrays.copyOf(first, cap);
+            last = Arrays.copyOf(last, cap);
+        }
+
+        // Bounded min-heap of ids by count, then drained largest first
+        int[] top(int n) {
+            int k = Math.min(n, size);
+            if (k <= 0) return new int[0];
+            int[] heap = new int[k];
+            int filled = 0;
+            for (int id = 0; id < size; id++) {
+                if (filled < k) {
+                    heap[filled] = id;
+                    siftUp(heap, filled++);
+                } else if (less(heap[0], id)) {
+                    heap[0] = id;
+                    siftDown(heap, 0, k);
+                }
+            }
+            int[] out = new int[k];
+            for (int i = k - 1; i >= 0; i--) {
+                out[i] = heap[0];
+                heap[0] = heap[i];
+                siftDown(heap, 0, i);
+            }
+            return out;
+        }
+
+        // Ordering by count, ties to the most recent sender
+        private boolean less(int a, int b) {
+            if (count[a] != count[b]) return count[a] < count[b];
+            return last[a] < last[b];
+        }
+
+        private void siftUp(int[] heap, int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!less(heap[i], heap[parent])) break;
+                int tmp = heap[i];
+                heap[i] = heap[parent];
+                heap[parent] = tmp;
+                i = parent;
+            }
+        }
+
+        private void siftDown(int[] heap, int i, int n) {
+            while (true) {
+                int l = 2 * i + 1;
+                if (l >= n) break;
+                int smallest = l + 1 < n && less(heap[l + 1], heap[l]) ? l + 1 : l;
+                if (!less(heap[smallest], heap[i])) break;
+                int tmp = heap[i];
+                heap[i] = heap[smallest];
+                heap[smallest] = tmp;
+                i = smallest;
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.google.gmaillife;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Deterministic local Summarizer: counts and keywords instead of prose. Lets the life-story
+// pipeline (sharding, caching, reduce) run and be measured without model calls.
+public class StubSummarizer implements Summarizer {
+
+    private static final Set<String> STOP_WORDS = Set.of(
+            "the", "and", "for", "you", "your", "with", "this", "that", "from", "are", "our", "new",
+            "re", "fw", "fwd", "of", "to", "in", "on", "is", "it", "at", "a", "an", "by", "we", "my");
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Override
+    public String summarize(Level level, String period, List<String> inputs) {
+        calls.incrementAndGet();
+        if (level == Level.MONTH) return month(period, inputs);
+
+        // higher levels: the lead sentence of each lower digest, in order
+        StringBuilder sb = new StringBuilder(period).append(':');
+        for (String input : inputs) {
+            int end = input.indexOf(". ");
+            sb.append(' ').append(end > 0 ? input.substring(0, end + 1) : input);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String id() {
+        return "stub-1";
+    }
+
+    public int calls() {
+        return calls.get();
+    }
+
+    // Lines are "date | from | subject | snippet"
+    private static String month(String period, List<String> lines) {
+        Map<String, Integer> senders = new HashMap<>();
+        Map<String, Integer> words = new HashMap<>();
+        for (String line : lines) {
+            String[] f = line.split(" \\| ", 4);
+            if (f.length > 1) senders.merge(f[1], 1, Integer::sum);
+            if (f.length > 2) {
+                for (String w : f[2].toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+                    if (w.length() > 2 && !STOP_WORDS.contains(w)) words.merge(w, 1, Integer::sum);
+                }
+            }
+        }
+        return lines.size() + " messages sampled. Top senders: " + top(senders, 3, true)
+                + ". Topics: " + top(words, 5, false) + ".";
+    }
+
+    private static String top(Map<String, Integer> counts, int n, boolean withCounts) {
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort(Map.Entry.<String, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+        StringJoiner sj = new StringJoiner(", ");
+        for (int i = 0; i < Math.min(n, entries.size()); i++) {
+            var e = entries.get(i);
+            sj.add(withCounts ? e.getKey() + " (" + e.getValue() + ")" : e.getKey());
+        }
+        return sj.length() == 0 ? "none" : sj.toString();
+    }
+}
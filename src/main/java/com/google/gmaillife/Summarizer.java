@@ -0,0 +1,16 @@
+package com.google.gmaillife;
+
+import java.util.List;
+
+// Condenses text for the life story: a month of message lines into a digest, month digests into
+// a year narrative, year narratives into the whole story. Implementations may call a model.
+public interface Summarizer {
+
+    enum Level { MONTH, YEAR, OVERALL }
+
+    // period is "2023-04", "2023" or e.g. "2019-2024"
+    String summarize(Level level, String period, List<String> inputs) throws Exception;
+
+    // Stable name; digests made by another summarizer are not reused
+    String id();
+}
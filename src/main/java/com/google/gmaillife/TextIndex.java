@@ -0,0 +1,664 @@
+package com.google.gmaillife;
+
+import com.google.api.services.gmail.model.Message;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+// Full-text index over subject, from, snippet and body text of messages the app has fetched.
+// New documents collect in an in-memory segment that is flushed to an immutable on-disk segment:
+// a sorted term dictionary plus delta/varint-compressed postings, memory-mapped for reads.
+// Deletes are per-segment bitsets; a background thread merges segments once there are too many,
+// dropping deleted documents. Hits are ranked with BM25.
+public class TextIndex implements AutoCloseable {
+
+    // Body text indexed per message
+    static final int MAX_BODY_CHARS = 64 * 1024;
+    // In-memory documents written out as one segment
+    static final int FLUSH_DOCS = 2000;
+    // More on-disk segments than this triggers a background merge
+    static final int MAX_SEGMENTS = 8;
+
+    // A subject word counts as much as three body words
+    private static final int SUBJECT_WEIGHT = 3;
+    private static final int FROM_WEIGHT = 2;
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+
+    private static final int MAGIC = 0x47544958;
+    private static final int MAX_STORED_CHARS = 500;
+    private static final int MIN_TOKEN = 2;
+    private static final int MAX_TOKEN = 40;
+    private static final Set<String> STOP_WORDS = Set.of(
+            "the", "and", "for", "you", "your", "with", "this", "that", "from", "are", "was", "have",
+            "has", "our", "not", "but", "all", "can", "will", "its", "re", "fw", "fwd", "of", "to",
+            "in", "on", "is", "it", "at", "be", "or", "an", "by", "we", "if", "as");
+
+    private final Path dir;
+    private final ExecutorService merger = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "text-index-merge");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final List<DiskSegment> segments = new ArrayList<>();
+    // message ID -> the one live copy of its document
+    private final Map<String, DocRef> live = new HashMap<>();
+    private MemorySegment memory = new MemorySegment();
+    private long totalLength;
+    private int nextSegmentId;
+    private boolean merging;
+    // For /metrics
+    private int skippedSegments;
+    private long merges;
+    private long mergeFailures;
+    private long lastMergeMillis;
+
+    private TextIndex(Path dir) {
+        this.dir = dir;
+    }
+
+    public static TextIndex open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        TextIndex index = new TextIndex(dir);
+        List<Path> files;
+        try (Stream<Path> list = Files.list(dir)) {
+            files = list.filter(p -> p.getFileName().toString().matches("seg-\\d+\\.idx"))
+                    .sorted(Comparator.comparingInt(TextIndex::segmentId))
+                    .toList();
+        }
+        for (Path file : files) {
+            DiskSegment seg;
+            try {
+                seg = DiskSegment.read(segmentId(file), file);
+            } catch (IOException e) {
+                // a segment is written to a temp file and renamed, so this is real damage
+                index.skippedSegments++;
+                continue;
+            }
+            index.segments.add(seg);
+            index.nextSegmentId = Math.max(index.nextSegmentId, seg.id + 1);
+            for (int d = 0; d < seg.docs.length; d++) {
+                if (!seg.deleted.get(d)) index.track(seg.docs[d].id, new DocRef(seg, d));
+            }
+        }
+        return index;
+    }
+
+    public synchronized int size() {
+        return live.size();
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("messages", live.size());
+        m.put("segments", segments.size());
+        m.put("skippedSegments", skippedSegments);
+        m.put("merges", merges);
+        m.put("mergeFailures", mergeFailures);
+        m.put("lastMergeMs", lastMergeMillis);
+        return m;
+    }
+
+    public synchronized boolean contains(String id) {
+        return live.containsKey(id);
+    }
+
+    // Adds a message; body is its extracted text, or null for metadata only. A document is only
+    // replaced to gain body text, since the indexed fields of a message never change.
+    public synchronized void add(Message m, String body) throws IOException {
+        if (m == null || m.getId() == null) return;
+        DocRef existing = live.get(m.getId());
+        if (existing != null && (body == null || existing.doc().hasBody)) return;
+        if (existing != null) delete(existing);
+
+        HeaderIndex headers = HeaderIndex.of(m);
+        String subject = headers.subject();
+        String from = headers.from();
+        Map<String, Integer> tf = new HashMap<>();
+        int length = 0;
+        length += tokenize(subject, SUBJECT_WEIGHT, tf);
+        length += tokenize(from, FROM_WEIGHT, tf);
+        length += tokenize(m.getSnippet(), 1, tf);
+        if (body != null) {
+            length += tokenize(body.length() > MAX_BODY_CHARS ? body.substring(0, MAX_BODY_CHARS) : body, 1, tf);
+        }
+
+        Doc doc = new Doc(m.getId(), m.getInternalDate() == null ? 0 : m.getInternalDate(), length, body != null,
+                clip(subject), clip(from), clip(m.getSnippet()));
+        int d = memory.add(doc, tf);
+        track(doc.id, new DocRef(memory, d));
+
+        if (memory.docs.size() >= FLUSH_DOCS) flush();
+    }
+
+    public synchronized void remove(String id) throws IOException {
+        DocRef ref = live.get(id);
+        if (ref != null) delete(ref);
+    }
+
+    // Top hits for the query words, best first. visible filters out messages that are gone.
+    public synchronized List<Map<String, Object>> search(String query, int limit, Predicate<String> visible) {
+        Set<String> terms = new LinkedHashSet<>(tokenize(query));
+        if (terms.isEmpty() || live.isEmpty() || limit <= 0) return List.of();
+
+        List<Segment> all = new ArrayList<>(segments);
+        all.add(memory);
+        int n = live.size();
+        float avgLength = Math.max(1f, (float) totalLength / n);
+
+        // live postings per term and segment, decoded once; df is the live count across segments
+        Map<String, List<int[]>> decoded = new HashMap<>();
+        Map<String, Integer> df = new HashMap<>();
+        for (String term : terms) {
+            List<int[]> perSegment = new ArrayList<>(all.size());
+            int count = 0;
+            for (Segment seg : all) {
+                int[] p = seg.livePostings(term);
+                perSegment.add(p);
+                count += p.length / 2;
+            }
+            decoded.put(term, perSegment);
+            df.put(term, count);
+        }
+
+        PriorityQueue<Scored> top = new PriorityQueue<>(Comparator.comparingDouble(Scored::score));
+        for (int s = 0; s < all.size(); s++) {
+            Segment seg = all.get(s);
+            float[] scores = null;
+            for (String term : terms) {
+                int[] p = decoded.get(term).get(s);
+                if (p.length == 0) continue;
+                if (scores == null) scores = new float[seg.docCount()];
+                int termDf = df.get(term);
+                float idf = (float) Math.log(1 + (n - termDf + 0.5) / (termDf + 0.5));
+                for (int i = 0; i < p.length; i += 2) {
+                    Doc doc = seg.doc(p[i]);
+                    float f = p[i + 1];
+                    scores[p[i]] += idf * f * (K1 + 1) / (f + K1 * (1 - B + B * doc.length / avgLength));
+                }
+            }
+            if (scores == null) continue;
+            for (int d = 0; d < scores.length; d++) {
+                if (scores[d] <= 0) continue;
+                if (top.size() < limit || scores[d] > top.peek().score()) {
+                    Doc doc = seg.doc(d);
+                    if (!visible.test(doc.id)) continue;
+                    top.add(new Scored(doc, scores[d]));
+                    if (top.size() > limit) top.poll();
+                }
+            }
+        }
+
+        List<Scored> ranked = new ArrayList<>(top);
+        ranked.sort(Comparator.comparingDouble(Scored::score).reversed());
+        List<Map<String, Object>> hits = new ArrayList<>(ranked.size());
+        for (Scored s : ranked) {
+            Map<String, Object> hit = new LinkedHashMap<>();
+            hit.put("id", s.doc().id);
+            hit.put("subject", s.doc().subject);
+            hit.put("from", s.doc().from);
+            hit.put("date", Instant.ofEpochMilli(s.doc().date).atZone(ZoneOffset.UTC).toLocalDate().toString());
+            hit.put("snippet", s.doc().snippet);
+            hit.put("score", Math.round(s.score() * 100) / 100.0);
+            hits.add(hit);
+        }
+        return hits;
+    }
+
+    // Writes the in-memory documents out as a new segment
+    public synchronized void flush() throws IOException {
+        if (memory.liveCount() == 0) {
+            memory = new MemorySegment();
+            return;
+        }
+        int id = nextSegmentId++;
+        Path file = dir.resolve("seg-" + id + ".idx");
+        int[] remap = SegmentWriter.write(file, List.of(memory), List.of(memory.deleted));
+        DiskSegment seg = DiskSegment.read(id, file);
+        segments.add(seg);
+        for (int d = 0; d < remap.length; d++) {
+            if (remap[d] >= 0) live.put(memory.docs.get(d).id, new DocRef(seg, remap[d]));
+        }
+        memory = new MemorySegment();
+        maybeMerge();
+    }
+
+    @Override
+    public void close() throws IOException {
+        merger.shutdown();
+        try {
+            merger.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private void track(String id, DocRef ref) {
+        DocRef old = live.put(id, ref);
+        totalLength += ref.doc().length;
+        if (old != null) {
+            // two live copies after a crash mid-replace: the later segment wins
+            totalLength -= old.doc().length;
+            old.segment.delete(old.index);
+        }
+    }
+
+    private void delete(DocRef ref) throws IOException {
+        live.remove(ref.doc().id);
+        totalLength -= ref.doc().length;
+        ref.segment.delete(ref.index);
+        if (ref.segment instanceof DiskSegment seg) seg.saveDeletes();
+    }
+
+    private void maybeMerge() {
+        if (merging || segments.size() <= MAX_SEGMENTS || merger.isShutdown()) return;
+        merging = true;
+        List<DiskSegment> inputs = new ArrayList<>(segments);
+        List<BitSet> deletedAtStart = new ArrayList<>();
+        for (DiskSegment seg : inputs) {
+            deletedAtStart.add((BitSet) seg.deleted.clone());
+        }
+        int id = nextSegmentId++;
+        merger.submit(() -> {
+            try {
+                merge(id, inputs, deletedAtStart);
+            } catch (Exception e) {
+                synchronized (this) {
+                    mergeFailures++;
+                }
+            } finally {
+                synchronized (this) {
+                    merging = false;
+                }
+            }
+        });
+    }
+
+    // The heavy part runs outside the lock: inputs are immutable apart from their delete bits,
+    // which are snapshotted. Deletes that land during the merge are carried over at the swap.
+    private void merge(int id, List<DiskSegment> inputs, List<BitSet> deletedAtStart) throws IOException {
+        long start = System.currentTimeMillis();
+        Path file = dir.resolve("seg-" + id + ".idx");
+        int[] remap = SegmentWriter.write(file, inputs, deletedAtStart);
+        DiskSegment merged = DiskSegment.read(id, file);
+
+        synchronized (this) {
+            int base = 0;
+            for (int i = 0; i < inputs.size(); i++) {
+                DiskSegment seg = inputs.get(i);
+                for (int d = 0; d < seg.docs.length; d++) {
+                    int to = remap[base + d];
+                    if (to < 0) continue;
+                    DocRef ref = live.get(seg.docs[d].id);
+                    if (ref != null && ref.segment == seg && ref.index == d) {
+                        live.put(seg.docs[d].id, new DocRef(merged, to));
+                    } else {
+                        merged.deleted.set(to);
+                    }
+                }
+                base += seg.docs.length;
+            }
+            merged.saveDeletes();
+            segments.removeAll(inputs);
+            segments.add(0, merged);
+            merges++;
+            lastMergeMillis = System.currentTimeMillis() - start;
+        }
+        for (DiskSegment seg : inputs) {
+            Files.deleteIfExists(seg.file);
+            Files.deleteIfExists(seg.deletesFile());
+        }
+    }
+
+    static List<String> tokenize(String text) {
+        Map<String, Integer> tf = new LinkedHashMap<>();
+        tokenize(text, 1, tf);
+        return new ArrayList<>(tf.keySet());
+    }
+
+    // Lowercased letter/digit runs; returns the weighted token count
+    private static int tokenize(String text, int weight, Map<String, Integer> tf) {
+        if (text == null) return 0;
+        int count = 0;
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                token.append(Character.toLowerCase(c));
+                continue;
+            }
+            if (token.length() >= MIN_TOKEN && token.length() <= MAX_TOKEN) {
+                String t = token.toString();
+                if (!STOP_WORDS.contains(t)) {
+                    tf.merge(t, weight, Integer::sum);
+                    count += weight;
+                }
+            }
+            token.setLength(0);
+        }
+        return count;
+    }
+
+    private static String clip(String s) {
+        if (s == null) return "";
+        return s.length() > MAX_STORED_CHARS ? s.substring(0, MAX_STORED_CHARS) : s;
+    }
+
+    private static int segmentId(Path file) {
+        String name = file.getFileName().toString();
+        return Integer.parseInt(name.substring(4, name.indexOf('.')));
+    }
+
+    private record Scored(Doc doc, float score) {}
+
+    // Stored fields of one document
+    private record Doc(String id, long date, int length, boolean hasBody, String subject, String from, String snippet) {}
+
+    private record DocRef(Segment segment, int index) {
+        Doc doc() {
+            return segment.doc(index);
+        }
+    }
+
+    private abstract static class Segment {
+        final BitSet deleted = new BitSet();
+
+        abstract int docCount();
+
+        abstract Doc doc(int d);
+
+        abstract String[] sortedTerms();
+
+        // (doc, tf) pairs in doc order, deleted docs included
+        abstract int[] postings(String term);
+
+        int[] livePostings(String term) {
+            int[] p = postings(term);
+            if (p.length == 0 || deleted.isEmpty()) return p;
+            int[] out = new int[p.length];
+            int n = 0;
+            for (int i = 0; i < p.length; i += 2) {
+                if (deleted.get(p[i])) continue;
+                out[n++] = p[i];
+                out[n++] = p[i + 1];
+            }
+            return Arrays.copyOf(out, n);
+        }
+
+        void delete(int d) {
+            deleted.set(d);
+        }
+    }
+
+    private static final class MemorySegment extends Segment {
+        final List<Doc> docs = new ArrayList<>();
+        final Map<String, int[]> postings = new HashMap<>();
+        // used length of each postings array
+        final Map<String, Integer> used = new HashMap<>();
+
+        int add(Doc doc, Map<String, Integer> tf) {
+            int d = docs.size();
+            docs.add(doc);
+            for (var e : tf.entrySet()) {
+                int[] p = postings.get(e.getKey());
+                int n = used.getOrDefault(e.getKey(), 0);
+                if (p == null) {
+                    p = new int[4];
+                } else if (n + 2 > p.length) {
+                    p = Arrays.copyOf(p, p.length * 2);
+                }
+                p[n] = d;
+                p[n + 1] = e.getValue();
+                postings.put(e.getKey(), p);
+                used.put(e.getKey(), n + 2);
+            }
+            return d;
+        }
+
+        int liveCount() {
+            return docs.size() - deleted.cardinality();
+        }
+
+        @Override
+        int docCount() {
+            return docs.size();
+        }
+
+        @Override
+        Doc doc(int d) {
+            return docs.get(d);
+        }
+
+        @Override
+        String[] sortedTerms() {
+            String[] terms = postings.keySet().toArray(String[]::new);
+            Arrays.sort(terms);
+            return terms;
+        }
+
+        @Override
+        int[] postings(String term) {
+            int[] p = postings.get(term);
+            return p == null ? new int[0] : Arrays.copyOf(p, used.get(term));
+        }
+    }
+
+    // File layout: MAGIC, head length, head (documents, then term dictionary entries of
+    // term/df/offset/length), then the postings blob that the dictionary offsets point into
+    private static final class DiskSegment extends Segment {
+        final int id;
+        final Path file;
+        final Doc[] docs;
+        final String[] terms;
+        final Map<String, long[]> dictionary;
+        final MappedByteBuffer blob;
+
+        private DiskSegment(int id, Path file, Doc[] docs, String[] terms, Map<String, long[]> dictionary, MappedByteBuffer blob) {
+            this.id = id;
+            this.file = file;
+            this.docs = docs;
+            this.terms = terms;
+            this.dictionary = dictionary;
+            this.blob = blob;
+        }
+
+        static DiskSegment read(int id, Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file)) {
+                ByteBuffer prefix = ByteBuffer.allocate(8);
+                channel.read(prefix, 0);
+                prefix.flip();
+                if (prefix.remaining() < 8 || prefix.getInt() != MAGIC) throw new IOException("Not an index segment");
+                int headLength = prefix.getInt();
+
+                ByteBuffer head = ByteBuffer.allocate(headLength);
+                while (head.hasRemaining()) {
+                    if (channel.read(head, 8 + head.position()) < 0) throw new IOException("Truncated segment");
+                }
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(head.array()));
+                Doc[] docs = new Doc[in.readInt()];
+                for (int d = 0; d < docs.length; d++) {
+                    docs[d] = new Doc(in.readUTF(), in.readLong(), in.readInt(), in.readBoolean(),
+                            in.readUTF(), in.readUTF(), in.readUTF());
+                }
+                String[] terms = new String[in.readInt()];
+                Map<String, long[]> dictionary = new HashMap<>(terms.length * 2);
+                for (int t = 0; t < terms.length; t++) {
+                    terms[t] = in.readUTF();
+                    dictionary.put(terms[t], new long[]{in.readInt(), in.readLong(), in.readInt()});
+                }
+
+                long blobStart = 8L + headLength;
+                MappedByteBuffer blob = channel.map(FileChannel.MapMode.READ_ONLY, blobStart, channel.size() - blobStart);
+                DiskSegment seg = new DiskSegment(id, file, docs, terms, dictionary, blob);
+                if (Files.exists(seg.deletesFile())) {
+                    seg.deleted.or(BitSet.valueOf(Files.readAllBytes(seg.deletesFile())));
+                }
+                return seg;
+            }
+        }
+
+        Path deletesFile() {
+            return file.resolveSibling("seg-" + id + ".del");
+        }
+
+        void saveDeletes() throws IOException {
+            Path tmp = file.resolveSibling("seg-" + id + ".del.tmp");
+            Files.write(tmp, deleted.toByteArray());
+            Files.move(tmp, deletesFile(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        @Override
+        int docCount() {
+            return docs.length;
+        }
+
+        @Override
+        Doc doc(int d) {
+            return docs[d];
+        }
+
+        @Override
+        String[] sortedTerms() {
+            return terms;
+        }
+
+        @Override
+        int[] postings(String term) {
+            long[] entry = dictionary.get(term);
+            if (entry == null) return new int[0];
+            int df = (int) entry[0];
+            int[] out = new int[df * 2];
+            int pos = (int) entry[1];
+            int doc = 0;
+            for (int i = 0; i < out.length; i += 2) {
+                long delta = readVarint(blob, pos);
+                pos += (int) (delta >>> 32);
+                long tf = readVarint(blob, pos);
+                pos += (int) (tf >>> 32);
+                doc += (int) delta;
+                out[i] = doc;
+                out[i + 1] = (int) tf;
+            }
+            return out;
+        }
+
+        // Value in the low 32 bits, encoded length in the high bits
+        private static long readVarint(ByteBuffer buf, int pos) {
+            int value = 0;
+            int shift = 0;
+            int len = 0;
+            while (true) {
+                byte b = buf.get(pos + len++);
+                value |= (b & 0x7f) << shift;
+                if (b >= 0) return ((long) len << 32) | (value & 0xffffffffL);
+                shift += 7;
+            }
+        }
+    }
+
+    // Writes live documents of one or more segments into a new segment file, docs in input order.
+    // Returns old position (segments concatenated) -> new doc number, -1 for dropped docs.
+    private static final class SegmentWriter {
+
+        static int[] write(Path file, List<? extends Segment> inputs, List<BitSet> deleted) throws IOException {
+            int total = 0;
+            for (Segment seg : inputs) total += seg.docCount();
+            int[] remap = new int[total];
+            List<Doc> docs = new ArrayList<>();
+            int base = 0;
+            for (int i = 0; i < inputs.size(); i++) {
+                Segment seg = inputs.get(i);
+                for (int d = 0; d < seg.docCount(); d++) {
+                    if (deleted.get(i).get(d)) {
+                        remap[base + d] = -1;
+                    } else {
+                        remap[base + d] = docs.size();
+                        docs.add(seg.doc(d));
+                    }
+                }
+                base += seg.docCount();
+            }
+
+            TreeSet<String> terms = new TreeSet<>();
+            for (Segment seg : inputs) terms.addAll(Arrays.asList(seg.sortedTerms()));
+
+            ByteArrayOutputStream head = new ByteArrayOutputStream();
+            DataOutputStream headOut = new DataOutputStream(head);
+            headOut.writeInt(docs.size());
+            for (Doc d : docs) {
+                headOut.writeUTF(d.id);
+                headOut.writeLong(d.date);
+                headOut.writeInt(d.length);
+                headOut.writeBoolean(d.hasBody);
+                headOut.writeUTF(d.subject);
+                headOut.writeUTF(d.from);
+                headOut.writeUTF(d.snippet);
+            }
+
+            ByteArrayOutputStream blob = new ByteArrayOutputStream();
+            ByteArrayOutputStream dict = new ByteArrayOutputStream();
+            DataOutputStream dictOut = new DataOutputStream(dict);
+            int termCount = 0;
+            for (String term : terms) {
+                int start = blob.size();
+                int df = 0;
+                int last = 0;
+                base = 0;
+                for (Segment seg : inputs) {
+                    int[] p = seg.postings(term);
+                    for (int i = 0; i < p.length; i += 2) {
+                        int to = remap[base + p[i]];
+                        if (to < 0) continue;
+                        writeVarint(blob, to - last);
+                        writeVarint(blob, p[i + 1]);
+                        last = to;
+                        df++;
+                    }
+                    base += seg.docCount();
+                }
+                if (df == 0) continue;
+                dictOut.writeUTF(term);
+                dictOut.writeInt(df);
+                dictOut.writeLong(start);
+                dictOut.writeInt(blob.size() - start);
+                termCount++;
+            }
+            headOut.writeInt(termCount);
+            headOut.flush();
+            dict.writeTo(head);
+
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(head.size());
+                head.writeTo(out);
+                blob.writeTo(out);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return remap;
+        }
+
+        private static void writeVarint(ByteArrayOutputStream out, int value) {
+            while ((value & ~0x7f) != 0) {
+                out.write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+    }
+}
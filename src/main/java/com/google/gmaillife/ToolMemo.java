@@ -0,0 +1,245 @@
+package com.google.gmaillife;
+
+import com.google.adk.tools.BaseTool;
+import com.google.adk.tools.ToolContext;
+import com.google.genai.types.FunctionDeclaration;
+import com.google.gmaillife.model.EmailFull;
+import com.google.gmaillife.model.EmailSummary;
+import io.reactivex.rxjava3.core.Single;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// Per-conversation memo of read-only tool results. Agents in one session keep asking for the same
+// searches and the model retries tools, so a repeat call with the same normalized arguments is
+// answered from memory until TTL_MS runs out. Each entry remembers the message IDs its result
+// covers; a write tool touching one of those IDs drops the entry, in every session.
+public class ToolMemo {
+
+    static final long TTL_MS = 2 * 60_000;
+    // Sessions and entries per session kept, least recently used evicted
+    private static final int MAX_SESSIONS = 256;
+    private static final int MAX_ENTRIES = 64;
+
+    // Session state key holding the memo's ID for that session
+    static final String SESSION_KEY = "toolMemo.session";
+
+    // Result fields holding a message or thread ID
+    private static final Set<String> ID_FIELDS = Set.of("id", "threadId");
+
+    private final Map<String, Map<String, Cached>> sessions = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Map<String, Cached>> eldest) {
+            return size() > MAX_SESSIONS;
+        }
+    };
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder invalidated = new LongAdder();
+
+    private record Cached(Map<String, Object> result, Set<String> ids, long expiresAt) {}
+
+    // A tool whose results may be reused within a session
+    public BaseTool read(BaseTool tool) {
+        return new Wrapped(tool, true);
+    }
+
+    // A tool that changes the messages named in its arguments
+    public BaseTool write(BaseTool tool) {
+        return new Wrapped(tool, false);
+    }
+
+    public Map<String, Object> stats() {
+        long h = hits.sum();
+        long m = misses.sum();
+        int entries = 0;
+        int sessionCount;
+        synchronized (sessions) {
+            sessionCount = sessions.size();
+            for (Map<String, Cached> s : sessions.values()) {
+                entries += s.size();
+            }
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("hits", h);
+        result.put("misses", m);
+        result.put("hitRate", h + m == 0 ? 0.0 : (double) h / (h + m));
+        result.put("expired", expired.sum());
+        result.put("invalidated", invalidated.sum());
+        result.put("sessions", sessionCount);
+        result.put("entries", entries);
+        return result;
+    }
+
+    private Map<String, Object> lookup(String session, String key) {
+        long now = System.currentTimeMillis();
+        synchronized (sessions) {
+            Map<String, Cached> entries = sessions.get(session);
+            Cached e = entries == null ? null : entries.get(key);
+            if (e != null && e.expiresAt() > now) {
+                hits.increment();
+                return e.result();
+            }
+            if (e != null) {
+                entries.remove(key);
+                expired.increment();
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    private void store(String session, String key, Map<String, Object> result) {
+        // errors are worth retrying, not remembering
+        if (result == null || "error".equals(result.get("status"))) return;
+        Set<String> ids = new HashSet<>();
+        collectIds(result, ids);
+        Cached entry = new Cached(result, ids, System.currentTimeMillis() + TTL_MS);
+        synchronized (sessions) {
+            sessions.computeIfAbsent(session, s -> new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            }).put(key, entry);
+        }
+    }
+
+    // Drops every entry, in any session, whose result covers one of the IDs
+    private void invalidate(Set<String> ids) {
+        if (ids.isEmpty()) return;
+        synchronized (sessions) {
+            for (Map<String, Cached> entries : sessions.values()) {
+                Iterator<Cached> it = entries.values().iterator();
+                while (it.hasNext()) {
+                    if (!Collections.disjoint(it.next().ids(), ids)) {
+                        it.remove();
+                        invalidated.increment();
+                    }
+                }
+            }
+        }
+    }
+
+    // The memo's ID for the tool call's session, created on first use and kept in session state
+    private static String sessionKey(ToolContext ctx) {
+        Map<String, Object> state = ctx.state();
+        Object key = state.get(SESSION_KEY);
+        if (key == null) {
+            state.putIfAbsent(SESSION_KEY, UUID.randomUUID().toString());
+            key = state.get(SESSION_KEY);
+        }
+        return String.valueOf(key);
+    }
+
+    // Tool name plus arguments in name order; blank and missing are the same, whitespace is
+    // collapsed and queries are compared case-insensitively, as Gmail does
+    static String key(String tool, Map<String, Object> args) {
+        StringBuilder sb = new StringBuilder(tool).append('(');
+        if (args != null) {
+            for (var arg : new TreeMap<>(args).entrySet()) {
+                Object v = normalize(arg.getValue());
+                if ("".equals(v)) continue;
+                if ("query".equals(arg.getKey()) && v instanceof String s) v = s.toLowerCase(Locale.ROOT);
+                sb.append(arg.getKey()).append('=').append(v).append(';');
+            }
+        }
+        return sb.append(')').toString();
+    }
+
+    private static Object normalize(Object v) {
+        if (v == null) return "";
+        if (v instanceof String s) return s.trim().replaceAll("\\s+", " ");
+        // the model sends 20 and 20.0 interchangeably
+        if (v instanceof Number n && n.doubleValue() == Math.rint(n.doubleValue())) return n.longValue();
+        if (v instanceof List<?> list) {
+            List<Object> out = new ArrayList<>(list.size());
+            for (Object o : list) {
+                out.add(normalize(o));
+            }
+            return out;
+        }
+        return v;
+    }
+
+    // Message and thread IDs anywhere in a result, including compact columns/rows results
+    static void collectIds(Object value, Set<String> ids) {
+        if (value instanceof Map<?, ?> map) {
+            if (map.get("columns") instanceof List<?> columns && map.get("rows") instanceof List<?> rows) {
+                for (String field : ID_FIELDS) {
+                    int at = columns.indexOf(field);
+                    if (at < 0) continue;
+                    for (Object row : rows) {
+                        if (row instanceof List<?> cells && at < cells.size() && cells.get(at) instanceof String id) {
+                            ids.add(id);
+                        }
+                    }
+                }
+            }
+            for (var e : map.entrySet()) {
+                if (ID_FIELDS.contains(e.getKey()) && e.getValue() instanceof String id) {
+                    ids.add(id);
+                } else {
+                    collectIds(e.getValue(), ids);
+                }
+            }
+        } else if (value instanceof Collection<?> items) {
+            for (Object item : items) {
+                collectIds(item, ids);
+            }
+        } else if (value instanceof EmailSummary summary && summary.getId() != null) {
+            ids.add(summary.getId());
+        } else if (value instanceof EmailFull full && full.getId() != null) {
+            ids.add(full.getId());
+        }
+    }
+
+    // IDs a write tool was called with: every string argument and string list element
+    private static Set<String> argIds(Map<String, Object> args) {
+        Set<String> ids = new HashSet<>();
+        if (args == null) return ids;
+        for (Object v : args.values()) {
+            if (v instanceof String s && !s.isBlank()) ids.add(s.trim());
+            if (v instanceof Collection<?> items) {
+                for (Object item : items) {
+                    if (item instanceof String s && !s.isBlank()) ids.add(s.trim());
+                }
+            }
+        }
+        return ids;
+    }
+
+    // Same name and declaration as the wrapped tool, so the model sees no difference
+    private final class Wrapped extends BaseTool {
+        private final BaseTool delegate;
+        private final boolean reads;
+
+        Wrapped(BaseTool delegate, boolean reads) {
+            super(delegate.name(), delegate.description());
+            this.delegate = delegate;
+            this.reads = reads;
+        }
+
+        @Override
+        public Optional<FunctionDeclaration> declaration() {
+            return delegate.declaration();
+        }
+
+        @Override
+        public Single<Map<String, Object>> runAsync(Map<String, Object> args, ToolContext ctx) {
+            if (!reads) {
+                Set<String> ids = argIds(args);
+                // before, so no read during the write is served stale; after, so none cached meanwhile survives
+                invalidate(ids);
+                return delegate.runAsync(args, ctx).doFinally(() -> invalidate(ids));
+            }
+            String session = sessionKey(ctx);
+            String key = key(name(), args);
+            Map<String, Object> cached = lookup(session, key);
+            if (cached != null) return Single.just(cached);
+            return delegate.runAsync(args, ctx).doOnSuccess(result -> store(session, key, result));
+        }
+    }
+}
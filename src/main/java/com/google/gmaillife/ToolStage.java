@@ -0,0 +1,83 @@
+package com.google.gmaillife;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.adk.agents.BaseAgent;
+import com.google.adk.agents.InvocationContext;
+import com.google.adk.events.Event;
+import com.google.adk.events.EventActions;
+import com.google.genai.types.Content;
+import com.google.genai.types.Part;
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Workflow step that runs a tool itself instead of asking a model to call it. The result is
+// written to session state under stateKey (for {stateKey} in later instructions) and emitted as
+// the step's JSON reply, so later agents see it in the conversation as well.
+public class ToolStage extends BaseAgent {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final String stateKey;
+    private final Callable<Map<String, Object>> tool;
+
+    public ToolStage(String name, String description, String stateKey, Callable<Map<String, Object>> tool) {
+        super(name, description, List.of(), null, null);
+        this.stateKey = stateKey;
+        this.tool = tool;
+    }
+
+    @Override
+    protected Flowable<Event> runAsyncImpl(InvocationContext ctx) {
+        // Gmail calls block; keep them off the caller's thread
+        return Flowable.fromCallable(() -> reply(ctx, call())).subscribeOn(Schedulers.io());
+    }
+
+    @Override
+    protected Flowable<Event> runLiveImpl(InvocationContext ctx) {
+        return runAsyncImpl(ctx);
+    }
+
+    // Tool failures become an error result, as a tool call made by a model would report them; it is
+    // emitted and stored under stateKey like any result, so the next agent sees what went wrong.
+    // Metered like a tool call too, under the stage's name.
+    private Map<String, Object> call() {
+        long start = System.nanoTime();
+        long bytes = 0;
+        boolean failed = true;
+        try (PayloadMeter.Scope scope = PayloadMeter.open(name())) {
+            Map<String, Object> result = tool.call();
+            bytes = scope.bytes();
+            failed = false;
+            return result;
+        } catch (Exception e) {
+            Map<String, Object> error = new LinkedHashMap<>();
+            error.put("status", "error");
+            error.put("tool", name());
+            // some exceptions carry no message; the type still says what failed
+            error.put("error", e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+            return error;
+        } finally {
+            Metrics.toolCall(name(), System.nanoTime() - start, bytes, failed);
+        }
+    }
+
+    private Event reply(InvocationContext ctx, Map<String, Object> result) throws Exception {
+        String json = MAPPER.writeValueAsString(result);
+        ConcurrentHashMap<String, Object> delta = new ConcurrentHashMap<>();
+        delta.put(stateKey, json);
+        return Event.builder()
+                .id(Event.generateEventId())
+                .invocationId(ctx.invocationId())
+                .author(name())
+                .branch(ctx.branch().orElse(null))
+                .content(Content.builder().role("model").parts(List.of(Part.fromText(json))).build())
+                .actions(EventActions.builder().stateDelta(delta).build())
+                .build();
+    }
+}
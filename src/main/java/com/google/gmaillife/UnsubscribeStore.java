@@ -0,0 +1,170 @@
+package com.google.gmaillife;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.services.gmail.model.Message;
+import com.google.gmaillife.model.UnsubscribeRecord;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Remembers unsubscribe outcomes so repeat requests for the same list are answered locally.
+// Every attempt is stored under each key the message yields: List-Id, normalized HTTP target,
+// mailto address and sender domain. Lookups use only the message's most specific key, so a
+// shared ESP domain never stands in for a list that has its own List-Id. HTTP targets keep the
+// query parameters that name the account and list, since many lists share one ESP endpoint.
+public class UnsubscribeStore {
+
+    // Failed attempts are not retried before this much time has passed
+    static final long RETRY_AFTER_MS = 24L * 60 * 60 * 1000;
+
+    // Mail from these domains says nothing about which list it came from
+    private static final Set<String> SHARED_DOMAINS = Set.of(
+            "gmail.com", "googlemail.com", "outlook.com", "hotmail.com", "live.com", "yahoo.com", "icloud.com", "aol.com");
+
+    private static final Pattern ANGLE_BRACKETS = Pattern.compile("<([^>]+)>");
+    private static final Pattern EMAIL = Pattern.compile("[\\w.%+-]+@([\\w-]+(?:\\.[\\w-]+)+)");
+
+    // Query parameters ESPs use for the account and list rather than the recipient, e.g. Mailchimp's
+    // list-manage.com/unsubscribe?u=<account>&id=<list>&e=<recipient> or Klaviyo's
+    // kmail-lists.com/subscriptions/unsubscribe?a=<account>&g=<list>&c=<recipient>
+    private static final Set<String> LIST_PARAMS = Set.of("u", "id", "a", "g", "list", "list_id", "listid", "lid");
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final Path file;
+    private final Map<String, UnsubscribeRecord> records = new ConcurrentHashMap<>();
+
+    private UnsubscribeStore(Path file) {
+        this.file = file;
+    }
+
+    public static UnsubscribeStore open(Path file) throws IOException {
+        UnsubscribeStore store = new UnsubscribeStore(file);
+        if (file.getParent() != null) Files.createDirectories(file.getParent());
+        if (Files.exists(file)) {
+            List<UnsubscribeRecord> saved = MAPPER.readValue(file.toFile(), new TypeReference<List<UnsubscribeRecord>>() {});
+            for (UnsubscribeRecord r : saved) {
+                store.records.put(r.getKey(), r);
+            }
+        }
+        return store;
+    }
+
+    public int size() {
+        return records.size();
+    }
+
+    // Record that settles this message's unsubscribe without any network work:
+    // a success, or a failure younger than RETRY_AFTER_MS. Null means go ahead and try.
+    public UnsubscribeRecord lookup(Message msg) {
+        List<String> keys = keys(msg);
+        if (keys.isEmpty()) return null;
+        UnsubscribeRecord r = records.get(keys.get(0));
+        if (r == null) return null;
+        if ("ok".equals(r.getStatus())) return r;
+        return System.currentTimeMillis() - r.getLastAttempt() < RETRY_AFTER_MS ? r : null;
+    }
+
+    public boolean isUnsubscribed(Message msg) {
+        UnsubscribeRecord r = lookup(msg);
+        return r != null && "ok".equals(r.getStatus());
+    }
+
+    public synchronized void record(Message msg, String status, String method) throws IOException {
+        long now = System.currentTimeMillis();
+        for (String key : keys(msg)) {
+            UnsubscribeRecord r = records.computeIfAbsent(key, k -> {
+                UnsubscribeRecord fresh = new UnsubscribeRecord();
+                fresh.setKey(k);
+                return fresh;
+            });
+            // a later failure through another key must not undo a confirmed unsubscribe
+            if ("ok".equals(r.getStatus()) && !"ok".equals(status)) continue;
+            r.setStatus(status);
+            r.setMethod(method);
+            r.setMessageId(msg.getId());
+            r.setAttempts(r.getAttempts() + 1);
+            r.setLastAttempt(now);
+        }
+        save();
+    }
+
+    // Store keys for a message, most specific first
+    static List<String> keys(Message msg) {
+        List<String> keys = new ArrayList<>(4);
+        HeaderIndex headers = HeaderIndex.of(msg);
+
+        String listId = headers.listId();
+        if (listId != null && !listId.isBlank()) {
+            Matcher m = ANGLE_BRACKETS.matcher(listId);
+            keys.add("list:" + (m.find() ? m.group(1) : listId).trim().toLowerCase(Locale.ROOT));
+        }
+
+        String unsubscribe = headers.listUnsubscribe();
+        String httpLink = UnsubscriberBot.listUnsubscribeLink(unsubscribe, true);
+        String url = httpLink == null ? null : normalizeUrl(httpLink);
+        if (url != null) keys.add("url:" + url);
+        String mailto = UnsubscriberBot.listUnsubscribeLink(unsubscribe, false);
+        if (mailto != null) keys.add("mailto:" + normalizeMailto(mailto));
+
+        Matcher m = EMAIL.matcher(headers.from());
+        if (m.find()) {
+            String domain = m.group(1).toLowerCase(Locale.ROOT);
+            if (!SHARED_DOMAINS.contains(domain)) keys.add("domain:" + domain);
+        }
+        return keys;
+    }
+
+    // Host, path and the LIST_PARAMS in name order: the rest of the query usually carries a
+    // per-recipient token that differs on every message
+    static String normalizeUrl(String url) {
+        try {
+            URI uri = URI.create(url.trim());
+            if (uri.getHost() == null) return null;
+            String host = uri.getHost().toLowerCase(Locale.ROOT);
+            if (host.startsWith("www.")) host = host.substring(4);
+            String path = uri.getPath() == null ? "" : uri.getPath();
+            while (path.endsWith("/")) path = path.substring(0, path.length() - 1);
+            return host + path + listParams(uri.getRawQuery());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String listParams(String query) {
+        if (query == null || query.isEmpty()) return "";
+        Map<String, String> kept = new TreeMap<>();
+        for (String param : query.split("&")) {
+            int eq = param.indexOf('=');
+            if (eq <= 0 || eq == param.length() - 1) continue;
+            String name = param.substring(0, eq).toLowerCase(Locale.ROOT);
+            if (LIST_PARAMS.contains(name)) kept.putIfAbsent(name, param.substring(eq + 1));
+        }
+        if (kept.isEmpty()) return "";
+        StringJoiner joined = new StringJoiner("&", "?", "");
+        kept.forEach((name, value) -> joined.add(name + "=" + value));
+        return joined.toString();
+    }
+
+    static String normalizeMailto(String mailto) {
+        String to = mailto.replaceFirst("(?i)^mailto:", "").trim();
+        int q = to.indexOf('?');
+        if (q >= 0) to = to.substring(0, q);
+        return to.toLowerCase(Locale.ROOT);
+    }
+
+    // Small file: rewritten whole and swapped in atomically
+    private void save() throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        MAPPER.writeValue(tmp.toFile(), new ArrayList<>(records.values()));
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -1,66 +1,130 @@
 package com.google.gmaillife;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.adk.tools.Annotations.Schema;
 import com.google.api.services.gmail.Gmail;
 import com.google.api.services.gmail.model.*;
 import com.google.api.services.gmail.model.Thread;
+import com.google.gmaillife.model.EmailFull;
+import com.google.gmaillife.model.EmailSummary;
+import com.google.gmaillife.model.UnsubscribeRecord;
 import jakarta.mail.Session;
 import jakarta.mail.internet.InternetAddress;
 import jakarta.mail.internet.MimeMessage;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
 
 import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class UnsubscriberBot {
 
     private final Gmail gmail;
-    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private final MessageFetcher fetcher;
+    private final GmailExecutor executor;
+    private final HttpUnsubscriber http;
+    private final UnsubscribeStore store;
+    // Outcomes the store failed to save, for /metrics
+    private final LongAdder storeFailures = new LongAdder();
+    private volatile boolean compactResults;
+
+    // Gmail caps messages.batchModify at 1000 IDs
+    static final int BATCH_MODIFY_SIZE = 1000;
+
+    // Listing tools only read Subject/From/Date and snippet, so they never pull the MIME tree
+    static final Projection SUMMARY = Projection.of(Set.of(Projection.Field.SNIPPET), "Subject", "From", "Date");
+    // labels, date and size ride along so full fetches can be written through to the metadata cache
+    static final Projection FULL = Projection.of(Set.of(Projection.Field.THREAD_ID, Projection.Field.LABELS,
+            Projection.Field.SNIPPET, Projection.Field.INTERNAL_DATE, Projection.Field.SIZE_ESTIMATE, Projection.Field.BODY));
+    // analyzeEmailBatch also reads the list headers, to flag senders already unsubscribed from
+    static final Projection ANALYZE = Projection.of(Set.of(Projection.Field.SNIPPET),
+            "Subject", "From", "Date", "List-Id", "List-Unsubscribe");
+    // Bulk unsubscribe works from headers alone (all held by the metadata cache)
+    static final Projection UNSUBSCRIBE_HEADERS = Projection.of(Set.of(),
+            "From", "List-Id", "List-Unsubscribe", "List-Unsubscribe-Post");
+
+    // Message bodies are decoded up to this many bytes
+    static final int MAX_BODY_BYTES = 512 * 1024;
+
+    // bulkUnsubscribe looks at no more than this many matching messages
+    static final int MAX_BULK_MESSAGES = 2000;
+
+    // Token budgets for list results in compact mode; snippets are cut to fit
+    static final int SEARCH_TOKEN_BUDGET = 1500;
+    static final int ANALYZE_TOKEN_BUDGET = 2500;
+    static final int LOCAL_TOKEN_BUDGET = 1200;
+
+    private static final Pattern ANGLE_BRACKETS = Pattern.compile("<([^>]+)>");
 
     public UnsubscriberBot(Gmail gmail) {
+        this(gmail, new MessageFetcher(gmail));
+    }
+
+    public UnsubscriberBot(Gmail gmail, MessageFetcher fetcher) {
+        this(gmail, fetcher, null);
+    }
+
+    // With a store, lists already left are answered locally instead of being unsubscribed again
+    public UnsubscriberBot(Gmail gmail, MessageFetcher fetcher, UnsubscribeStore store) {
         this.gmail = gmail;
+        this.fetcher = fetcher;
+        this.executor = fetcher.executor();
+        this.http = new HttpUnsubscriber();
+        this.store = store;
+    }
+
+    // Compact mode returns list results as columns/rows with a sender dictionary (see CompactResult)
+    public void setCompactResults(boolean compactResults) {
+        this.compactResults = compactResults;
+    }
+
+    public boolean compactResults() {
+        return compactResults;
+    }
+
+    // rows are EmailSummary projections, error maps or (searchLocal) hit maps
+    @SuppressWarnings("unchecked")
+    private Object rows(List<?> rows, int tokenBudget) {
+        if (!compactResults) return rows;
+        List<Map<String, Object>> maps = new ArrayList<>(rows.size());
+        for (Object row : rows) {
+            maps.add(row instanceof EmailSummary summary ? summary.toMap() : (Map<String, Object>) row);
+        }
+        return CompactResult.encode(maps, tokenBudget);
     }
 
     @Schema(name = "analyzeEmailBatch", description = "Analyze unread promotional emails")
     public Map<String, Object> analyzeEmailBatch() throws Exception {
+        try (var meter = PayloadMeter.open("analyzeEmailBatch")) {
+            // Query promotional unread emails and fetch only the headers we report
+            // answered from the metadata cache when it holds the whole mailbox
+            ListMessagesResponse response = fetcher.list("category:promotions is:unread", 50L, null);
+
+            // EmailSummary rows, or error maps for messages that failed
+            List<Object> arr = new ArrayList<>();
+
+            // gets are batched, failures reported per item
+            MessageFetcher.Result fetched = fetcher.fetch(response, ANALYZE);
+
+            for (String id : fetched.ids()) {
+                Message full = fetched.message(id);
+                if (full == null) {
+                    arr.add(fetched.errorItem(id));
+                    continue;
+                }
 
-        // Query promotional unread emails and fetch full metadata (headers may be in payload only in full)
-        ListMessagesResponse response = gmail.users().messages()
-                .list("me")
-                .setQ("category:promotions is:unread")
-                .setMaxResults(50L)
-                .execute();
-
-        List<Map<String,Object>> arr = new ArrayList<>();
-
-        if (response.getMessages() != null) {
-            for (Message msg : response.getMessages()) {
-                Message full = gmail.users().messages()
-                        .get("me", msg.getId())
-                        .setFormat("full") // full to get headers consistently
-                        .execute();
-
-                Map<String,Object> item = new LinkedHashMap<>();
-                item.put("id", msg.getId());
-                item.put("subject", getHeader(full, "Subject"));
-                item.put("from", getHeader(full, "From"));
-                item.put("snippet", full.getSnippet());
-                item.put("date", getHeader(full, "Date"));
-                arr.add(item);
+                HeaderIndex h = HeaderIndex.of(full);
+                // local lookup only; lets the decider skip lists that were already left
+                boolean unsubscribed = store != null && store.isUnsubscribed(full);
+                arr.add(new EmailSummary(id, h.subject(), h.from(), h.date(), full.getSnippet(), unsubscribed));
             }
-        }
 
-        return Map.of("items", arr);
+            return Map.of("items", rows(arr, ANALYZE_TOKEN_BUDGET));
+        }
     }
 
     @Schema(name = "trashEmail", description = "Trash an email by ID")
@@ -69,7 +133,8 @@ public class UnsubscriberBot {
             String messageId
     ) throws Exception {
 
-        gmail.users().messages().trash("me", messageId).execute();
+        executor.execute(GmailMethod.MESSAGES_TRASH, gmail.users().messages().trash("me", messageId));
+        fetcher.labelsChanged(messageId, List.of("TRASH"), List.of());
 
         return Map.of(
                 "status", "ok",
@@ -85,7 +150,8 @@ public class UnsubscriberBot {
         ModifyMessageRequest mods = new ModifyMessageRequest()
                 .setRemoveLabelIds(List.of("UNREAD"));
 
-        gmail.users().messages().modify("me", messageId, mods).execute();
+        executor.execute(GmailMethod.MESSAGES_MODIFY, gmail.users().messages().modify("me", messageId, mods));
+        fetcher.labelsChanged(messageId, List.of(), mods.getRemoveLabelIds());
 
         return Map.of(
                 "status", "ok",
@@ -101,183 +167,218 @@ public class UnsubscriberBot {
         ModifyMessageRequest req = new ModifyMessageRequest()
                 .setRemoveLabelIds(List.of("INBOX"));
 
-        gmail.users().messages().modify("me", id, req).execute();
+        executor.execute(GmailMethod.MESSAGES_MODIFY, gmail.users().messages().modify("me", id, req));
+        fetcher.labelsChanged(id, List.of(), req.getRemoveLabelIds());
 
         return Map.of("status", "ok", "id", id);
     }
 
-    @Schema(name = "searchEmails", description = "Search emails")
-    public Map<String, Object> searchEmails(
-            @Schema(description = "Gmail search query") String query
+    @Schema(name = "archiveEmails", description = "Archive many emails in one call; returns the IDs archived and the ones that failed")
+    public Map<String, Object> archiveEmails(
+            @Schema(description = "IDs of the emails to archive") List<String> messageIds
     ) throws Exception {
+        return batchModify(messageIds, List.of(), List.of("INBOX"));
+    }
 
-        if (query == null || query.isBlank()) {
-            query = "in:anywhere"; // safer default than from:me
-        }
+    @Schema(name = "markAsReadBulk", description = "Mark many emails as read in one call; returns the IDs updated and the ones that failed")
+    public Map<String, Object> markAsReadBulk(
+            @Schema(description = "IDs of the emails to mark as read") List<String> messageIds
+    ) throws Exception {
+        return batchModify(messageIds, List.of(), List.of("UNREAD"));
+    }
 
-        long maxResults = 25L;
+    @Schema(name = "trashEmails", description = "Trash many emails in one call; returns the IDs trashed and the ones that failed")
+    public Map<String, Object> trashEmails(
+            @Schema(description = "IDs of the emails to trash") List<String> messageIds
+    ) throws Exception {
 
-        var response = gmail.users().messages().list("me")
-                .setQ(query)
-                .setMaxResults(maxResults)
-                .execute();
+        List<String> ids = distinctIds(messageIds);
+        List<String> ok = new ArrayList<>();
+        Map<String, String> failed = new LinkedHashMap<>();
 
-        List<Map<String,Object>> arr = new ArrayList<>();
+        // there is no batchTrash endpoint, so trashes go out as batch HTTP requests
+        executor.executeBatch(GmailMethod.MESSAGES_TRASH, ids,
+                id -> gmail.users().messages().trash("me", id),
+                (id, message) -> ok.add(id),
+                failed::put);
 
-        if (response.getMessages() != null) {
-            for (var m : response.getMessages()) {
-                var full = gmail.users().messages()
-                        .get("me", m.getId())
-                        .setFormat("full") // full to reliably get headers and body when needed
-                        .execute();
+        fetcher.labelsChanged(ok, List.of("TRASH"), List.of());
+        return bulkResult(ok, failed);
+    }
 
-                Map<String,Object> email = new LinkedHashMap<>();
-                email.put("id", m.getId());
-                email.put("subject", getHeader(full, "Subject"));
-                email.put("from", getHeader(full, "From"));
-                email.put("date", getHeader(full, "Date"));
-                email.put("snippet", full.getSnippet());
-                // don't put full body here (avoid large payloads)
-                arr.add(email);
+    // batchModify takes up to 1000 IDs per call; a failed call fails every ID in its chunk
+    private Map<String, Object> batchModify(List<String> messageIds, List<String> add, List<String> remove) throws Exception {
+        List<String> ids = distinctIds(messageIds);
+        List<String> ok = new ArrayList<>();
+        Map<String, String> failed = new LinkedHashMap<>();
+
+        for (int start = 0; start < ids.size(); start += BATCH_MODIFY_SIZE) {
+            List<String> chunk = ids.subList(start, Math.min(ids.size(), start + BATCH_MODIFY_SIZE));
+            BatchModifyMessagesRequest req = new BatchModifyMessagesRequest()
+                    .setIds(chunk)
+                    .setAddLabelIds(add)
+                    .setRemoveLabelIds(remove);
+            try {
+                executor.execute(GmailMethod.MESSAGES_BATCH_MODIFY, gmail.users().messages().batchModify("me", req));
+                ok.addAll(chunk);
+            } catch (IOException e) {
+                for (String id : chunk) {
+                    failed.put(id, String.valueOf(e.getMessage()));
+                }
             }
         }
 
-        return Map.of("items", arr);
+        fetcher.labelsChanged(ok, add, remove);
+        return bulkResult(ok, failed);
     }
 
-    @Schema(name = "getEmail", description = "Get full email")
-    public Map<String, Object> getEmail(String messageId) throws Exception {
-
-        Message message = gmail.users().messages().get("me", messageId).setFormat("full").execute();
-
-        String body = extractBody(message);
-
-        Map<String,Object> result = new LinkedHashMap<>();
-        result.put("id", message.getId());
-        result.put("subject", getHeader(message,"Subject"));
-        result.put("from", getHeader(message,"From"));
-        result.put("date", getHeader(message,"Date"));
-        result.put("snippet", message.getSnippet());
-        result.put("body", body);
+    private static List<String> distinctIds(List<String> messageIds) {
+        if (messageIds == null) return List.of();
+        List<String> ids = new ArrayList<>(new LinkedHashSet<>(messageIds));
+        ids.removeIf(id -> id == null || id.isBlank());
+        return ids;
+    }
 
+    private static Map<String, Object> bulkResult(List<String> ok, Map<String, String> failed) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("status", failed.isEmpty() ? "ok" : ok.isEmpty() ? "error" : "partial");
+        result.put("processed", ok.size());
+        result.put("ok", ok);
+        result.put("failed", failed);
         return result;
     }
 
-    @Schema(name = "getThread", description = "Get thread")
-    public Map<String, Object> getThread(String threadId) throws Exception {
+    @Schema(name = "searchEmails", description = "Search emails")
+    public Map<String, Object> searchEmails(
+            @Schema(description = "Gmail search query") String query,
+            @Schema(description = "nextCursor from a previous searchEmails result to get the following page; empty string for the first page") String cursor
+    ) throws Exception {
+        try (var meter = PayloadMeter.open("searchEmails")) {
+            if (query == null || query.isBlank()) {
+                query = "in:anywhere"; // safer default than from:me
+            }
 
-        Thread thread = gmail.users().threads().get("me", threadId).execute();
-        List<Map<String,Object>> messages = new ArrayList<>();
+            long maxResults = 25L;
 
-        for (Message msg : thread.getMessages()) {
+            // page size, not a cap: further pages are reachable through the returned cursor
+            var response = fetcher.list(query, maxResults, cursor);
 
-            Map<String,Object> one = new LinkedHashMap<>();
-            one.put("id", msg.getId());
-            one.put("subject", getHeader(msg,"Subject"));
-            one.put("from", getHeader(msg,"From"));
-            one.put("date", getHeader(msg,"Date"));
-            one.put("snippet", msg.getSnippet());
-            one.put("body", extractBody(msg));
+            List<Object> arr = new ArrayList<>();
 
-            messages.add(one);
-        }
+            MessageFetcher.Result fetched = fetcher.fetch(response, SUMMARY);
 
-        return Map.of("items", messages);
-    }
+            for (String id : fetched.ids()) {
+                Message full = fetched.message(id);
+                if (full == null) {
+                    arr.add(fetched.errorItem(id));
+                    continue;
+                }
 
-    // robust header fetch
-    private String getHeader(Message message, String name) {
-        if (message == null || message.getPayload() == null || message.getPayload().getHeaders() == null) return "";
-        return message.getPayload().getHeaders().stream()
-                .filter(h -> name.equalsIgnoreCase(h.getName()))
-                .map(MessagePartHeader::getValue)
-                .findFirst()
-                .orElse("");
-    }
+                // don't put full body here (avoid large payloads)
+                arr.add(HeaderIndex.summary(id, full));
+            }
 
-    // extract body: prefer HTML if possible, otherwise text
-    private String extractBody(Message message) {
-        try {
-            if (message == null || message.getPayload() == null) return "";
-            String html = getHtmlBodyFromMessage(message);
-            if (html != null && !html.isBlank()) {
-                // try to strip tags lightly for summary purposes
-                return Jsoup.parse(html).text();
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("items", rows(arr, SEARCH_TOKEN_BUDGET));
+            if (response.getNextPageToken() != null) {
+                result.put("nextCursor", response.getNextPageToken());
             }
-            // fallback to concatenating text parts
-            return extractParts(message.getPayload());
-        } catch (Exception e) {
-            return "";
+            return result;
         }
     }
 
-    private String extractParts(MessagePart part) throws Exception {
-        if (part == null) return "";
+    @Schema(name = "searchLocal", description = "Full-text search over the subjects, senders, snippets and bodies of mail already seen, ranked by relevance; fast, no Gmail calls")
+    public Map<String, Object> searchLocal(
+            @Schema(description = "Words to look for, e.g. wedding photos") String query,
+            @Schema(description = "Maximum number of hits, e.g. 20") int limit
+    ) throws Exception {
+        long start = System.currentTimeMillis();
+        List<Map<String, Object>> hits = fetcher.searchIndex(query, Math.max(1, Math.min(limit, 100)));
+        if (hits == null) {
+            return Map.of("status", "error", "message", "No local index; use searchEmails instead");
+        }
 
-        StringBuilder sb = new StringBuilder();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("status", "ok");
+        result.put("hits", rows(hits, LOCAL_TOKEN_BUDGET));
+        result.put("indexed", fetcher.index().size());
+        result.put("tookMs", System.currentTimeMillis() - start);
+        return result;
+    }
 
-        // If this part has body data
-        if (part.getBody() != null && part.getBody().getData() != null) {
-            try {
-                byte[] data = Base64.getUrlDecoder().decode(part.getBody().getData());
-                String decoded = new String(data, StandardCharsets.UTF_8);
-                sb.append(decoded);
-            } catch (IllegalArgumentException ignored) {
-                // ignore bad base64; continue
-            }
+    @Schema(name = "getEmail", description = "Get full email")
+    public Map<String, Object> getEmail(String messageId) throws Exception {
+        try (var meter = PayloadMeter.open("getEmail")) {
+            Message message = fetcher.fetchOne(messageId, FULL);
+
+            String body = MimeView.of(message, MAX_BODY_BYTES).text();
+            fetcher.index(message, body);
+
+            return HeaderIndex.full(message, body).toMap();
         }
+    }
 
-        // Recurse multipart
-        if (part.getParts() != null) {
-            for (MessagePart p : part.getParts()) {
-                sb.append(extractParts(p));
+    @Schema(name = "getThread", description = "Get thread")
+    public Map<String, Object> getThread(String threadId) throws Exception {
+        try (var meter = PayloadMeter.open("getThread")) {
+            Thread thread = executor.execute(GmailMethod.THREADS_GET, () -> gmail.users().threads().get("me", threadId)
+                    .setFormat("full")
+                    .setFields("messages(" + FULL.fieldsMask() + ")"));
+            List<EmailFull> messages = new ArrayList<>();
+
+            for (Message msg : thread.getMessages()) {
+                String body = MimeView.of(msg, MAX_BODY_BYTES).text();
+                fetcher.index(msg, body);
+                messages.add(HeaderIndex.full(msg, body));
             }
-        }
 
-        return sb.toString();
+            return Map.of("items", messages);
+        }
     }
 
     @Schema(name = "unsubscribeEmail", description = "Unsubscribe user from a mailing list using message ID")
     public Map<String, Object> unsubscribeEmail(
             @Schema(description = "Gmail message ID") String messageId
     ) throws Exception {
+        try (var meter = PayloadMeter.open("unsubscribeEmail")) {
+            if (store == null) return attemptUnsubscribe(messageId);
 
+            // headers are normally cached, and a list we already left needs nothing more
+            Message headers = fetcher.fetchOne(messageId, UNSUBSCRIBE_HEADERS);
+            UnsubscribeRecord known = store.lookup(headers);
+            if (known != null) return knownResult(messageId, known);
+
+            Map<String, Object> result = attemptUnsubscribe(messageId);
+            remember(headers, result);
+            return result;
+        }
+    }
+
+    private Map<String, Object> attemptUnsubscribe(String messageId) throws Exception {
         // 1) Load Gmail message (full required)
-        Message msg = gmail.users().messages()
-                .get("me", messageId)
-                .setFormat("full")
-                .execute();
+        Message msg = fetcher.fetchOne(messageId, FULL);
+        // decoded once, shared by the link search and the mailto search below
+        MimeView body = MimeView.of(msg, MAX_BODY_BYTES);
 
-        String header = getHeaderIgnoreCase(msg, "List-Unsubscribe");
+        HeaderIndex headers = HeaderIndex.of(msg);
+        String header = headers.listUnsubscribe();
         System.out.println("List-Unsubscribe header = " + header);
 
-        String httpLink = null;
-        String mailtoLink = null;
-
-        if (header != null && !header.isBlank()) {
-            Matcher m = Pattern.compile("<([^>]+)>").matcher(header);
-            while (m.find()) {
-                String link = m.group(1).trim();
-                if (link.startsWith("http://") || link.startsWith("https://")) {
-                    httpLink = link;
-                } else if (link.startsWith("mailto:")) {
-                    mailtoLink = link;
-                }
-            }
-        }
+        String httpLink = listUnsubscribeLink(header, true);
+        String mailtoLink = listUnsubscribeLink(header, false);
 
         // 3) Try HTTP unsubscribe (preferred)
         if (httpLink != null) {
-            Map<String, Object> res = tryHttpUnsubscribe(httpLink, messageId);
+            Map<String, Object> res = tryHttpUnsubscribe(httpLink, isOneClick(headers.listUnsubscribePost()), messageId);
             if (res != null) return res;
         }
 
         // 4) Parse HTML body to find unsubscribe links
-        String htmlBody = getHtmlBodyFromMessage(msg);
+        String htmlBody = body.html();
         if (htmlBody != null && !htmlBody.isBlank()) {
-            String linkFromHtml = findUnsubscribeLinkInHtml(htmlBody);
+            String linkFromHtml = body.scan().unsubscribeLink();
             if (linkFromHtml != null) {
-                Map<String, Object> res = tryHttpUnsubscribe(linkFromHtml, messageId);
+                Map<String, Object> res = tryHttpUnsubscribe(linkFromHtml, false, messageId);
                 if (res != null) return res;
             }
         }
@@ -313,7 +414,7 @@ public class UnsubscriberBot {
 
         // 6) If HTML contained a mailto
         if (htmlBody != null && !htmlBody.isBlank()) {
-            String mailtoFromHtml = findMailtoInHtml(htmlBody);
+            String mailtoFromHtml = body.scan().mailto();
             if (mailtoFromHtml != null) {
                 try {
                     boolean sent = sendMailtoUnsubscribe(mailtoFromHtml);
@@ -351,95 +452,174 @@ public class UnsubscriberBot {
         );
     }
 
-    // Try HTTP unsubscribe (GET then POST), return success map or null
-    private Map<String, Object> tryHttpUnsubscribe(String urlStr, String messageId) {
-        try {
-            System.out.println("Trying HTTP unsubscribe: " + urlStr);
-
-            URL url = new URL(urlStr);
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setInstanceFollowRedirects(true);
-            conn.setConnectTimeout(8000);
-            conn.setReadTimeout(8000);
-
-            // GET
-            conn.setRequestMethod("GET");
-            int code = conn.getResponseCode();
-            String contentType = conn.getContentType();
-            System.out.println("GET -> " + code + " Content-Type: " + contentType);
-
-            if (isConfirmedUnsub(code, conn, contentType)) {
-                return Map.of("status", "ok", "method", "http-get", "id", messageId, "action", "unsubscribed");
+    // Answer for a message whose list is already in the store
+    private static Map<String, Object> knownResult(String messageId, UnsubscribeRecord known) {
+        Map<String, Object> r = new LinkedHashMap<>();
+        boolean ok = "ok".equals(known.getStatus());
+        r.put("status", ok ? "ok" : "skipped");
+        r.put("id", messageId);
+        r.put(ok ? "action" : "reason", ok ? "already-unsubscribed" : "recent-attempt-failed");
+        r.put("method", known.getMethod());
+        r.put("lastAttempt", known.getLastAttempt());
+        return r;
+    }
+
+    @Schema(name = "bulkUnsubscribe", description = "Unsubscribe from every sender with mail matching a Gmail search query; one attempt per sender, run concurrently")
+    public Map<String, Object> bulkUnsubscribe(
+            @Schema(description = "Gmail search query selecting the senders, e.g. category:promotions older_than:30d") String query
+    ) throws Exception {
+        try (var meter = PayloadMeter.open("bulkUnsubscribe")) {
+            List<String> ids = new ArrayList<>();
+            try (MailboxIterator pages = MailboxIterator.scan(fetcher, query)) {
+                while (pages.hasNext() && ids.size() < MAX_BULK_MESSAGES) {
+                    ids.addAll(pages.next());
+                }
+            }
+            if (ids.size() > MAX_BULK_MESSAGES) ids = ids.subList(0, MAX_BULK_MESSAGES);
+
+            // list order is newest first, so each sender keeps its most recent message
+            MessageFetcher.Result fetched = fetcher.fetch(ids, UNSUBSCRIBE_HEADERS);
+            Map<String, Message> senders = new LinkedHashMap<>();
+            for (String id : ids) {
+                Message m = fetched.message(id);
+                if (m != null) senders.putIfAbsent(senderKey(HeaderIndex.of(m)), m);
             }
 
-            // POST attempt (some endpoints require POST)
-            HttpURLConnection postConn = (HttpURLConnection) url.openConnection();
-            postConn.setInstanceFollowRedirects(true);
-            postConn.setConnectTimeout(8000);
-            postConn.setReadTimeout(8000);
-            postConn.setRequestMethod("POST");
-            postConn.setDoOutput(true);
-            // Try empty POST body
-            int postCode = postConn.getResponseCode();
-            String postCT = postConn.getContentType();
-            System.out.println("POST -> " + postCode + " Content-Type: " + postCT);
-
-            if (isConfirmedUnsub(postCode, postConn, postCT)) {
-                return Map.of("status", "ok", "method", "http-post", "id", messageId, "action", "unsubscribed");
+            List<Future<Map<String, Object>>> pending = new ArrayList<>();
+            try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (var entry : senders.entrySet()) {
+                    pending.add(workers.submit(PayloadMeter.propagate(() -> unsubscribeSender(entry.getKey(), entry.getValue()))));
+                }
             }
 
-        } catch (Exception e) {
-            System.out.println("HTTP unsubscribe failed: " + e);
+            List<Map<String, Object>> results = new ArrayList<>();
+            int unsubscribed = 0;
+            int alreadyUnsubscribed = 0;
+            for (Future<Map<String, Object>> f : pending) {
+                Map<String, Object> r = f.get();
+                if ("ok".equals(r.get("status"))) unsubscribed++;
+                if ("already-unsubscribed".equals(r.get("action"))) alreadyUnsubscribed++;
+                results.add(r);
+            }
+
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("status", unsubscribed == results.size() ? "ok" : unsubscribed == 0 ? "error" : "partial");
+            result.put("messagesScanned", ids.size());
+            result.put("senders", results.size());
+            result.put("unsubscribed", unsubscribed);
+            result.put("alreadyUnsubscribed", alreadyUnsubscribed);
+            result.put("results", results);
+            return result;
         }
-        return null;
     }
 
-    // Decide if response indicates a confirmed unsubscribe (avoid false positives)
-    // Make conservative checks: 204/205 ok, JSON success ok, plain HTML only if explicit "you have been unsubscribed" visible
-    private boolean isConfirmedUnsub(int code, HttpURLConnection conn, String contentType) {
-        try {
-            if (code == 204 || code == 205) return true;
-
-            if (code >= 300 && code < 400) return false; // redirect — not a confirmation
-
-            if (code == 200) {
-                if (contentType != null && contentType.toLowerCase().contains("application/json")) {
-                    try (InputStream is = conn.getInputStream()) {
-                        String json = new String(is.readAllBytes(), StandardCharsets.UTF_8).toLowerCase();
-                        if (json.contains("unsubscribed") || json.contains("success") || json.contains("ok")) {
-                            return true;
-                        }
-                    } catch (Exception ignore) {}
-                }
+    // One sender of a bulk run: header links first, full-body search only when there is no header
+    private Map<String, Object> unsubscribeSender(String sender, Message msg) {
+        Map<String, Object> r = new LinkedHashMap<>();
+        r.put("sender", sender);
+        r.put("id", msg.getId());
 
-                // For HTML, be conservative: only accept if explicit phrases appear
-                if (contentType != null && contentType.toLowerCase().contains("text/html")) {
-                    try (InputStream is = conn.getInputStream()) {
-                        String body = new String(is.readAllBytes(), StandardCharsets.UTF_8).toLowerCase();
-                        if (body.contains("you have been unsubscribed") ||
-                                body.contains("successfully unsubscribed") ||
-                                body.contains("unsubscribed successfully") ||
-                                body.contains("subscription cancelled")) {
-                            return true;
-                        }
-                    } catch (Exception ignore) {}
-                    return false;
-                }
+        UnsubscribeRecord known = store == null ? null : store.lookup(msg);
+        if (known != null) {
+            r.putAll(knownResult(msg.getId(), known));
+            return r;
+        }
 
-                // Unknown content-type: inspect body as fallback (conservative)
-                try (InputStream is = conn.getInputStream()) {
-                    String body = new String(is.readAllBytes(), StandardCharsets.UTF_8).toLowerCase();
-                    if (body.contains("you have been unsubscribed") ||
-                            body.contains("unsubscribed successfully") ||
-                            body.contains("success")) {
-                        return true;
-                    }
-                } catch (Exception ignore) {}
+        HeaderIndex headers = HeaderIndex.of(msg);
+        String header = headers.listUnsubscribe();
+        String httpLink = listUnsubscribeLink(header, true);
+        String mailtoLink = listUnsubscribeLink(header, false);
+        boolean delegated = false;
+        try {
+            if (httpLink != null) {
+                String method = http.unsubscribe(httpLink, isOneClick(headers.listUnsubscribePost()));
+                if (method != null) {
+                    r.put("status", "ok");
+                    r.put("method", method);
+                    return r;
+                }
+            }
+            if (mailtoLink != null) {
+                sendMailtoUnsubscribe(mailtoLink);
+                r.put("status", "ok");
+                r.put("method", "mailto");
+                return r;
             }
+            if (httpLink == null) {
+                // unsubscribeEmail records its own outcome
+                delegated = true;
+                Map<String, Object> res = unsubscribeEmail(msg.getId());
+                r.putAll(res);
+                r.put("sender", sender);
+                return r;
+            }
+            r.put("status", "error");
+            r.put("reason", "http-unsubscribe-not-confirmed");
         } catch (Exception e) {
-            // treat failures as not confirmed
+            r.put("status", "error");
+            r.put("reason", String.valueOf(e.getMessage()));
+        } finally {
+            if (!delegated) remember(msg, r);
         }
-        return false;
+        return r;
+    }
+
+    private void remember(Message msg, Map<String, Object> result) {
+        if (store == null || "skipped".equals(result.get("status")) || "already-unsubscribed".equals(result.get("action"))) return;
+        try {
+            store.record(msg, String.valueOf(result.get("status")),
+                    String.valueOf(result.getOrDefault("method", result.get("reason"))));
+        } catch (IOException e) {
+            storeFailures.increment();
+        }
+    }
+
+    // HTTP unsubscribe outcomes plus the store's size and save failures
+    public Map<String, Object> unsubscribeStats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("http", http.stats());
+        m.put("storedKeys", store == null ? 0 : store.size());
+        m.put("storeFailures", storeFailures.sum());
+        return m;
+    }
+
+    // List-Id identifies a mailing list across sending addresses; otherwise the From address
+    private static String senderKey(HeaderIndex headers) {
+        String listId = headers.listId();
+        if (listId != null && !listId.isBlank()) {
+            Matcher m = ANGLE_BRACKETS.matcher(listId);
+            return (m.find() ? m.group(1) : listId).trim().toLowerCase(Locale.ROOT);
+        }
+        String from = headers.from();
+        Matcher m = ANGLE_BRACKETS.matcher(from);
+        return (m.find() ? m.group(1) : from).trim().toLowerCase(Locale.ROOT);
+    }
+
+    // First http(s) (or mailto) target in a List-Unsubscribe header, null when absent
+    static String listUnsubscribeLink(String header, boolean httpLink) {
+        if (header == null || header.isBlank()) return null;
+        Matcher m = ANGLE_BRACKETS.matcher(header);
+        while (m.find()) {
+            String link = m.group(1).trim();
+            String lower = link.toLowerCase(Locale.ROOT);
+            if (httpLink && (lower.startsWith("http://") || lower.startsWith("https://"))) return link;
+            if (!httpLink && lower.startsWith("mailto:")) return link;
+        }
+        return null;
+    }
+
+    // RFC 8058: List-Unsubscribe-Post: List-Unsubscribe=One-Click
+    private static boolean isOneClick(String listUnsubscribePost) {
+        return listUnsubscribePost != null
+                && listUnsubscribePost.replace(" ", "").equalsIgnoreCase("List-Unsubscribe=One-Click");
+    }
+
+    // Try HTTP unsubscribe (one-click POST when advertised, else GET then POST), return success map or null
+    private Map<String, Object> tryHttpUnsubscribe(String urlStr, boolean oneClick, String messageId) {
+        System.out.println("Trying HTTP unsubscribe: " + urlStr);
+        String method = http.unsubscribe(urlStr, oneClick);
+        if (method == null) return null;
+        return Map.of("status", "ok", "method", method, "id", messageId, "action", "unsubscribed");
     }
 
     // Build and send mailto unsubscribe as an email via Gmail API (requires Gmail SEND scope)
@@ -466,110 +646,7 @@ public class UnsubscriberBot {
         gmailMsg.setRaw(encoded);
 
         // Note: this requires Gmail API scopes that include send, otherwise this will fail.
-        gmail.users().messages().send("me", gmailMsg).execute();
+        executor.execute(GmailMethod.MESSAGES_SEND, gmail.users().messages().send("me", gmailMsg));
         return true;
     }
-
-    // Extract HTML body from Gmail Message payload, scanning nested parts
-    private String getHtmlBodyFromMessage(com.google.api.services.gmail.model.Message message) {
-        if (message == null || message.getPayload() == null) return null;
-
-        Queue<com.google.api.services.gmail.model.MessagePart> q = new LinkedList<>();
-        q.add(message.getPayload());
-
-        while (!q.isEmpty()) {
-            com.google.api.services.gmail.model.MessagePart part = q.poll();
-            if (part.getParts() != null) {
-                q.addAll(part.getParts());
-            }
-            String mimeType = part.getMimeType();
-            com.google.api.services.gmail.model.MessagePartBody body = part.getBody();
-            if (body == null || body.getData() == null) continue;
-
-            try {
-                String decoded = new String(Base64.getUrlDecoder().decode(body.getData()), StandardCharsets.UTF_8);
-                if (mimeType != null && mimeType.toLowerCase().contains("html")) {
-                    return decoded;
-                }
-                if (decoded.toLowerCase().contains("<html") || decoded.toLowerCase().contains("<a ")) {
-                    return decoded;
-                }
-            } catch (Exception ignored) {}
-        }
-        return null;
-    }
-
-    // Find unsubscribe HTTP link in HTML using Jsoup (conservative)
-    private String findUnsubscribeLinkInHtml(String html) {
-        if (html == null) return null;
-        try {
-            Document doc = Jsoup.parse(html);
-            Elements anchors = doc.select("a[href]");
-            for (Element a : anchors) {
-                String href = a.attr("href");
-                String text = a.text();
-                String hrefLower = href == null ? "" : href.toLowerCase();
-                String textLower = text == null ? "" : text.toLowerCase();
-
-                boolean candidate = false;
-
-                // prefer explicit anchor text
-                if (textLower.contains("unsubscribe") || textLower.contains("opt out") || textLower.contains("manage preferences")) {
-                    candidate = true;
-                }
-                // or explicit href containing unsubscribe
-                if (hrefLower.contains("unsubscribe") || hrefLower.contains("optout") || hrefLower.contains("opt-out")) {
-                    candidate = true;
-                }
-                // rel attribute
-                if (a.hasAttr("rel") && a.attr("rel").toLowerCase().contains("unsub")) {
-                    candidate = true;
-                }
-
-                if (candidate) {
-                    // prefer http(s) links
-                    if (hrefLower.startsWith("http://") || hrefLower.startsWith("https://")) {
-                        return href;
-                    }
-                    if (hrefLower.startsWith("mailto:")) return href;
-                    // sometimes links are relative; attempt to resolve absolute via base href if present (naive)
-                    String base = doc.baseUri();
-                    if (base != null && !base.isBlank() && href.startsWith("/")) {
-                        return base + href;
-                    }
-                }
-            }
-
-            // fallback: look for any URL-like text containing 'unsubscribe'
-            Pattern p = Pattern.compile("(https?://[^\\s\"'>]*unsubscribe[^\\s\"'>]*)", Pattern.CASE_INSENSITIVE);
-            Matcher m = p.matcher(html);
-            if (m.find()) return m.group(1);
-
-        } catch (Exception e) {
-            System.out.println("Jsoup parse error: " + e);
-        }
-        return null;
-    }
-
-    // Find mailto: inside HTML body (if present)
-    private String findMailtoInHtml(String html) {
-        if (html == null) return null;
-        Pattern p = Pattern.compile("mailto:([\\w.%+-]+@[\\w.-]+\\.[A-Za-z]{2,})", Pattern.CASE_INSENSITIVE);
-        Matcher m = p.matcher(html);
-        if (m.find()) {
-            return "mailto:" + m.group(1);
-        }
-        return null;
-    }
-
-    // Helper: case-insensitive header lookup
-    private String getHeaderIgnoreCase(com.google.api.services.gmail.model.Message msg, String name) {
-        if (msg == null || msg.getPayload() == null || msg.getPayload().getHeaders() == null) return null;
-        for (com.google.api.services.gmail.model.MessagePartHeader h : msg.getPayload().getHeaders()) {
-            if (h.getName() != null && h.getName().equalsIgnoreCase(name)) {
-                return h.getValue();
-            }
-        }
-        return null;
-    }
 }
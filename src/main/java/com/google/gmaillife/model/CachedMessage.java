@@ -0,0 +1,37 @@
+package com.google.gmaillife.model;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Metadata kept in the local cache for one Gmail message
+public class CachedMessage {
+    private String id;
+    private String threadId;
+    private List<String> labelIds = new ArrayList<>();
+    private String snippet;
+    private long internalDate;
+    private int sizeEstimate;
+    private Map<String, String> headers = new LinkedHashMap<>();
+
+    // Required no-arg constructor for Jackson
+    public CachedMessage() {}
+
+    // Getters and setters (Jackson needs them)
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+    public String getThreadId() { return threadId; }
+    public void setThreadId(String threadId) { this.threadId = threadId; }
+    public List<String> getLabelIds() { return labelIds; }
+    public void setLabelIds(List<String> labelIds) { this.labelIds = labelIds; }
+    public String getSnippet() { return snippet; }
+    public void setSnippet(String snippet) { this.snippet = snippet; }
+    public long getInternalDate() { return internalDate; }
+    public void setInternalDate(long internalDate) { this.internalDate = internalDate; }
+    public int getSizeEstimate() { return sizeEstimate; }
+    public void setSizeEstimate(int sizeEstimate) { this.sizeEstimate = sizeEstimate; }
+    // Header names are stored in their canonical case, e.g. "List-Unsubscribe"
+    public Map<String, String> getHeaders() { return headers; }
+    public void setHeaders(Map<String, String> headers) { this.headers = headers; }
+}
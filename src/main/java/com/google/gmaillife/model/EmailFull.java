@@ -1,14 +1,26 @@
 package com.google.gmaillife.model;
 
-public class EmailFull {
-    private String id;
-    private String subject;
-    private String from;
-    private String date;
-    private String body;
-    private String snippet;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
 
-    public EmailFull() {}
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// A message with its decoded body, as getEmail/getThread return it. Immutable, and serialized
+// like EmailSummary: pre-encoded field names, nulls left out.
+@JsonSerialize(using = EmailFull.Serializer.class)
+public final class EmailFull {
+    private final String id;
+    private final String subject;
+    private final String from;
+    private final String date;
+    private final String body;
+    private final String snippet;
 
     public EmailFull(String id, String subject, String from, String date, String body, String snippet) {
         this.id = id;
@@ -19,18 +31,42 @@ public class EmailFull {
         this.snippet = snippet;
     }
 
-    // Getters and setters
     public String getId() { return id; }
-    public void setId(String id) { this.id = id; }
     public String getSubject() { return subject; }
-    public void setSubject(String subject) { this.subject = subject; }
     public String getFrom() { return from; }
-    public void setFrom(String from) { this.from = from; }
     public String getDate() { return date; }
-    public void setDate(String date) { this.date = date; }
     public String getBody() { return body; }
-    public void setBody(String body) { this.body = body; }
     public String getSnippet() { return snippet; }
-    public void setSnippet(String snippet) { this.snippet = snippet; }
-}
 
+    // The same fields as a map, for tools that must return one
+    public Map<String, Object> toMap() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        EmailSummary.put(m, "id", id);
+        EmailSummary.put(m, "subject", subject);
+        EmailSummary.put(m, "from", from);
+        EmailSummary.put(m, "date", date);
+        EmailSummary.put(m, "snippet", snippet);
+        EmailSummary.put(m, "body", body);
+        return m;
+    }
+
+    public static final class Serializer extends StdSerializer<EmailFull> {
+        private static final SerializableString BODY = new SerializedString("body");
+
+        public Serializer() {
+            super(EmailFull.class);
+        }
+
+        @Override
+        public void serialize(EmailFull value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartObject(value);
+            EmailSummary.Serializer.field(gen, EmailSummary.Serializer.ID, value.id);
+            EmailSummary.Serializer.field(gen, EmailSummary.Serializer.SUBJECT, value.subject);
+            EmailSummary.Serializer.field(gen, EmailSummary.Serializer.FROM, value.from);
+            EmailSummary.Serializer.field(gen, EmailSummary.Serializer.DATE, value.date);
+            EmailSummary.Serializer.field(gen, EmailSummary.Serializer.SNIPPET, value.snippet);
+            EmailSummary.Serializer.field(gen, BODY, value.body);
+            gen.writeEndObject();
+        }
+    }
+}
@@ -1,33 +1,96 @@
 package com.google.gmaillife.model;
 
-public class EmailSummary {
-    private String id;
-    private String subject;
-    private String from;
-    private String date;
-    private String snippet;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
 
-    // Required no-arg constructor for Jackson
-    public EmailSummary() {}
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// One row of a listing tool (searchEmails, analyzeEmailBatch). Immutable; written by a
+// hand-rolled serializer with pre-encoded field names, so no bean introspection or per-row map.
+// Null fields are left out, which lets tools that fetch fewer headers share the type.
+@JsonSerialize(using = EmailSummary.Serializer.class)
+public final class EmailSummary {
+    private final String id;
+    private final String subject;
+    private final String from;
+    private final String date;
+    private final String snippet;
+    private final boolean alreadyUnsubscribed;
 
     public EmailSummary(String id, String subject, String from, String date, String snippet) {
+        this(id, subject, from, date, snippet, false);
+    }
+
+    // alreadyUnsubscribed is only written when true
+    public EmailSummary(String id, String subject, String from, String date, String snippet, boolean alreadyUnsubscribed) {
         this.id = id;
         this.subject = subject;
         this.from = from;
         this.date = date;
         this.snippet = snippet;
+        this.alreadyUnsubscribed = alreadyUnsubscribed;
     }
 
-    // Getters and setters (Jackson needs them)
     public String getId() { return id; }
-    public void setId(String id) { this.id = id; }
     public String getSubject() { return subject; }
-    public void setSubject(String subject) { this.subject = subject; }
     public String getFrom() { return from; }
-    public void setFrom(String from) { this.from = from; }
     public String getDate() { return date; }
-    public void setDate(String date) { this.date = date; }
     public String getSnippet() { return snippet; }
-    public void setSnippet(String snippet) { this.snippet = snippet; }
-}
+    public boolean isAlreadyUnsubscribed() { return alreadyUnsubscribed; }
 
+    // The same fields as a map, for CompactResult
+    public Map<String, Object> toMap() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        put(m, "id", id);
+        put(m, "subject", subject);
+        put(m, "from", from);
+        put(m, "date", date);
+        put(m, "snippet", snippet);
+        if (alreadyUnsubscribed) m.put("alreadyUnsubscribed", true);
+        return m;
+    }
+
+    static void put(Map<String, Object> m, String key, String value) {
+        if (value != null) m.put(key, value);
+    }
+
+    public static final class Serializer extends StdSerializer<EmailSummary> {
+        static final SerializableString ID = new SerializedString("id");
+        static final SerializableString SUBJECT = new SerializedString("subject");
+        static final SerializableString FROM = new SerializedString("from");
+        static final SerializableString DATE = new SerializedString("date");
+        static final SerializableString SNIPPET = new SerializedString("snippet");
+        private static final SerializableString ALREADY_UNSUBSCRIBED = new SerializedString("alreadyUnsubscribed");
+
+        public Serializer() {
+            super(EmailSummary.class);
+        }
+
+        @Override
+        public void serialize(EmailSummary value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartObject(value);
+            field(gen, ID, value.id);
+            field(gen, SUBJECT, value.subject);
+            field(gen, FROM, value.from);
+            field(gen, DATE, value.date);
+            field(gen, SNIPPET, value.snippet);
+            if (value.alreadyUnsubscribed) {
+                gen.writeFieldName(ALREADY_UNSUBSCRIBED);
+                gen.writeBoolean(true);
+            }
+            gen.writeEndObject();
+        }
+
+        static void field(JsonGenerator gen, SerializableString name, String value) throws IOException {
+            if (value == null) return;
+            gen.writeFieldName(name);
+            gen.writeString(value);
+        }
+    }
+}
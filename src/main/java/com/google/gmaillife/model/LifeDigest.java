@@ -0,0 +1,28 @@
+package com.google.gmaillife.model;
+
+// One cached life-story summary: a month digest, a year narrative or the overall story
+public class LifeDigest {
+    private String scope;
+    private String fingerprint;
+    private String summary;
+    private int messages;
+    private long updatedAt;
+
+    // Required no-arg constructor for Jackson
+    public LifeDigest() {}
+
+    // Getters and setters (Jackson needs them)
+    // "month:2023-04", "year:2023" or "overall:2019-2024"
+    public String getScope() { return scope; }
+    public void setScope(String scope) { this.scope = scope; }
+    // Inputs the summary was made from; a different fingerprint means it is stale
+    public String getFingerprint() { return fingerprint; }
+    public void setFingerprint(String fingerprint) { this.fingerprint = fingerprint; }
+    public String getSummary() { return summary; }
+    public void setSummary(String summary) { this.summary = summary; }
+    public int getMessages() { return messages; }
+    public void setMessages(int messages) { this.messages = messages; }
+    // Epoch millis
+    public long getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(long updatedAt) { this.updatedAt = updatedAt; }
+}
@@ -0,0 +1,31 @@
+package com.google.gmaillife.model;
+
+// Outcome of the last unsubscribe attempt for one list / target / sender domain
+public class UnsubscribeRecord {
+    private String key;
+    private String status;
+    private String method;
+    private String messageId;
+    private int attempts;
+    private long lastAttempt;
+
+    // Required no-arg constructor for Jackson
+    public UnsubscribeRecord() {}
+
+    // Getters and setters (Jackson needs them)
+    // Store key, e.g. "list:news.example.com" or "url:list-manage.com/unsubscribe?id=1a2b&u=9f8e"
+    public String getKey() { return key; }
+    public void setKey(String key) { this.key = key; }
+    // "ok" or "error"
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+    public String getMethod() { return method; }
+    public void setMethod(String method) { this.method = method; }
+    public String getMessageId() { return messageId; }
+    public void setMessageId(String messageId) { this.messageId = messageId; }
+    public int getAttempts() { return attempts; }
+    public void setAttempts(int attempts) { this.attempts = attempts; }
+    // Epoch millis
+    public long getLastAttempt() { return lastAttempt; }
+    public void setLastAttempt(long lastAttempt) { this.lastAttempt = lastAttempt; }
+}